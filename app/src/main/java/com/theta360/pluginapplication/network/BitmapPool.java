@@ -0,0 +1,165 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of mutable bitmaps reused when decoding images<p>
+ * A decode takes the smallest pooled bitmap whose allocation is large enough through
+ * {@link BitmapFactory.Options#inBitmap}, so that thumbnails and preview frames of the same size
+ * do not allocate new pixel memory. The pool holds at most the given number of bytes.
+ */
+public class BitmapPool {
+    private final long mMaxBytes;
+    private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+    private long mPooledBytes = 0;
+    private long mReuseCount = 0;
+    private long mAllocationCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param maxBytes Maximum size of pooled bitmaps (unit: bytes)
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Return bitmap no longer displayed to the pool
+     *
+     * @param bitmap Bitmap (immutable or recycled bitmaps are ignored)
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxBytes) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mPooledBytes += size;
+        while (mPooledBytes > mMaxBytes) {
+            Bitmap oldest = mBitmaps.removeFirst();
+            mPooledBytes -= oldest.getAllocationByteCount();
+        }
+    }
+
+    /**
+     * Decode image, reusing a pooled bitmap if one is large enough
+     *
+     * @param data Encoded image
+     * @param offset Start position of the image in data
+     * @param length Length of the image
+     * @return Mutable bitmap (null is returned if the data cannot be decoded)
+     */
+    public Bitmap decode(byte[] data, int offset, int length) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = take(options.outWidth * options.outHeight * 4);
+        try {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, offset, length, options);
+            countDecode(options.inBitmap != null && bitmap == options.inBitmap);
+            return bitmap;
+        } catch (IllegalArgumentException e) {
+            // the pooled bitmap could not be reused, decode into a new one
+            put(options.inBitmap);
+            options.inBitmap = null;
+            countDecode(false);
+            return BitmapFactory.decodeByteArray(data, offset, length, options);
+        }
+    }
+
+    /**
+     * Acquire number of decodes that reused a pooled bitmap
+     *
+     * @return Number of decodes
+     */
+    public synchronized long getReuseCount() {
+        return mReuseCount;
+    }
+
+    /**
+     * Acquire number of decodes that allocated a new bitmap
+     *
+     * @return Number of decodes
+     */
+    public synchronized long getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * Acquire size of pooled bitmaps
+     *
+     * @return Size (unit: bytes)
+     */
+    public synchronized long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    /**
+     * Drop all pooled bitmaps
+     */
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mPooledBytes = 0;
+    }
+
+    /**
+     * Take smallest pooled bitmap of at least the given allocation size
+     */
+    private synchronized Bitmap take(int byteCount) {
+        Bitmap best = null;
+        for (Bitmap bitmap : mBitmaps) {
+            int size = bitmap.getAllocationByteCount();
+            if (size >= byteCount && (best == null || size < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+        if (best != null) {
+            Iterator<Bitmap> iterator = mBitmaps.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next() == best) {
+                    iterator.remove();
+                    break;
+                }
+            }
+            mPooledBytes -= best.getAllocationByteCount();
+        }
+        return best;
+    }
+
+    private synchronized void countDecode(boolean reused) {
+        if (reused) {
+            mReuseCount++;
+        } else {
+            mAllocationCount++;
+        }
+    }
+}
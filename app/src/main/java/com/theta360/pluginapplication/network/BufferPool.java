@@ -0,0 +1,84 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of large transfer buffers<p>
+ * The buffers are array backed because the body of a response is read through an InputStream, and
+ * reading into the array directly avoids an extra copy that a direct buffer would need.
+ */
+final class BufferPool {
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> mBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPooledCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     *
+     * @param bufferSize Size of each buffer (unit: bytes)
+     * @param maxPooled Maximum number of idle buffers kept
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        mBufferSize = bufferSize;
+        mMaxPooled = maxPooled;
+    }
+
+    /**
+     * Acquire buffer, allocating one if none is idle
+     *
+     * @return Cleared buffer
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = mBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(mBufferSize);
+        }
+        mPooledCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Return buffer to the pool
+     *
+     * @param buffer Buffer acquired from this pool
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() != mBufferSize) {
+            return;
+        }
+        if (mPooledCount.incrementAndGet() <= mMaxPooled) {
+            mBuffers.offer(buffer);
+        } else {
+            mPooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Acquire size of each buffer
+     *
+     * @return Buffer size (unit: bytes)
+     */
+    int getBufferSize() {
+        return mBufferSize;
+    }
+}
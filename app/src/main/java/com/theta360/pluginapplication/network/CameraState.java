@@ -0,0 +1,108 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+/**
+ * Status class of device acquired by /osc/state
+ */
+public class CameraState {
+    private String mFingerprint;
+    private String mLatestFileUri;
+    private double mBatteryLevel = -1.0d;
+    private String mBatteryState;
+    private String mCaptureStatus;
+
+    /**
+     * Acquire fingerprint of device status
+     * @return Fingerprint
+     */
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * Set fingerprint of device status
+     * @param fingerprint Fingerprint
+     */
+    public void setFingerprint(String fingerprint) {
+        mFingerprint = fingerprint;
+    }
+
+    /**
+     * Acquire URL of the last saved file
+     * @return File URL (empty string is returned if there is no file)
+     */
+    public String getLatestFileUri() {
+        return mLatestFileUri;
+    }
+
+    /**
+     * Set URL of the last saved file
+     * @param latestFileUri File URL
+     */
+    public void setLatestFileUri(String latestFileUri) {
+        mLatestFileUri = latestFileUri;
+    }
+
+    /**
+     * Acquire remaining battery level
+     * @return Battery level (value between 0 and 1, -1 is returned if unknown)
+     */
+    public double getBatteryLevel() {
+        return mBatteryLevel;
+    }
+
+    /**
+     * Set remaining battery level
+     * @param batteryLevel Battery level
+     */
+    public void setBatteryLevel(double batteryLevel) {
+        mBatteryLevel = batteryLevel;
+    }
+
+    /**
+     * Acquire charging state
+     * @return "charging", "charged" or "disconnect" (null is returned if unknown)
+     */
+    public String getBatteryState() {
+        return mBatteryState;
+    }
+
+    /**
+     * Set charging state
+     * @param batteryState Charging state
+     */
+    public void setBatteryState(String batteryState) {
+        mBatteryState = batteryState;
+    }
+
+    /**
+     * Acquire capture status
+     * @return "idle", "shooting", "self-timer countdown", ... (null is returned if unknown)
+     */
+    public String getCaptureStatus() {
+        return mCaptureStatus;
+    }
+
+    /**
+     * Set capture status
+     * @param captureStatus Capture status
+     */
+    public void setCaptureStatus(String captureStatus) {
+        mCaptureStatus = captureStatus;
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watcher publishing changes of device status to any number of listeners<p>
+ * A single thread polls /osc/checkForUpdates, waiting between checks for the throttleTimeout
+ * returned by the device, and acquires /osc/state only when the fingerprint changes. Listeners
+ * are notified of the fields that changed. The thread runs only while listeners are registered.
+ */
+public class CameraStateWatcher {
+    // interval used when the device does not return throttleTimeout, and bounds of the interval
+    private final static long DEFAULT_INTERVAL_MS = 1000;
+    private final static long MIN_INTERVAL_MS = 100;
+    private final static long ERROR_RETRY_INTERVAL_MS = 2000;
+
+    private final HttpConnector mConnector;
+    private final CommandStatusScheduler mStatusScheduler = CommandStatusScheduler.getInstance();
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    private final Object mLock = new Object();
+    private Thread mThread = null;
+    private boolean mCheckRequested = false;
+    private volatile CameraState mState = null;
+    private volatile long mCheckCount = 0;
+    private volatile long mStateCount = 0;
+
+    /**
+     * Listener receiving changes of device status<p>
+     * Methods are called on the callback thread of {@link CommandStatusScheduler}.
+     */
+    public interface Listener {
+        /**
+         * Notify of device status after any change, and once on registration if it is known
+         *
+         * @param state Device status
+         */
+        void onStateChanged(CameraState state);
+
+        /**
+         * Notify that a new file was saved
+         *
+         * @param latestFileUri URL of the last saved file
+         */
+        default void onLatestFileChanged(String latestFileUri) {
+        }
+
+        /**
+         * Notify of change of battery level or charging state
+         *
+         * @param batteryLevel Battery level (value between 0 and 1)
+         * @param batteryState Charging state
+         */
+        default void onBatteryChanged(double batteryLevel, String batteryState) {
+        }
+
+        /**
+         * Notify of change of capture status
+         *
+         * @param captureStatus Capture status
+         */
+        default void onCaptureStatusChanged(String captureStatus) {
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connector Connection to device
+     */
+    CameraStateWatcher(HttpConnector connector) {
+        mConnector = connector;
+    }
+
+    /**
+     * Register listener, starting to watch the device if it is the first one
+     *
+     * @param listener Listener
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+        CameraState state = mState;
+        if (state != null) {
+            mStatusScheduler.dispatch(() -> listener.onStateChanged(state));
+        }
+
+        synchronized (mLock) {
+            if (mThread == null) {
+                mThread = new Thread(this::run, "CameraStateWatcher");
+                mThread.setDaemon(true);
+                mThread.start();
+            }
+        }
+    }
+
+    /**
+     * Unregister listener, stopping to watch the device after the last one
+     *
+     * @param listener Listener
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Check for updates without waiting for the throttle timeout, e.g. right after a command that
+     * changes the device status
+     */
+    public void checkNow() {
+        synchronized (mLock) {
+            mCheckRequested = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Acquire last known device status
+     *
+     * @return Device status (null is returned before it is acquired)
+     */
+    public CameraState getState() {
+        return mState;
+    }
+
+    /**
+     * Acquire number of /osc/checkForUpdates requests sent
+     *
+     * @return Number of requests
+     */
+    public long getCheckCount() {
+        return mCheckCount;
+    }
+
+    /**
+     * Acquire number of /osc/state requests sent
+     *
+     * @return Number of requests
+     */
+    public long getStateCount() {
+        return mStateCount;
+    }
+
+    private void run() {
+        String fingerPrint = null;
+        while (isWatched()) {
+            long intervalMs;
+            if (fingerPrint == null) {
+                fingerPrint = fetchState();
+                intervalMs = fingerPrint != null ? DEFAULT_INTERVAL_MS : ERROR_RETRY_INTERVAL_MS;
+            } else {
+                UpdateStatus status = mConnector.checkForUpdates(fingerPrint, 0);
+                mCheckCount++;
+                if (status == null) {
+                    intervalMs = ERROR_RETRY_INTERVAL_MS;
+                } else {
+                    if (!status.getFingerprint().equals(fingerPrint)) {
+                        // fall back to the new fingerprint if the state cannot be acquired
+                        String stateFingerPrint = fetchState();
+                        fingerPrint = stateFingerPrint != null ? stateFingerPrint
+                                : status.getFingerprint();
+                    }
+                    intervalMs = status.getThrottleTimeout() >= 0
+                            ? Math.max(status.getThrottleTimeout() * 1000L, MIN_INTERVAL_MS)
+                            : DEFAULT_INTERVAL_MS;
+                }
+            }
+            sleep(intervalMs);
+        }
+    }
+
+    /**
+     * Acquire device status and notify listeners of the changes
+     *
+     * @return Fingerprint (null is returned if acquisition fails)
+     */
+    private String fetchState() {
+        CameraState state = mConnector.getState();
+        mStateCount++;
+        if (state == null) {
+            return null;
+        }
+
+        CameraState previous = mState;
+        mState = state;
+        mStatusScheduler.dispatch(() -> publish(previous, state));
+        return state.getFingerprint();
+    }
+
+    private void publish(CameraState previous, CameraState state) {
+        boolean latestFileChanged = previous != null
+                && !Objects.equals(previous.getLatestFileUri(), state.getLatestFileUri());
+        boolean batteryChanged = previous == null
+                || previous.getBatteryLevel() != state.getBatteryLevel()
+                || !Objects.equals(previous.getBatteryState(), state.getBatteryState());
+        boolean captureStatusChanged = previous == null
+                || !Objects.equals(previous.getCaptureStatus(), state.getCaptureStatus());
+
+        for (Listener listener : mListeners) {
+            listener.onStateChanged(state);
+            if (latestFileChanged) {
+                listener.onLatestFileChanged(state.getLatestFileUri());
+            }
+            if (batteryChanged) {
+                listener.onBatteryChanged(state.getBatteryLevel(), state.getBatteryState());
+            }
+            if (captureStatusChanged) {
+                listener.onCaptureStatusChanged(state.getCaptureStatus());
+            }
+        }
+    }
+
+    /**
+     * Check whether listeners remain, ending the thread otherwise
+     */
+    private boolean isWatched() {
+        synchronized (mLock) {
+            if (mListeners.isEmpty()) {
+                mThread = null;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void sleep(long intervalMs) {
+        long deadline = System.currentTimeMillis() + intervalMs;
+        synchronized (mLock) {
+            long remaining;
+            while (!mCheckRequested && !mListeners.isEmpty()
+                    && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    mLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            mCheckRequested = false;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import android.graphics.Bitmap;
+import java.io.Closeable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stage fetching each still image as soon as it is captured<p>
+ * While the pipeline is started, every photo taken through its connection is fetched without
+ * waiting for the caller: the thumbnail and the full file are requested at the same time, and the
+ * pose angles are notified as soon as the head of the file has arrived. Results of each file are
+ * delivered in the order thumbnail, pose, file: a pose or file arriving first is held until the
+ * thumbnail has been notified or has failed. Fetches run on the pipeline's own threads at
+ * transfer priority, so the next capture is not delayed by them.
+ */
+public class CapturePipeline implements Closeable {
+    private final HttpConnector mConnector;
+    private final File mDirectory;
+    private final Listener mListener;
+    // thumbnails have their own thread so that they never wait behind a download
+    private final ThreadPoolExecutor mThumbnailExecutor;
+    private final ThreadPoolExecutor mFileExecutor;
+    private final AtomicInteger mPendingCount = new AtomicInteger();
+
+    private final Object mStatsLock = new Object();
+    private long mThumbnailCount = 0;
+    private long mThumbnailLatencyNanos = 0;
+    private long mFileCount = 0;
+    private long mFileLatencyNanos = 0;
+    private long mFailedCount = 0;
+
+    /**
+     * Listener receiving the results of each captured file<p>
+     * Methods are called on the pipeline threads. The thumbnail is not notified if it cannot be
+     * acquired, and the pose is not notified for files without pose angles.
+     */
+    public interface Listener {
+        /**
+         * Notify thumbnail of captured file
+         *
+         * @param fileUrl URL of the file
+         * @param thumbnail Thumbnail
+         */
+        default void onThumbnail(String fileUrl, Bitmap thumbnail) {
+        }
+
+        /**
+         * Notify pose angles of captured file
+         *
+         * @param fileUrl URL of the file
+         * @param pitch Pitch angle (unit: degrees)
+         * @param roll Roll angle (unit: degrees)
+         * @param yaw Heading angle (unit: degrees)
+         */
+        default void onPose(String fileUrl, Double pitch, Double roll, Double yaw) {
+        }
+
+        /**
+         * Notify that captured file was downloaded
+         *
+         * @param fileUrl URL of the file
+         * @param imageData Image data backed by the local file
+         */
+        void onFile(String fileUrl, ImageData imageData);
+
+        /**
+         * Notify that captured file could not be downloaded
+         *
+         * @param fileUrl URL of the file
+         */
+        default void onFailed(String fileUrl) {
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connector Connection to device
+     * @param directory Destination directory of the downloaded files
+     * @param listener Listener
+     */
+    public CapturePipeline(HttpConnector connector, File directory, Listener listener) {
+        mConnector = connector;
+        mDirectory = directory;
+        mListener = listener;
+        mThumbnailExecutor = newExecutor("CapturePipelineThumbnail");
+        mFileExecutor = newExecutor("CapturePipelineFile");
+    }
+
+    /**
+     * Start fetching photos taken through the connection
+     */
+    public void start() {
+        mDirectory.mkdirs();
+        mConnector.setCapturePipeline(this);
+    }
+
+    /**
+     * Fetch captured file<p>
+     * Called by the connection when a capture finishes, and can also be called for files captured
+     * otherwise.
+     *
+     * @param fileUrl URL of the file
+     */
+    public void prefetch(String fileUrl) {
+        long capturedNanos = System.nanoTime();
+        mPendingCount.incrementAndGet();
+        Delivery delivery = new Delivery();
+        try {
+            mThumbnailExecutor.execute(() -> fetchThumbnail(fileUrl, capturedNanos, delivery));
+            mFileExecutor.execute(() -> fetchFile(fileUrl, capturedNanos, delivery));
+        } catch (RejectedExecutionException e) {
+            // closed while the capture was finishing
+            mPendingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Stop fetching new photos<p>
+     * Files already being fetched are completed.
+     */
+    @Override
+    public void close() {
+        mConnector.setCapturePipeline(null);
+        mThumbnailExecutor.shutdown();
+        mFileExecutor.shutdown();
+    }
+
+    /**
+     * Acquire number of files not yet downloaded
+     *
+     * @return Number of files
+     */
+    public int getPendingCount() {
+        return mPendingCount.get();
+    }
+
+    /**
+     * Acquire number of files that could not be downloaded
+     *
+     * @return Number of files
+     */
+    public long getFailedCount() {
+        synchronized (mStatsLock) {
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * Acquire average time from the end of capture to the thumbnail
+     *
+     * @return Average latency (unit: milliseconds)
+     */
+    public double getAverageThumbnailLatencyMillis() {
+        synchronized (mStatsLock) {
+            if (mThumbnailCount == 0) {
+                return 0.0d;
+            }
+            return mThumbnailLatencyNanos / 1000000.0d / mThumbnailCount;
+        }
+    }
+
+    /**
+     * Acquire average time from the end of capture to the downloaded file
+     *
+     * @return Average latency (unit: milliseconds)
+     */
+    public double getAverageFileLatencyMillis() {
+        synchronized (mStatsLock) {
+            if (mFileCount == 0) {
+                return 0.0d;
+            }
+            return mFileLatencyNanos / 1000000.0d / mFileCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "pending=" + getPendingCount() + " failed=" + getFailedCount()
+                + " avgThumbnailLatencyMs=" + getAverageThumbnailLatencyMillis()
+                + " avgFileLatencyMs=" + getAverageFileLatencyMillis();
+    }
+
+    private static ThreadPoolExecutor newExecutor(String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private void fetchThumbnail(String fileUrl, long capturedNanos, Delivery delivery) {
+        try {
+            Bitmap thumbnail = mConnector.getThumb(fileUrl);
+            if (thumbnail == null) {
+                return;
+            }
+            synchronized (mStatsLock) {
+                mThumbnailCount++;
+                mThumbnailLatencyNanos += System.nanoTime() - capturedNanos;
+            }
+            mListener.onThumbnail(fileUrl, thumbnail);
+        } finally {
+            delivery.releaseHeld();
+        }
+    }
+
+    private void fetchFile(String fileUrl, long capturedNanos, Delivery delivery) {
+        boolean[] poseNotified = new boolean[1];
+        File file = new File(mDirectory, fileUrl.substring(fileUrl.lastIndexOf('/') + 1));
+        ImageData imageData = mConnector.getImage(fileUrl, file, new HttpDownloadListener() {
+            @Override
+            public void onTotalSize(long totalSize) {
+            }
+
+            @Override
+            public void onDataReceived(int size) {
+            }
+
+            @Override
+            public void onPoseReceived(Double pitch, Double roll, Double yaw) {
+                poseNotified[0] = true;
+                delivery.deliver(() -> mListener.onPose(fileUrl, pitch, roll, yaw));
+            }
+        });
+        mPendingCount.decrementAndGet();
+
+        if (imageData == null) {
+            synchronized (mStatsLock) {
+                mFailedCount++;
+            }
+            delivery.deliver(() -> mListener.onFailed(fileUrl));
+            return;
+        }
+        if (!poseNotified[0] && imageData.getPitch() != null) {
+            // the head was received by an earlier attempt
+            delivery.deliver(() -> mListener.onPose(fileUrl, imageData.getPitch(),
+                    imageData.getRoll(), imageData.getYaw()));
+        }
+        synchronized (mStatsLock) {
+            mFileCount++;
+            mFileLatencyNanos += System.nanoTime() - capturedNanos;
+        }
+        delivery.deliver(() -> mListener.onFile(fileUrl, imageData));
+    }
+
+    /**
+     * Order of the notifications of one file<p>
+     * Notifications of the file thread are held until the thumbnail is settled, and are then
+     * run in their original order by the thumbnail thread.
+     */
+    private static final class Delivery {
+        private final List<Runnable> mHeld = new ArrayList<>();
+        private boolean mThumbnailSettled = false;
+
+        /**
+         * Notify now if the thumbnail is settled, otherwise hold the notification
+         *
+         * @param notification Notification of the listener
+         */
+        void deliver(Runnable notification) {
+            synchronized (this) {
+                if (!mThumbnailSettled) {
+                    mHeld.add(notification);
+                    return;
+                }
+            }
+            notification.run();
+        }
+
+        /**
+         * Mark the thumbnail as settled and run the held notifications
+         */
+        void releaseHeld() {
+            while (true) {
+                List<Runnable> held;
+                synchronized (this) {
+                    if (mHeld.isEmpty()) {
+                        // only now can the file thread notify directly without overtaking
+                        mThumbnailSettled = true;
+                        return;
+                    }
+                    held = new ArrayList<>(mHeld);
+                    mHeld.clear();
+                }
+                for (Runnable notification : held) {
+                    try {
+                        notification.run();
+                    } catch (RuntimeException e) {
+                        // a failing listener must not block the later notifications
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counters and latency histograms of the commands sent by a connection<p>
+ * Each OSC command is counted under its name, such as "camera.takePicture". Other OSC APIs are
+ * counted under their path, and file transfers under {@link CommandMetrics#FILE} and
+ * {@link CommandMetrics#THUMBNAIL}. A command that continues in the background is timed from
+ * sending it until its completion is confirmed. Recording allocates nothing except on the first
+ * use of a name and on the first occurrence of an error code.
+ */
+public class CommandMetrics {
+    public final static String FILE = "file";
+    public final static String THUMBNAIL = "thumbnail";
+
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Counters of one command
+     */
+    private static class Entry {
+        private final String mName;
+        private final LatencyHistogram mHistogram = new LatencyHistogram();
+        private long mErrorCount = 0;
+        private long mFailureCount = 0;
+        private long mTimeoutCount = 0;
+        private long mRetryCount = 0;
+        private long mBytes = 0;
+        private final Map<String, Long> mErrorCodeCounts = new HashMap<>();
+
+        Entry(String name) {
+            mName = name;
+        }
+
+        synchronized CommandStats snapshot(boolean reset) {
+            CommandStats stats = new CommandStats(mName, mHistogram.copy(), mErrorCount,
+                    mFailureCount, mTimeoutCount, mRetryCount, mBytes,
+                    new HashMap<>(mErrorCodeCounts));
+            if (reset) {
+                mHistogram.reset();
+                mErrorCount = 0;
+                mFailureCount = 0;
+                mTimeoutCount = 0;
+                mRetryCount = 0;
+                mBytes = 0;
+                mErrorCodeCounts.clear();
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Count finished command
+     *
+     * @param name Command name
+     * @param latencyNanos Time from sending the command until it finished (unit: nanoseconds)
+     * @param bytes Number of bytes sent and received
+     * @param errorCode OSC error code (null if finished without error)
+     */
+    void record(String name, long latencyNanos, long bytes, String errorCode) {
+        Entry entry = getEntry(name);
+        synchronized (entry) {
+            entry.mHistogram.record(latencyNanos);
+            entry.mBytes += bytes;
+            if (errorCode != null) {
+                entry.mErrorCount++;
+                Long count = entry.mErrorCodeCounts.get(errorCode);
+                entry.mErrorCodeCounts.put(errorCode, count != null ? count + 1 : 1L);
+            }
+        }
+    }
+
+    /**
+     * Count bytes of command that continues in the background
+     *
+     * @param name Command name
+     * @param bytes Number of bytes sent and received
+     */
+    void recordBytes(String name, long bytes) {
+        Entry entry = getEntry(name);
+        synchronized (entry) {
+            entry.mBytes += bytes;
+        }
+    }
+
+    /**
+     * Count command failed by a communication error
+     *
+     * @param name Command name
+     * @param bytes Number of bytes sent and received before the failure
+     */
+    void recordFailure(String name, long bytes) {
+        Entry entry = getEntry(name);
+        synchronized (entry) {
+            entry.mFailureCount++;
+            entry.mBytes += bytes;
+        }
+    }
+
+    /**
+     * Count command whose completion was not confirmed in time
+     *
+     * @param name Command name
+     */
+    void recordTimeout(String name) {
+        Entry entry = getEntry(name);
+        synchronized (entry) {
+            entry.mTimeoutCount++;
+        }
+    }
+
+    /**
+     * Count commands or chunks sent again
+     *
+     * @param name Command name
+     * @param count Number of retries
+     */
+    void recordRetries(String name, int count) {
+        if (count == 0) {
+            return;
+        }
+        Entry entry = getEntry(name);
+        synchronized (entry) {
+            entry.mRetryCount += count;
+        }
+    }
+
+    /**
+     * Acquire statistics of all commands sent so far
+     *
+     * @return Statistics keyed by command name
+     */
+    public Map<String, CommandStats> getSnapshot() {
+        return getSnapshot(false);
+    }
+
+    /**
+     * Acquire statistics of all commands<p>
+     * Exporting with reset set gives the statistics of each period between exports.
+     *
+     * @param reset true:Clear the statistics after acquiring them, false:Keep them
+     * @return Statistics keyed by command name
+     */
+    public Map<String, CommandStats> getSnapshot(boolean reset) {
+        Map<String, CommandStats> snapshot = new TreeMap<>();
+        for (Entry entry : mEntries.values()) {
+            snapshot.put(entry.mName, entry.snapshot(reset));
+        }
+        return snapshot;
+    }
+
+    private Entry getEntry(String name) {
+        Entry entry = mEntries.get(name);
+        if (entry == null) {
+            entry = mEntries.computeIfAbsent(name, Entry::new);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of OSC commands in progress<p>
+ * Each command keeps its own entry, so several commands (shooting, deletion, ...) can be tracked
+ * at the same time.
+ */
+public class CommandRegistry {
+    private final Map<String, Entry> mCommands = new ConcurrentHashMap<>();
+
+    /**
+     * Register command in progress
+     *
+     * @param commandId Command ID returned by device (nothing is registered if null)
+     * @param commandName Command name such as "camera.takePicture"
+     */
+    void register(String commandId, String commandName) {
+        if (commandId != null) {
+            mCommands.put(commandId, new Entry(commandId, commandName, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Remove completed command
+     *
+     * @param commandId Command ID
+     */
+    void unregister(String commandId) {
+        if (commandId != null) {
+            mCommands.remove(commandId);
+        }
+    }
+
+    /**
+     * Check whether command is in progress
+     *
+     * @param commandId Command ID
+     * @return true:In progress, false:Completed or unknown
+     */
+    public boolean isInFlight(String commandId) {
+        return mCommands.containsKey(commandId);
+    }
+
+    /**
+     * Check whether a command of the name is in progress
+     *
+     * @param commandName Command name such as "camera.takePicture"
+     * @return true:In progress, false:No such command in progress
+     */
+    public boolean isInFlightByName(String commandName) {
+        for (Entry entry : mCommands.values()) {
+            if (entry.getCommandName().equals(commandName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Acquire number of commands in progress
+     *
+     * @return Number of commands
+     */
+    public int getInFlightCount() {
+        return mCommands.size();
+    }
+
+    /**
+     * Acquire commands in progress
+     *
+     * @return Commands in progress
+     */
+    public List<Entry> getInFlightCommands() {
+        return new ArrayList<>(mCommands.values());
+    }
+
+    /**
+     * Command in progress
+     */
+    public static class Entry {
+        private final String mCommandId;
+        private final String mCommandName;
+        private final long mStartTimeNanos;
+
+        Entry(String commandId, String commandName, long startTimeNanos) {
+            mCommandId = commandId;
+            mCommandName = commandName;
+            mStartTimeNanos = startTimeNanos;
+        }
+
+        /**
+         * Acquire command ID
+         * @return Command ID
+         */
+        public String getCommandId() {
+            return mCommandId;
+        }
+
+        /**
+         * Acquire command name
+         * @return Command name
+         */
+        public String getCommandName() {
+            return mCommandName;
+        }
+
+        /**
+         * Acquire elapsed time since the command was accepted
+         * @return Elapsed time (unit: milliseconds)
+         */
+        public long getElapsedMillis() {
+            return (System.nanoTime() - mStartTimeNanos) / 1000000;
+        }
+    }
+}
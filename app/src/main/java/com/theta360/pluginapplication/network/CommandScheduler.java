@@ -0,0 +1,267 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scheduler admitting requests to device by priority<p>
+ * A request waits until fewer than the maximum number of requests are running and no request of
+ * a higher priority is waiting, so a capture is sent ahead of queued listings and downloads.
+ * Transfers are limited to fewer requests than the total, which keeps a slot free for foreground
+ * commands. Transfers made of chunks acquire a permit per chunk, so they yield to waiting
+ * commands between chunks. Connections to the same device share one scheduler acquired by
+ * {@link #forDevice(String, int, int)}, so the limits hold for the device as a whole.
+ */
+public class CommandScheduler {
+    /**
+     * Priority class of request (in descending order of priority)
+     */
+    public enum Priority {
+        CAPTURE, PREVIEW, SETTINGS, TRANSFER
+    }
+
+    private final static Priority[] PRIORITIES = Priority.values();
+
+    private final static Map<String, CommandScheduler> sDeviceSchedulers =
+            new ConcurrentHashMap<>();
+
+    private final int mMaxConcurrent;
+    private final int mMaxTransfers;
+
+    private final ArrayDeque<Object>[] mWaiters;
+    private int mRunningCount = 0;
+    private int mRunningTransferCount = 0;
+
+    private final long[] mAcquireCount = new long[PRIORITIES.length];
+    private final long[] mTotalWaitNanos = new long[PRIORITIES.length];
+    private final long[] mMaxWaitNanos = new long[PRIORITIES.length];
+    private long mPreemptionCount = 0;
+
+    /**
+     * Permit to send a request, released by {@link #close()}
+     */
+    public final class Permit implements AutoCloseable {
+        private final Priority mPriority;
+        private boolean mReleased = false;
+
+        private Permit(Priority priority) {
+            mPriority = priority;
+        }
+
+        /**
+         * Acquire priority class of the permit
+         * @return Priority class
+         */
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public void close() {
+            synchronized (CommandScheduler.this) {
+                if (mReleased) {
+                    return;
+                }
+                mReleased = true;
+                mRunningCount--;
+                if (mPriority == Priority.TRANSFER) {
+                    mRunningTransferCount--;
+                }
+                CommandScheduler.this.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxConcurrent Maximum number of requests running at the same time
+     * @param maxTransfers Maximum number of {@link Priority#TRANSFER} requests running at the same
+     * time
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CommandScheduler(int maxConcurrent, int maxTransfers) {
+        if (maxConcurrent <= 0 || maxTransfers <= 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        mMaxConcurrent = maxConcurrent;
+        mMaxTransfers = Math.min(maxTransfers, maxConcurrent);
+        mWaiters = new ArrayDeque[PRIORITIES.length];
+        for (int index = 0; index < PRIORITIES.length; index++) {
+            mWaiters[index] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Acquire scheduler shared by all connections to a device<p>
+     * The limits are only used when the first connection to the device creates the scheduler.
+     *
+     * @param address Address of the device, e.g. "127.0.0.1:8080"
+     * @param maxConcurrent Maximum number of requests running at the same time
+     * @param maxTransfers Maximum number of {@link Priority#TRANSFER} requests running at the same
+     * time
+     * @return Scheduler
+     */
+    public static CommandScheduler forDevice(String address, int maxConcurrent, int maxTransfers) {
+        return sDeviceSchedulers.computeIfAbsent(address,
+                key -> new CommandScheduler(maxConcurrent, maxTransfers));
+    }
+
+    /**
+     * Wait until a request of the priority class may be sent
+     *
+     * @param priority Priority class
+     * @return Permit (close it when the response has been read)
+     * @throws InterruptedIOException Interrupted while waiting
+     */
+    public synchronized Permit acquire(Priority priority) throws InterruptedIOException {
+        int index = priority.ordinal();
+        long startNanos = System.nanoTime();
+        Object waiter = new Object();
+        mWaiters[index].addLast(waiter);
+        try {
+            while (!isAdmissible(priority, waiter)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for device");
+        } finally {
+            mWaiters[index].remove(waiter);
+            // waiters behind this one may be admissible now, or no longer blocked by it
+            notifyAll();
+        }
+
+        mRunningCount++;
+        if (priority == Priority.TRANSFER) {
+            mRunningTransferCount++;
+        }
+        for (int lower = index + 1; lower < PRIORITIES.length; lower++) {
+            if (!mWaiters[lower].isEmpty()) {
+                mPreemptionCount++;
+                break;
+            }
+        }
+
+        long waitNanos = System.nanoTime() - startNanos;
+        mAcquireCount[index]++;
+        mTotalWaitNanos[index] += waitNanos;
+        mMaxWaitNanos[index] = Math.max(mMaxWaitNanos[index], waitNanos);
+        return new Permit(priority);
+    }
+
+    /**
+     * Acquire number of requests waiting
+     *
+     * @return Number of requests
+     */
+    public synchronized int getQueueLength() {
+        int length = 0;
+        for (ArrayDeque<Object> waiters : mWaiters) {
+            length += waiters.size();
+        }
+        return length;
+    }
+
+    /**
+     * Acquire number of requests running
+     *
+     * @return Number of requests
+     */
+    public synchronized int getRunningCount() {
+        return mRunningCount;
+    }
+
+    /**
+     * Acquire number of requests admitted
+     *
+     * @param priority Priority class
+     * @return Number of requests
+     */
+    public synchronized long getAcquireCount(Priority priority) {
+        return mAcquireCount[priority.ordinal()];
+    }
+
+    /**
+     * Acquire average time requests waited in the queue
+     *
+     * @param priority Priority class
+     * @return Average wait time (unit: milliseconds)
+     */
+    public synchronized double getAverageWaitMillis(Priority priority) {
+        int index = priority.ordinal();
+        if (mAcquireCount[index] == 0) {
+            return 0.0d;
+        }
+        return mTotalWaitNanos[index] / 1000000.0d / mAcquireCount[index];
+    }
+
+    /**
+     * Acquire maximum time a request waited in the queue
+     *
+     * @param priority Priority class
+     * @return Maximum wait time (unit: milliseconds)
+     */
+    public synchronized double getMaxWaitMillis(Priority priority) {
+        return mMaxWaitNanos[priority.ordinal()] / 1000000.0d;
+    }
+
+    /**
+     * Acquire number of requests admitted ahead of waiting requests of lower priority
+     *
+     * @return Number of requests
+     */
+    public synchronized long getPreemptionCount() {
+        return mPreemptionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("running=").append(mRunningCount).append(" queued=")
+                .append(getQueueLength()).append(" preempted=").append(mPreemptionCount);
+        for (Priority priority : PRIORITIES) {
+            builder.append(' ').append(priority).append("WaitMs=")
+                    .append(getAverageWaitMillis(priority));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Check whether the waiter is first in its class, no higher class is waiting and a slot is
+     * free
+     */
+    private boolean isAdmissible(Priority priority, Object waiter) {
+        int index = priority.ordinal();
+        if (mWaiters[index].peekFirst() != waiter) {
+            return false;
+        }
+        for (int higher = 0; higher < index; higher++) {
+            if (!mWaiters[higher].isEmpty()) {
+                return false;
+            }
+        }
+        if (mRunningCount >= mMaxConcurrent) {
+            return false;
+        }
+        return priority != Priority.TRANSFER || mRunningTransferCount < mMaxTransfers;
+    }
+}
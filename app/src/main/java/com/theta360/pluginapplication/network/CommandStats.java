@@ -0,0 +1,156 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Statistics class of one OSC command or transfer kind
+ */
+public class CommandStats {
+    private final String mName;
+    private final LatencyHistogram mHistogram;
+    private final long mErrorCount;
+    private final long mFailureCount;
+    private final long mTimeoutCount;
+    private final long mRetryCount;
+    private final long mBytes;
+    private final Map<String, Long> mErrorCodeCounts;
+
+    /**
+     * Constructor
+     *
+     * @param name Command name
+     * @param histogram Latencies of finished commands (not copied)
+     * @param errorCount Number of commands finished with an OSC error
+     * @param failureCount Number of commands failed by communication errors
+     * @param timeoutCount Number of commands whose completion was not confirmed in time
+     * @param retryCount Number of commands or chunks sent again
+     * @param bytes Number of bytes sent and received
+     * @param errorCodeCounts Number of errors by OSC error code (not copied)
+     */
+    CommandStats(String name, LatencyHistogram histogram, long errorCount, long failureCount,
+            long timeoutCount, long retryCount, long bytes, Map<String, Long> errorCodeCounts) {
+        mName = name;
+        mHistogram = histogram;
+        mErrorCount = errorCount;
+        mFailureCount = failureCount;
+        mTimeoutCount = timeoutCount;
+        mRetryCount = retryCount;
+        mBytes = bytes;
+        mErrorCodeCounts = Collections.unmodifiableMap(errorCodeCounts);
+    }
+
+    /**
+     * Acquire command name
+     * @return OSC command name, API path or transfer kind
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Acquire number of finished commands, including those finished with an OSC error
+     * @return Number of commands
+     */
+    public long getCount() {
+        return mHistogram.getTotalCount();
+    }
+
+    /**
+     * Acquire number of commands finished with an OSC error
+     * @return Number of commands
+     */
+    public long getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * Acquire number of commands failed by communication errors
+     * @return Number of commands
+     */
+    public long getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * Acquire number of commands whose completion was not confirmed in time
+     * @return Number of commands
+     */
+    public long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * Acquire number of commands or chunks sent again
+     * @return Number of retries
+     */
+    public long getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * Acquire number of bytes sent and received
+     * @return Number of bytes
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Acquire number of errors by OSC error code
+     * @return Number of errors keyed by error code
+     */
+    public Map<String, Long> getErrorCodeCounts() {
+        return mErrorCodeCounts;
+    }
+
+    /**
+     * Acquire average latency of finished commands
+     * @return Average latency (unit: milliseconds)
+     */
+    public double getMeanMillis() {
+        return mHistogram.getMeanMicros() / 1000.0d;
+    }
+
+    /**
+     * Acquire maximum latency of finished commands
+     * @return Maximum latency (unit: milliseconds)
+     */
+    public double getMaxMillis() {
+        return mHistogram.getMaxMicros() / 1000.0d;
+    }
+
+    /**
+     * Acquire latency below which the given percentage of finished commands fall
+     * @param percentile Percentage (value between 0 and 100)
+     * @return Latency (unit: milliseconds)
+     */
+    public double getPercentileMillis(double percentile) {
+        return mHistogram.getValueAtPercentile(percentile) / 1000.0d;
+    }
+
+    @Override
+    public String toString() {
+        return mName + ": count=" + getCount() + " errors=" + mErrorCount + " failures="
+                + mFailureCount + " timeouts=" + mTimeoutCount + " retries=" + mRetryCount
+                + " bytes=" + mBytes + " p50Ms=" + getPercentileMillis(50) + " p99Ms="
+                + getPercentileMillis(99) + " maxMs=" + getMaxMillis() + " errorCodes="
+                + mErrorCodeCounts;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+/**
+ * Status class of OSC command
+ */
+public class CommandStatus {
+    public static String STATE_DONE = "done";
+    public static String STATE_IN_PROGRESS = "inProgress";
+    public static String STATE_ERROR = "error";
+    public static String ERROR_DISABLED_COMMAND = "disabledCommand";
+    public static String ERROR_SERVICE_UNAVAILABLE = "serviceUnavailable";
+
+    private String mState;
+    private String mCommandId;
+    private String mFileUrl;
+    private String mErrorCode;
+    private String mErrorMessage;
+
+    /**
+     * Acquire command state
+     * @return {@link CommandStatus#STATE_DONE}, {@link CommandStatus#STATE_IN_PROGRESS} or
+     * {@link CommandStatus#STATE_ERROR}
+     */
+    public String getState() {
+        return mState;
+    }
+
+    /**
+     * Set command state
+     * @param state Command state
+     */
+    public void setState(String state) {
+        mState = state;
+    }
+
+    /**
+     * Check whether the command has completed
+     * @return true:Done, false:In progress or error
+     */
+    public boolean isDone() {
+        return STATE_DONE.equals(mState);
+    }
+
+    /**
+     * Check whether the command is still running
+     * @return true:In progress, false:Done or error
+     */
+    public boolean isInProgress() {
+        return STATE_IN_PROGRESS.equals(mState);
+    }
+
+    /**
+     * Check whether the command has failed
+     * @return true:Error, false:Done or in progress
+     */
+    public boolean isError() {
+        return STATE_ERROR.equals(mState);
+    }
+
+    /**
+     * Acquire command ID
+     * @return Command ID (null is returned if the command completed immediately)
+     */
+    public String getCommandId() {
+        return mCommandId;
+    }
+
+    /**
+     * Set command ID
+     * @param commandId Command ID
+     */
+    public void setCommandId(String commandId) {
+        mCommandId = commandId;
+    }
+
+    /**
+     * Acquire URL of the file saved by the command
+     * @return File URL (null is returned if no file is saved)
+     */
+    public String getFileUrl() {
+        return mFileUrl;
+    }
+
+    /**
+     * Set URL of the file saved by the command
+     * @param fileUrl File URL
+     */
+    public void setFileUrl(String fileUrl) {
+        mFileUrl = fileUrl;
+    }
+
+    /**
+     * Acquire error code
+     * @return Error code (null is returned if there is no error)
+     */
+    public String getErrorCode() {
+        return mErrorCode;
+    }
+
+    /**
+     * Set error code
+     * @param errorCode Error code
+     */
+    public void setErrorCode(String errorCode) {
+        mErrorCode = errorCode;
+    }
+
+    /**
+     * Acquire error message
+     * @return Error message (null is returned if there is no error)
+     */
+    public String getErrorMessage() {
+        return mErrorMessage;
+    }
+
+    /**
+     * Set error message
+     * @param errorMessage Error message
+     */
+    public void setErrorMessage(String errorMessage) {
+        mErrorMessage = errorMessage;
+    }
+}
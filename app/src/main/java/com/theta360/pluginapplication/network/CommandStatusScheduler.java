@@ -0,0 +1,303 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduler checking the status of OSC commands in progress<p>
+ * One timer thread schedules the checks of all pending commands, and the checks themselves run on
+ * a small pool so that a slow device does not delay the commands of other connections. Commands
+ * are keyed by their owner and command ID, and at most one check per key is in flight. The first
+ * check is made shortly before the command is expected to finish, and the interval then grows
+ * from {@link CommandStatusScheduler#MIN_INTERVAL_MS} up to a quarter of the expected latency.
+ * Results are delivered by one callback thread so that slow listeners do not delay polling.
+ */
+public class CommandStatusScheduler {
+    private final static long MIN_INTERVAL_MS = 50;
+    private final static long MAX_INTERVAL_MS = 2000;
+    private final static double BACKOFF_FACTOR = 1.5;
+    private final static double FIRST_CHECK_RATIO = 0.5;
+    private final static int CHECK_THREADS = 4;
+
+    private final static CommandStatusScheduler sInstance = new CommandStatusScheduler();
+
+    private final ScheduledThreadPoolExecutor mPollExecutor;
+    private final ThreadPoolExecutor mCheckExecutor;
+    private final ExecutorService mCallbackExecutor;
+    private final Map<Key, PendingCheck> mPendingChecks = new ConcurrentHashMap<>();
+    // check running for each key, including a replaced check that has not returned yet
+    private final Map<Key, PendingCheck> mRunningChecks = new ConcurrentHashMap<>();
+    private final AtomicLong mCheckCount = new AtomicLong();
+    private final AtomicLong mTimeoutCount = new AtomicLong();
+
+    private CommandStatusScheduler() {
+        mPollExecutor = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("CommandStatus"));
+        mPollExecutor.setRemoveOnCancelPolicy(true);
+        mCheckExecutor = new ThreadPoolExecutor(CHECK_THREADS, CHECK_THREADS, 0,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                daemonThreadFactory("CommandCheck"));
+        mCallbackExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), daemonThreadFactory("CommandCallback"));
+    }
+
+    /**
+     * Acquire scheduler shared by all connections
+     *
+     * @return Scheduler
+     */
+    public static CommandStatusScheduler getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Start checking status of command
+     *
+     * @param owner Connection that sent the command
+     * @param commandId Key identifying the command, usually the command ID (a pending check of the
+     * same owner with the same key is cancelled)
+     * @param expectedLatencyMs Expected time until the command finishes (unit: milliseconds)
+     * @param timeoutMs Time after which checking is given up (unit: milliseconds)
+     * @param statusCheck Status check
+     */
+    public void schedule(Object owner, String commandId, long expectedLatencyMs, long timeoutMs,
+            StatusCheck statusCheck) {
+        Key key = new Key(owner, commandId);
+        PendingCheck pendingCheck = new PendingCheck(key, expectedLatencyMs, timeoutMs,
+                statusCheck);
+        PendingCheck previous = mPendingChecks.put(key, pendingCheck);
+        if (previous != null) {
+            // the replaced check is cancelled as by cancel(String) so that its caller is notified
+            previous.cancel();
+            dispatch(previous.mStatusCheck::onCancelled);
+        }
+        long firstDelay = Math.max(MIN_INTERVAL_MS, (long) (expectedLatencyMs * FIRST_CHECK_RATIO));
+        pendingCheck.scheduleNext(firstDelay);
+    }
+
+    /**
+     * Stop checking status of command
+     *
+     * @param owner Owner given to {@link CommandStatusScheduler#schedule}
+     * @param commandId Key given to {@link CommandStatusScheduler#schedule}
+     * @return true:Cancelled, false:No pending check
+     */
+    public boolean cancel(Object owner, String commandId) {
+        PendingCheck pendingCheck = mPendingChecks.remove(new Key(owner, commandId));
+        if (pendingCheck == null) {
+            return false;
+        }
+        pendingCheck.cancel();
+        dispatch(pendingCheck.mStatusCheck::onCancelled);
+        return true;
+    }
+
+    /**
+     * Start the polling, check and callback threads ahead of the first command
+     */
+    public void prestart() {
+        mPollExecutor.prestartAllCoreThreads();
+        mCheckExecutor.prestartAllCoreThreads();
+        ((ThreadPoolExecutor) mCallbackExecutor).prestartAllCoreThreads();
+    }
+
+    /**
+     * Run action on the callback thread
+     *
+     * @param action Action notifying a listener
+     */
+    public void dispatch(Runnable action) {
+        mCallbackExecutor.execute(action);
+    }
+
+    /**
+     * Acquire number of commands being checked
+     *
+     * @return Number of commands
+     */
+    public int getPendingCount() {
+        return mPendingChecks.size();
+    }
+
+    /**
+     * Acquire number of status checks made so far
+     *
+     * @return Number of checks
+     */
+    public long getCheckCount() {
+        return mCheckCount.get();
+    }
+
+    /**
+     * Acquire number of commands given up by timeout
+     *
+     * @return Number of timeouts
+     */
+    public long getTimeoutCount() {
+        return mTimeoutCount.get();
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Status check of a command
+     */
+    public interface StatusCheck {
+        /**
+         * Check status once. Called on a thread of the check pool.
+         *
+         * @return true:Command finished, false:Check again later
+         */
+        boolean check();
+
+        /**
+         * Notify that the command did not finish in time. Called on the callback thread.
+         */
+        void onTimeout();
+
+        /**
+         * Notify that checking was cancelled. Called on the callback thread.
+         */
+        void onCancelled();
+    }
+
+    /**
+     * Command ID qualified by the connection that sent it
+     */
+    private static final class Key {
+        private final Object mOwner;
+        private final String mCommandId;
+
+        Key(Object owner, String commandId) {
+            mOwner = owner;
+            mCommandId = commandId;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) object;
+            return mOwner == other.mOwner && Objects.equals(mCommandId, other.mCommandId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mOwner) + Objects.hashCode(mCommandId);
+        }
+    }
+
+    /**
+     * Command being checked
+     */
+    private class PendingCheck implements Runnable {
+        private final Key mKey;
+        private final StatusCheck mStatusCheck;
+        private final long mDeadlineNanos;
+        private final long mMaxIntervalMs;
+        private long mIntervalMs = MIN_INTERVAL_MS;
+        private volatile boolean mCancelled = false;
+        private ScheduledFuture<?> mFuture;
+
+        PendingCheck(Key key, long expectedLatencyMs, long timeoutMs, StatusCheck statusCheck) {
+            mKey = key;
+            mStatusCheck = statusCheck;
+            mDeadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            mMaxIntervalMs = Math.max(MIN_INTERVAL_MS,
+                    Math.min(MAX_INTERVAL_MS, expectedLatencyMs / 4));
+        }
+
+        synchronized void scheduleNext(long delayMs) {
+            if (!mCancelled) {
+                mFuture = mPollExecutor.schedule(this, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        synchronized void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        /**
+         * Hand the check over to the check pool. Called on the timer thread.
+         */
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            long remainingNanos = mDeadlineNanos - System.nanoTime();
+            if (remainingNanos <= 0) {
+                if (mPendingChecks.remove(mKey, this)) {
+                    mTimeoutCount.incrementAndGet();
+                    dispatch(mStatusCheck::onTimeout);
+                }
+                return;
+            }
+
+            if (mRunningChecks.putIfAbsent(mKey, this) != null) {
+                // a replaced check of the same key has not returned yet
+                scheduleNext(MIN_INTERVAL_MS);
+                return;
+            }
+            mCheckExecutor.execute(() -> runCheck(remainingNanos));
+        }
+
+        private void runCheck(long remainingNanos) {
+            mCheckCount.incrementAndGet();
+            boolean finished;
+            try {
+                finished = mCancelled || mStatusCheck.check();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                finished = false;
+            } finally {
+                mRunningChecks.remove(mKey, this);
+            }
+
+            if (finished) {
+                mPendingChecks.remove(mKey, this);
+                return;
+            }
+
+            long delayMs = Math.min(mIntervalMs,
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+            mIntervalMs = Math.min(mMaxIntervalMs, (long) (mIntervalMs * BACKOFF_FACTOR));
+            scheduleNext(delayMs);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result class of deleting multiple files
+ */
+public class DeleteResult {
+    private final Map<String, String> mErrorMessages;
+    private final boolean mConfirmed;
+
+    /**
+     * Constructor
+     *
+     * @param errorMessages Error message of each requested file in request order (null for
+     * deleted files)
+     * @param confirmed true:Outcomes were confirmed against the file list, false:Outcomes are
+     * based on the command responses only
+     */
+    DeleteResult(LinkedHashMap<String, String> errorMessages, boolean confirmed) {
+        mErrorMessages = Collections.unmodifiableMap(errorMessages);
+        mConfirmed = confirmed;
+    }
+
+    /**
+     * Check whether file was deleted
+     * @param fileId File ID
+     * @return true:Deleted, false:Not deleted or not requested
+     */
+    public boolean isDeleted(String fileId) {
+        return mErrorMessages.containsKey(fileId) && mErrorMessages.get(fileId) == null;
+    }
+
+    /**
+     * Acquire reason file was not deleted
+     * @param fileId File ID
+     * @return Error message (null is returned if the file was deleted)
+     */
+    public String getErrorMessage(String fileId) {
+        return mErrorMessages.get(fileId);
+    }
+
+    /**
+     * Acquire deleted files
+     * @return File IDs in request order
+     */
+    public List<String> getDeletedFileIds() {
+        return collect(true);
+    }
+
+    /**
+     * Acquire files that were not deleted
+     * @return File IDs in request order
+     */
+    public List<String> getFailedFileIds() {
+        return collect(false);
+    }
+
+    /**
+     * Check whether all requested files were deleted
+     * @return true:All deleted, false:Some files remain
+     */
+    public boolean isAllDeleted() {
+        for (String errorMessage : mErrorMessages.values()) {
+            if (errorMessage != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the outcomes were confirmed against the file list on device
+     * @return true:Confirmed, false:The file list could not be acquired
+     */
+    public boolean isConfirmed() {
+        return mConfirmed;
+    }
+
+    private List<String> collect(boolean deleted) {
+        List<String> fileIds = new ArrayList<>();
+        for (Map.Entry<String, String> entry : mErrorMessages.entrySet()) {
+            if ((entry.getValue() == null) == deleted) {
+                fileIds.add(entry.getKey());
+            }
+        }
+        return fileIds;
+    }
+
+    @Override
+    public String toString() {
+        return "deleted=" + getDeletedFileIds().size() + " failed=" + getFailedFileIds().size()
+                + " confirmed=" + mConfirmed;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Iterator over media files on device<p>
+ * Pages are requested with camera.listFiles by start position. As soon as a page arrives, the next
+ * page is requested in the background so that it is ready when the caller finishes the current one.
+ */
+public class FileListIterator implements Iterator<ImageInfo>, Closeable {
+    private final HttpConnector mConnector;
+    private final String mFileType;
+    private final int mPageSize;
+    private final int mMaxThumbSize;
+    private final Executor mExecutor;
+
+    private Iterator<ImageInfo> mCurrentPage = Collections.emptyIterator();
+    private FutureTask<FileListPage> mNextPage = null;
+    private int mTotalEntries = -1;
+    private boolean mStarted = false;
+    private boolean mFailed = false;
+
+    /**
+     * Constructor
+     *
+     * @param connector Connection to device
+     * @param fileType Type of files to acquire
+     * @param pageSize Number of files acquired by one request
+     * @param maxThumbSize Maximum size of thumbnails embedded in the list (0 acquires no
+     * thumbnails)
+     * @param executor Executor for prefetching pages
+     */
+    FileListIterator(HttpConnector connector, String fileType, int pageSize, int maxThumbSize,
+            Executor executor) {
+        mConnector = connector;
+        mFileType = fileType;
+        mPageSize = pageSize;
+        mMaxThumbSize = maxThumbSize;
+        mExecutor = executor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!mStarted) {
+            mStarted = true;
+            // the first page is needed right away, so it is acquired on the calling thread
+            mNextPage = new FutureTask<>(() -> mConnector.getListInternal(mFileType, mPageSize, 0,
+                    mMaxThumbSize));
+        }
+
+        while (!mCurrentPage.hasNext()) {
+            if (mNextPage == null) {
+                return false;
+            }
+            FileListPage page = awaitPage(mNextPage);
+            mNextPage = null;
+            if (page == null || !page.isSucceeded()) {
+                mFailed = true;
+                return false;
+            }
+
+            int receivedCount = page.getEntries().size();
+            int nextPosition = page.getStartPosition() + receivedCount;
+            if (page.getTotalEntries() >= 0) {
+                mTotalEntries = page.getTotalEntries();
+            }
+            boolean hasMore = mTotalEntries >= 0 ? receivedCount > 0 && nextPosition < mTotalEntries
+                    : receivedCount == mPageSize;
+            if (hasMore) {
+                mNextPage = prefetch(nextPosition);
+            }
+            mCurrentPage = page.getEntries().iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public ImageInfo next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return mCurrentPage.next();
+    }
+
+    /**
+     * Stop iteration and cancel the page being prefetched
+     */
+    @Override
+    public void close() {
+        mStarted = true;
+        if (mNextPage != null) {
+            mNextPage.cancel(false);
+            mNextPage = null;
+        }
+        mCurrentPage = Collections.emptyIterator();
+    }
+
+    /**
+     * Acquire number of files matching the file type on device
+     *
+     * @return Number of files (-1 is returned before the first page is acquired)
+     */
+    public int getTotalEntries() {
+        return mTotalEntries;
+    }
+
+    /**
+     * Check whether iteration stopped because a page could not be acquired
+     *
+     * @return true:Failed, false:Not failed
+     */
+    public boolean hasFailed() {
+        return mFailed;
+    }
+
+    /**
+     * Create spliterator for use with java.util.stream
+     *
+     * @return Spliterator over the remaining files
+     */
+    public Spliterator<ImageInfo> spliterator() {
+        return Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    private FutureTask<FileListPage> prefetch(int startPosition) {
+        FutureTask<FileListPage> page = new FutureTask<>(
+                () -> mConnector.getListInternal(mFileType, mPageSize, startPosition,
+                        mMaxThumbSize));
+        mExecutor.execute(page);
+        return page;
+    }
+
+    private FileListPage awaitPage(FutureTask<FileListPage> page) {
+        try {
+            // run on the calling thread if the executor has not started it yet, so that an
+            // iterator used from a busy executor thread cannot wait for its own queued task
+            page.run();
+            return page.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}
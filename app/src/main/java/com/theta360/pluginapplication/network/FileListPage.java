@@ -0,0 +1,85 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.ArrayList;
+
+/**
+ * A page of media file list returned by camera.listFiles
+ */
+class FileListPage {
+    private final int mStartPosition;
+    private final ArrayList<ImageInfo> mEntries = new ArrayList<>();
+    private int mTotalEntries = -1;
+    private boolean mSucceeded = false;
+
+    /**
+     * Constructor
+     * @param startPosition Position of the first file in this page
+     */
+    FileListPage(int startPosition) {
+        mStartPosition = startPosition;
+    }
+
+    /**
+     * Acquire position of the first file in this page
+     * @return Start position
+     */
+    int getStartPosition() {
+        return mStartPosition;
+    }
+
+    /**
+     * Acquire media files of this page
+     * @return Media file list
+     */
+    ArrayList<ImageInfo> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Acquire number of files matching the file type on device
+     * @return Number of files (-1 is returned if unknown)
+     */
+    int getTotalEntries() {
+        return mTotalEntries;
+    }
+
+    /**
+     * Set number of files matching the file type on device
+     * @param totalEntries Number of files
+     */
+    void setTotalEntries(int totalEntries) {
+        mTotalEntries = totalEntries;
+    }
+
+    /**
+     * Check whether the page was acquired
+     * @return true:Acquired, false:Communication or command error
+     */
+    boolean isSucceeded() {
+        return mSucceeded;
+    }
+
+    /**
+     * Set whether the page was acquired
+     * @param succeeded true:Acquired, false:Communication or command error
+     */
+    void setSucceeded(boolean succeeded) {
+        mSucceeded = succeeded;
+    }
+}
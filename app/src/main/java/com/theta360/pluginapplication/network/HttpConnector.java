@@ -19,19 +19,32 @@ package com.theta360.pluginapplication.network;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import com.theta360.pluginapplication.model.ImageSize;
+import com.theta360.pluginapplication.network.CommandScheduler.Priority;
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -40,13 +53,88 @@ import org.json.JSONObject;
  * HTTP connection to device
  */
 public class HttpConnector {
-    private final static long CHECK_STATUS_PERIOD_MS = 50;
+    private final static long CAPTURE_TIMEOUT_MS = 120000;
+    private final static long DELETE_TIMEOUT_MS = 30000;
+    private final static long DELETE_EXPECTED_LATENCY_MS = 300;
+    // files deleted by one camera.delete, and the additional time each file adds to it
+    private final static int DELETE_CHUNK_SIZE = 100;
+    private final static long DELETE_LATENCY_PER_FILE_MS = 20;
+    private final static long DELETE_TIMEOUT_PER_FILE_MS = 500;
+    // weight of the latest capture when updating the expected capture latency
+    private final static double LATENCY_SMOOTHING = 0.25d;
+    // remaining capacity also changes without a state change, e.g. while a video is recorded
+    private final static long VOLATILE_OPTION_TTL_MS = 5000;
+    // a fingerprint confirmed within this time is trusted without asking the device
+    private final static long FINGERPRINT_FRESH_NS = TimeUnit.MILLISECONDS.toNanos(250);
+    // time option requests are gathered before the first batch is sent
+    private final static long OPTIONS_BATCH_WINDOW_MS = 5;
+    private final static int DEFAULT_LIST_PAGE_SIZE = 50;
+    private final static int BACKGROUND_THREAD_COUNT = 4;
+    private final static int TRANSFER_BUFFER_SIZE = 256 * 1024;
+    private final static int MAX_POOLED_BUFFERS = 4;
+    private final static long PREVIEW_POOL_BYTES = 8 * 1024 * 1024;
+    private final static int RANGED_CHUNK_SIZE = 4 * 1024 * 1024;
+    private final static int RANGED_CONNECTIONS = 3;
+    private final static int HARVEST_PARALLELISM = 3;
+    // transfers use at most RANGED_CONNECTIONS requests, leaving one for foreground commands
+    private final static int MAX_CONCURRENT_REQUESTS = RANGED_CONNECTIONS + 1;
+
+    public final static String FILE_TYPE_ALL = "all";
+    public final static String FILE_TYPE_IMAGE = "image";
+    public final static String FILE_TYPE_VIDEO = "video";
+
+    // property names looked up by OscJsonReader#selectName
+    private final static String[] COMMAND_NAMES = {"state", "id", "results", "error"};
+    private final static String[] ERROR_NAMES = {"code", "message"};
+    private final static String[] FILE_RESULT_NAMES = {"fileUrl", "fileUri"};
+    private final static String[] OPTIONS_NAMES = {"options"};
+    private final static String[] STORAGE_OPTION_NAMES =
+            {"remainingPictures", "remainingSpace", "totalSpace"};
+    private final static String[] IMAGE_SIZE_OPTION_NAMES = {"fileFormat"};
+    private final static String[] FILE_FORMAT_NAMES = {"width"};
+    private final static String[] LIST_RESULT_NAMES = {"entries", "totalEntries"};
+    private final static String[] ENTRY_NAMES =
+            {"name", "fileUrl", "size", "width", "height", "_recordTime", "thumbnail"};
+    private final static String[] INFO_NAMES = {"model", "firmwareVersion", "serialNumber"};
+    private final static String[] STATE_NAMES = {"fingerprint", "state"};
+    private final static String[] STATE_FIELD_NAMES =
+            {"_latestFileUri", "batteryLevel", "_batteryState", "_captureStatus"};
+    private final static String[] UPDATE_NAMES = {"stateFingerprint", "throttleTimeout"};
     private String mIpAddress = null;
+    private final HttpTransport mTransport;
+    private final CommandScheduler mCommandScheduler;
+    private final ThreadPoolExecutor mExecutor;
+    private final BufferPool mBufferPool = new BufferPool(TRANSFER_BUFFER_SIZE, MAX_POOLED_BUFFERS);
 
-    private String mContinuationToken = null;
-    private String mFingerPrint = null;
-    private Timer mCheckStatusTimer = null;
-    private HttpEventListener mHttpEventListener = null;
+    private final CommandRegistry mCommandRegistry = new CommandRegistry();
+    private final CommandMetrics mCommandMetrics = new CommandMetrics();
+    private final CommandStatusScheduler mStatusScheduler = CommandStatusScheduler.getInstance();
+
+    // last shooting size set or acquired, used to estimate the capture latency
+    private volatile ImageSize mImageSize = null;
+    // expected time from camera.takePicture until the file is saved, indexed by ImageSize
+    private final long[] mCaptureLatencyMs = new long[ImageSize.values().length];
+
+    // latest fingerprint observed by /osc/state or /osc/checkForUpdates
+    private volatile String mFingerPrint = null;
+    private volatile long mFingerPrintCheckedNanos = 0;
+
+    private final OptionsCache mOptionsCache = new OptionsCache();
+
+    // option requests issued while a batch is in flight are sent together with the next batch
+    private final Object mOptionsBatchLock = new Object();
+    private OptionsTransaction mPendingOptions = null;
+    private boolean mOptionsBatchRunning = false;
+
+    // fingerprint observed when the capture mode was last confirmed to be image
+    private final Object mCaptureModeLock = new Object();
+    private boolean mImageModeConfirmed = false;
+    private String mImageModeFingerPrint = null;
+
+    private volatile ThumbnailCache mThumbnailCache = null;
+    private volatile CameraStateWatcher mStateWatcher = null;
+    private volatile CapturePipeline mCapturePipeline = null;
+    // decodes thumbnails embedded in file lists while no thumbnail cache is set
 
     /**
      * Constructor
@@ -55,6 +143,25 @@ public class HttpConnector {
      */
     public HttpConnector(String cameraIpAddress) {
         mIpAddress = cameraIpAddress;
+        // other connections to the device, such as of a CaptureSession, share the scheduler
+        mCommandScheduler = CommandScheduler.forDevice(cameraIpAddress, MAX_CONCURRENT_REQUESTS,
+                RANGED_CONNECTIONS);
+        mTransport = new HttpTransport(cameraIpAddress, mCommandScheduler);
+        mExecutor = new ThreadPoolExecutor(BACKGROUND_THREAD_COUNT, BACKGROUND_THREAD_COUNT, 30,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "HttpConnector");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+        for (ImageSize imageSize : ImageSize.values()) {
+            mCaptureLatencyMs[imageSize.ordinal()] = defaultCaptureLatencyMs(imageSize);
+        }
+        mOptionsCache.setPolicy("remainingPictures", VOLATILE_OPTION_TTL_MS, true);
+        mOptionsCache.setPolicy("remainingSpace", VOLATILE_OPTION_TTL_MS, true);
+        for (String name : INFO_NAMES) {
+            mOptionsCache.setPolicy(name, OptionsCache.TTL_INFINITE, false);
+        }
     }
 
     /**
@@ -63,12 +170,19 @@ public class HttpConnector {
      * @return Storage information
      */
     public StorageInfo getStorageInfo() {
+        StorageInfo storageInfo = new StorageInfo();
+
+        Object[] cached = mOptionsCache.get(STORAGE_OPTION_NAMES, this::getCurrentFingerPrint);
+        if (cached != null) {
+            storageInfo.setFreeSpaceInImages((Integer) cached[0]);
+            storageInfo.setFreeSpaceInBytes((Long) cached[1]);
+            storageInfo.setMaxCapacity((Long) cached[2]);
+            return storageInfo;
+        }
 
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
         JSONObject input = new JSONObject();
-        String responseData;
-        StorageInfo storageInfo = new StorageInfo();
         InputStream is = null;
+        String fingerPrint = getCacheFingerPrint();
 
         try {
             // send HTTP POST
@@ -81,30 +195,34 @@ public class HttpConnector {
             parameters.put("optionNames", optionNames);
             input.put("parameters", parameters);
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.SETTINGS);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String status = output.getString("state");
-
-            if (status.equals("done")) {
-                JSONObject results = output.getJSONObject("results");
-                JSONObject options = results.getJSONObject("options");
-                int remainingPictures = options.getInt("remainingPictures");
-                storageInfo.setFreeSpaceInImages(remainingPictures);
-
-                long remainingSpace = options.getLong("remainingSpace");
-                storageInfo.setFreeSpaceInBytes(remainingSpace);
-
-                long totalSpace = options.getLong("totalSpace");
-                storageInfo.setMaxCapacity(totalSpace);
+            CommandStatus commandStatus = readCommandStatus(is, reader -> readOptions(reader,
+                    index -> {
+                        switch (index) {
+                            case 0:
+                                storageInfo.setFreeSpaceInImages(reader.nextInt());
+                                break;
+                            case 1:
+                                storageInfo.setFreeSpaceInBytes(reader.nextLong());
+                                break;
+                            case 2:
+                                storageInfo.setMaxCapacity(reader.nextLong());
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }, STORAGE_OPTION_NAMES));
+
+            if (commandStatus.isDone()) {
+                mOptionsCache.put(STORAGE_OPTION_NAMES[0], storageInfo.getFreeSpaceInImages(),
+                        fingerPrint);
+                mOptionsCache.put(STORAGE_OPTION_NAMES[1], storageInfo.getFreeSpaceInBytes(),
+                        fingerPrint);
+                mOptionsCache.put(STORAGE_OPTION_NAMES[2], storageInfo.getMaxCapacity(),
+                        fingerPrint);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -129,34 +247,48 @@ public class HttpConnector {
      * @return Device information
      */
     public DeviceInfo getDeviceInfo() {
-        HttpURLConnection getConnection = createHttpConnection("GET", "/osc/info");
-        String responseData;
         DeviceInfo deviceInfo = new DeviceInfo();
+
+        Object[] cached = mOptionsCache.get(INFO_NAMES, this::getCurrentFingerPrint);
+        if (cached != null) {
+            deviceInfo.setModel((String) cached[0]);
+            deviceInfo.setDeviceVersion((String) cached[1]);
+            deviceInfo.setSerialNumber((String) cached[2]);
+            return deviceInfo;
+        }
+
         InputStream is = null;
 
         try {
             // send HTTP GET
             // this protocol has no input.
-            getConnection.connect();
-
-            is = getConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = mTransport.get("/osc/info", null, Priority.SETTINGS).getInputStream();
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-
-            String model = output.getString("model");
-            deviceInfo.setModel(model);
-
-            String version = output.getString("firmwareVersion");
-            deviceInfo.setDeviceVersion(version);
-
-            String serialNumber = output.getString("serialNumber");
-            deviceInfo.setSerialNumber(serialNumber);
+            OscJsonReader reader = OscJsonReader.obtain(is);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(INFO_NAMES)) {
+                    case 0:
+                        deviceInfo.setModel(reader.nextString());
+                        break;
+                    case 1:
+                        deviceInfo.setDeviceVersion(reader.nextString());
+                        break;
+                    case 2:
+                        deviceInfo.setSerialNumber(reader.nextString());
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            mOptionsCache.put(INFO_NAMES[0], deviceInfo.getModel(), null);
+            mOptionsCache.put(INFO_NAMES[1], deviceInfo.getDeviceVersion(), null);
+            mOptionsCache.put(INFO_NAMES[2], deviceInfo.getSerialNumber(), null);
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (JSONException e) {
-            e.printStackTrace();
         } finally {
             if (is != null) {
                 try {
@@ -178,30 +310,77 @@ public class HttpConnector {
     public ArrayList<ImageInfo> getList() {
         ArrayList<ImageInfo> imageInfos = new ArrayList<>();
 
-        for (int continuation = 0; continuation < 3; continuation++) {
-            ArrayList<ImageInfo> receivedImageInfo = getListInternal(10, imageInfos.size());
-            imageInfos.addAll(receivedImageInfo);
-            if (receivedImageInfo.size() < 10) {
-                break;
-            }
+        FileListIterator iterator = listFiles(FILE_TYPE_ALL, DEFAULT_LIST_PAGE_SIZE);
+        while (iterator.hasNext()) {
+            imageInfos.add(iterator.next());
         }
 
         return imageInfos;
     }
 
+    /**
+     * Iterate over all media files on device<p>
+     * Files are acquired page by page. While the caller consumes a page, the next page is already
+     * requested in the background.
+     *
+     * @param fileType {@link HttpConnector#FILE_TYPE_ALL}, {@link HttpConnector#FILE_TYPE_IMAGE} or
+     * {@link HttpConnector#FILE_TYPE_VIDEO}
+     * @param pageSize Number of files acquired by one request
+     * @return Iterator of media files (close it when stopping before the end)
+     */
+    public FileListIterator listFiles(String fileType, int pageSize) {
+        return listFiles(fileType, pageSize, 0);
+    }
+
+    /**
+     * Iterate over all media files on device together with their thumbnails<p>
+     * The thumbnails are embedded in the camera.listFiles response, so a page of files and
+     * thumbnails is acquired by one request instead of one {@link #getThumb(String)} per file. Each
+     * thumbnail is decoded from the response while it is parsed and set to
+     * {@link ImageInfo#getThumbnail()}. If a {@link ThumbnailCache} is set, the thumbnails are also
+     * stored in it. The thumbnails are never reused by later decodes, so they stay valid for as
+     * long as the file information is held.
+     *
+     * @param fileType {@link HttpConnector#FILE_TYPE_ALL}, {@link HttpConnector#FILE_TYPE_IMAGE} or
+     * {@link HttpConnector#FILE_TYPE_VIDEO}
+     * @param pageSize Number of files acquired by one request
+     * @param maxThumbSize Maximum size of thumbnails (0 acquires no thumbnails)
+     * @return Iterator of media files (close it when stopping before the end)
+     */
+    public FileListIterator listFiles(String fileType, int pageSize, int maxThumbSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        if (maxThumbSize < 0) {
+            throw new IllegalArgumentException("maxThumbSize must not be negative");
+        }
+        return new FileListIterator(this, fileType, pageSize, maxThumbSize, mExecutor);
+    }
+
+    /**
+     * Detach thumbnail set by {@link #listFiles(String, int, int)} from the file information<p>
+     * The thumbnail is not recycled, so its memory is freed once no other reference remains.
+     *
+     * @param imageInfo Media file information
+     */
+    public void releaseThumbnail(ImageInfo imageInfo) {
+        imageInfo.setThumbnail(null);
+    }
+
     /**
      * Acquire media file list (limited number of items)
      *
+     * @param fileType Type of files to acquire
      * @param maxReceiveEntry Maximum number of files that can be acquired at once
-     * @param startPosition Set the previously acquired token to continue. Set null if acquiring for
-     * the first time.
-     * @return List of specified number of media files
+     * @param startPosition Position of the first file to acquire
+     * @param maxThumbSize Maximum size of embedded thumbnails (0 acquires no thumbnails)
+     * @return Page of media files
      */
-    private ArrayList<ImageInfo> getListInternal(int maxReceiveEntry, int startPosition) {
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
+    FileListPage getListInternal(String fileType, int maxReceiveEntry, int startPosition,
+            int maxThumbSize) {
         JSONObject input = new JSONObject();
-        String responseData;
-        ArrayList<ImageInfo> imageInfos = new ArrayList<>();
+        FileListPage page = new FileListPage(startPosition);
+        ArrayList<ImageInfo> imageInfos = page.getEntries();
         InputStream is = null;
 
         try {
@@ -209,62 +388,42 @@ public class HttpConnector {
             input.put("name", "camera.listFiles");
             JSONObject parameters = new JSONObject();
             parameters.put("entryCount", maxReceiveEntry);
-            parameters.put("fileType", "all");
-            parameters.put("maxThumbSize", 0);
+            parameters.put("fileType", fileType);
+            parameters.put("maxThumbSize", maxThumbSize);
             parameters.put("startPosition", startPosition);
             input.put("parameters", parameters);
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.TRANSFER);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String status = output.getString("state");
-
-            if (status.equals("done")) {
-                JSONObject results = output.getJSONObject("results");
-                JSONArray entries = results.getJSONArray("entries");
-                int entrySize = entries.length();
-                try {
-                    mContinuationToken = results.getString("continuationToken");
-                } catch (JSONException e) {
-                    mContinuationToken = null;
-                }
-
-                for (int index = 0; index < entrySize; index++) {
-                    JSONObject entry = entries.getJSONObject(index);
-                    ImageInfo imageInfo = new ImageInfo();
-
-                    String name = entry.getString("name");
-                    imageInfo.setFileName(name);
-
-                    String id = entry.getString("fileUrl");
-                    imageInfo.setFileId(id);
-
-                    long size = Long.parseLong(entry.getString("size"));
-                    imageInfo.setFileSize(size);
-
-                    int width = entry.getInt("width");
-                    imageInfo.setWidth(width);
-
-                    int height = entry.getInt("height");
-                    imageInfo.setHeight(height);
-
-                    try {
-                        entry.getInt("_recordTime");
-                        imageInfo.setFileFormat(ImageInfo.FILE_FORMAT_CODE_EXIF_MPEG);
-                    } catch (JSONException e) {
-                        imageInfo.setFileFormat(ImageInfo.FILE_FORMAT_CODE_EXIF_JPEG);
+            CommandStatus commandStatus = readCommandStatus(is, reader -> {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.selectName(LIST_RESULT_NAMES)) {
+                        case 0:
+                            reader.beginArray();
+                            while (reader.hasNext()) {
+                                imageInfos.add(readImageInfo(reader));
+                            }
+                            reader.endArray();
+                            break;
+                        case 1:
+                            page.setTotalEntries(reader.nextInt());
+                            break;
+                        default:
+                            reader.skipValue();
+                            break;
                     }
-
-                    imageInfos.add(imageInfo);
                 }
+                reader.endObject();
+            });
+            if (commandStatus.isDone()) {
+                page.setSucceeded(true);
+            } else {
+                for (ImageInfo imageInfo : imageInfos) {
+                    releaseThumbnail(imageInfo);
+                }
+                imageInfos.clear();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -280,7 +439,7 @@ public class HttpConnector {
             }
         }
 
-        return imageInfos;
+        return page;
     }
 
     /**
@@ -290,21 +449,30 @@ public class HttpConnector {
      * @return Thumbnail (null is returned if acquisition fails)
      */
     public Bitmap getThumb(String fileId) {
-        HttpURLConnection postConnection = null;
-        try {
-            postConnection = (HttpURLConnection) new URL(fileId + "?type=thumb").openConnection();
-        } catch (IOException e) {
-            e.printStackTrace();
+        ThumbnailCache thumbnailCache = mThumbnailCache;
+        if (thumbnailCache != null) {
+            Bitmap thumbnail = thumbnailCache.get(fileId);
+            if (thumbnail == null) {
+                byte[] data = getThumbData(fileId);
+                if (data != null) {
+                    thumbnail = thumbnailCache.put(fileId, data, 0, data.length);
+                }
+            }
+            return thumbnail;
         }
-        JSONObject input = new JSONObject();
+
         Bitmap thumbnail = null;
         InputStream is = null;
 
         try {
             // send HTTP GET
-            postConnection.connect();
-
-            is = postConnection.getInputStream();
+            long startNanos = System.nanoTime();
+            HttpTransport.Response response = mTransport.get(fileId + "?type=thumb", null,
+                    Priority.TRANSFER);
+            CommandInputStream cis = new CommandInputStream(CommandMetrics.THUMBNAIL, startNanos,
+                    0, response.getInputStream(), false);
+            is = cis;
+            checkFileResponse(response, cis, fileId);
             BufferedInputStream bis = new BufferedInputStream(is);
             thumbnail = BitmapFactory.decodeStream(bis);
         } catch (IOException e) {
@@ -323,68 +491,170 @@ public class HttpConnector {
     }
 
     /**
-     * Take photo<p> After shooting, the status is checked for each {@link
-     * HttpConnector#CHECK_STATUS_PERIOD_MS} and the listener notifies you of the status.
+     * Acquire encoded thumbnail image
+     *
+     * @param fileId File ID
+     * @return Encoded thumbnail (null is returned if acquisition fails)
+     */
+    private byte[] getThumbData(String fileId) {
+        InputStream is = null;
+
+        try {
+            // send HTTP GET
+            long startNanos = System.nanoTime();
+            HttpTransport.Response response = mTransport.get(fileId + "?type=thumb", null,
+                    Priority.TRANSFER);
+            CommandInputStream cis = new CommandInputStream(CommandMetrics.THUMBNAIL, startNanos,
+                    0, response.getInputStream(), false);
+            is = cis;
+            checkFileResponse(response, cis, fileId);
+            long contentLength = response.getContentLength();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                    contentLength > 0 && contentLength <= TRANSFER_BUFFER_SIZE
+                            ? (int) contentLength : TRANSFER_BUFFER_SIZE);
+            ByteBuffer buffer = mBufferPool.acquire();
+            try {
+                byte[] array = buffer.array();
+                int length;
+                while ((length = is.read(array, 0, array.length)) >= 0) {
+                    baos.write(array, 0, length);
+                }
+            } finally {
+                mBufferPool.release(buffer);
+            }
+            return baos.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Set cache used by {@link #getThumb(String)}<p>
+     * Thumbnails are acquired from the camera every time if no cache is set.
+     *
+     * @param thumbnailCache Thumbnail cache (null disables caching)
+     */
+    public void setThumbnailCache(ThumbnailCache thumbnailCache) {
+        mThumbnailCache = thumbnailCache;
+    }
+
+    /**
+     * Acquire cache used by {@link #getThumb(String)}
+     *
+     * @return Thumbnail cache (null is returned if no cache is set)
+     */
+    public ThumbnailCache getThumbnailCache() {
+        return mThumbnailCache;
+    }
+
+    /**
+     * Take photo<p> After shooting, the status is checked by {@link CommandStatusScheduler} and
+     * the listener notifies you of the status. Checking starts shortly before the capture is
+     * expected to finish for the current shooting size. While a {@link CapturePipeline} is
+     * started, the saved file is fetched before the listener is notified.
      *
      * @param listener Post-shooting event listener
      * @return Shooting request results
      */
     public ShootResult takePicture(HttpEventListener listener) {
-        ShootResult result = ShootResult.FAIL_DEVICE_BUSY;
+        return takePicture(listener, true);
+    }
+
+    /**
+     * Take photo, choosing how a refused shot is handled<p>
+     * A shot the device refuses with disabledCommand or serviceUnavailable returns
+     * {@link ShootResult#FAIL_DEVICE_BUSY}. On disabledCommand, if repairMode is true and the
+     * capture mode was taken from the cache, the mode is first set again and the shot sent once
+     * more, as by {@link #takePicture(HttpEventListener)}. A burst
+     * passes false, since its shots are refused while earlier ones are processed and the repair
+     * would cost two more requests per retry. Network errors return
+     * {@link ShootResult#FAIL_CAMERA_DISCONNECTED} and other errors
+     * {@link ShootResult#FAIL_COMMAND_ERROR}, which are not worth retrying.
+     *
+     * @param listener Post-shooting event listener
+     * @param repairMode true:Set the capture mode again when refused, false:Report it as busy
+     * @return Shooting request results
+     */
+    public ShootResult takePicture(HttpEventListener listener, boolean repairMode) {
+        ShootResult result = ShootResult.FAIL_COMMAND_ERROR;
 
         // set capture mode to image
+        boolean modeCached = isImageModeConfirmed();
         String errorMessage = setImageCaptureMode();
         if (errorMessage != null) {
             listener.onError(errorMessage);
-            result = ShootResult.FAIL_DEVICE_BUSY;
             return result;
         }
 
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
         JSONObject input = new JSONObject();
-        String responseData;
-        mHttpEventListener = listener;
         InputStream is = null;
+        long startNanos = System.nanoTime();
 
         try {
             // send HTTP POST
             input.put("name", "camera.takePicture");
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.CAPTURE);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String status = output.getString("state");
-            String commandId = output.getString("id");
-
-            if (status.equals("inProgress")) {
-                mCheckStatusTimer = new Timer(true);
-                CapturedTimerTask capturedTimerTask = new CapturedTimerTask();
-                capturedTimerTask.setCommandId(commandId);
-                mCheckStatusTimer.scheduleAtFixedRate(capturedTimerTask, CHECK_STATUS_PERIOD_MS,
-                        CHECK_STATUS_PERIOD_MS);
+            CommandStatus commandStatus = readCommandStatus(is, null);
+
+            if (repairMode && modeCached && isDisabledCommand(commandStatus)) {
+                // the mode was changed on the device without changing the fingerprint we hold
+                is.close();
+                is = null;
+                invalidateCaptureMode();
+                mCommandMetrics.recordRetries("camera.takePicture", 1);
+                errorMessage = setImageCaptureMode();
+                if (errorMessage != null) {
+                    listener.onError(errorMessage);
+                    return result;
+                }
+                is = executeCommand(input, Priority.CAPTURE);
+                commandStatus = readCommandStatus(is, null);
+            }
+
+            // the status change made by the capture must not discard the confirmed mode
+            String modeFingerPrint = getImageModeFingerPrint();
+            if (commandStatus.isInProgress() && commandStatus.getCommandId() == null) {
+                // the status of the capture cannot be checked without its command ID
+                listener.onError("camera.takePicture returned no command ID");
+            } else if (commandStatus.isInProgress()) {
+                String commandId = commandStatus.getCommandId();
+                mCommandRegistry.register(commandId, "camera.takePicture");
+                mStatusScheduler.schedule(this, commandId, getExpectedCaptureLatencyMs(),
+                        CAPTURE_TIMEOUT_MS, new CapturedStatusCheck(listener, commandId,
+                                modeFingerPrint, startNanos));
                 result = ShootResult.SUCCESS;
-            } else if (status.equals("done")) {
-                JSONObject results = output.getJSONObject("results");
-                String lastFileId = results.getString("fileUri");
+            } else if (commandStatus.isDone()) {
+                String lastFileId = commandStatus.getFileUrl();
 
-                mHttpEventListener.onObjectChanged(lastFileId);
-                mHttpEventListener.onCompleted();
+                carryOverCaptureMode(modeFingerPrint);
+                prefetchCaptured(lastFileId);
+                listener.onObjectChanged(lastFileId);
+                listener.onCompleted();
                 result = ShootResult.SUCCESS;
+            } else if (commandStatus.isError()) {
+                listener.onError(commandStatus.getErrorMessage());
+                if (isDisabledCommand(commandStatus) || CommandStatus.ERROR_SERVICE_UNAVAILABLE
+                        .equals(commandStatus.getErrorCode())) {
+                    result = ShootResult.FAIL_DEVICE_BUSY;
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
-            result = ShootResult.FAIL_DEVICE_BUSY;
+            result = ShootResult.FAIL_CAMERA_DISCONNECTED;
         } catch (JSONException e) {
             e.printStackTrace();
-            result = ShootResult.FAIL_DEVICE_BUSY;
         } finally {
             if (is != null) {
                 try {
@@ -398,40 +668,46 @@ public class HttpConnector {
         return result;
     }
 
+    /**
+     * Set stage fetching each captured file
+     *
+     * @param capturePipeline Capture pipeline (null stops fetching)
+     */
+    void setCapturePipeline(CapturePipeline capturePipeline) {
+        mCapturePipeline = capturePipeline;
+    }
+
+    /**
+     * Start fetching captured file if a capture pipeline is set
+     *
+     * @param fileUrl URL of the captured file
+     */
+    private void prefetchCaptured(String fileUrl) {
+        CapturePipeline capturePipeline = mCapturePipeline;
+        if (capturePipeline != null && fileUrl != null) {
+            capturePipeline.prefetch(fileUrl);
+        }
+    }
+
     /**
      * Check still image shooting status
      *
      * @param commandId Command ID for shooting still images
-     * @return ID of saved file (null is returned if the file is not saved)
+     * @return Command status (null is returned if communication fails)
      */
-    private String checkCaptureStatus(String commandId) {
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/status");
+    private CommandStatus checkCaptureStatus(String commandId) {
         JSONObject input = new JSONObject();
-        String responseData;
-        String capturedFileId = null;
+        CommandStatus commandStatus = null;
         InputStream is = null;
 
         try {
             // send HTTP POST
             input.put("id", commandId);
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = postCommand("/osc/commands/status", toBytes(input));
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String status = output.getString("state");
-
-            if (status.equals("done")) {
-                JSONObject results = output.getJSONObject("results");
-                capturedFileId = results.getString("fileUrl");
-            }
+            commandStatus = readCommandStatus(is, null);
         } catch (IOException e) {
             e.printStackTrace();
         } catch (JSONException e) {
@@ -446,7 +722,7 @@ public class HttpConnector {
             }
         }
 
-        return capturedFileId;
+        return commandStatus;
     }
 
     /**
@@ -457,37 +733,62 @@ public class HttpConnector {
      * @return Image data
      */
     public ImageData getImage(String fileId, HttpDownloadListener listener) {
-        HttpURLConnection postConnection = null;
-        try {
-            postConnection = (HttpURLConnection) new URL(fileId).openConnection();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
         ImageData imageData = new ImageData();
-        int totalSize = 0;
+        long totalSize = 0;
         InputStream is = null;
 
         try {
             // send HTTP GET
-            postConnection.connect();
-
-            totalSize = postConnection.getContentLength();
+            long startNanos = System.nanoTime();
+            HttpTransport.Response response = mTransport.get(fileId, null, Priority.TRANSFER);
+            CommandInputStream cis = new CommandInputStream(CommandMetrics.FILE, startNanos, 0,
+                    response.getInputStream(), false);
+            is = cis;
+            checkFileResponse(response, cis, fileId);
+
+            totalSize = response.getContentLength();
             listener.onTotalSize(totalSize);
-            is = postConnection.getInputStream();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[2048];
-            int length;
-
-            while ((length = is.read(buffer)) >= 0) {
-                baos.write(buffer, 0, length);
-                listener.onDataReceived(length);
+            ProgressNotifier progress = new ProgressNotifier(listener);
+            XmpExtractor xmpExtractor = new XmpExtractor();
+            byte[] rawData;
+
+            if (totalSize >= 0 && totalSize <= Integer.MAX_VALUE) {
+                // read straight into the result instead of copying through a growing buffer
+                rawData = new byte[(int) totalSize];
+                int offset = 0;
+                while (offset < rawData.length) {
+                    int length = is.read(rawData, offset, rawData.length - offset);
+                    if (length < 0) {
+                        throw new EOFException("Unexpected end of image data");
+                    }
+                    xmpExtractor.feed(rawData, offset, length, listener);
+                    offset += length;
+                    progress.add(length);
+                }
+            } else {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(TRANSFER_BUFFER_SIZE);
+                ByteBuffer buffer = mBufferPool.acquire();
+                try {
+                    byte[] array = buffer.array();
+                    int length;
+                    while ((length = is.read(array, 0, array.length)) >= 0) {
+                        xmpExtractor.feed(array, 0, length, listener);
+                        baos.write(array, 0, length);
+                        progress.add(length);
+                    }
+                } finally {
+                    mBufferPool.release(buffer);
+                }
+                rawData = baos.toByteArray();
             }
-            byte[] rawData = baos.toByteArray();
+            progress.flush();
             imageData.setRawData(rawData);
 
-            XMP xmp = new XMP(rawData);
-            imageData.setPitch(xmp.getPosePitchDegrees());
-            imageData.setRoll(xmp.getPoseRollDegrees());
+            if (!xmpExtractor.isXmpFound()) {
+                // not a JPEG file, search the whole data
+                xmpExtractor.scan(rawData, 0, rawData.length);
+            }
+            xmpExtractor.applyTo(imageData);
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
@@ -503,6 +804,83 @@ public class HttpConnector {
         return imageData;
     }
 
+    /**
+     * Download image or video to file<p>
+     * Files larger than one chunk of {@link HttpConnector#RANGED_CHUNK_SIZE} are fetched as range
+     * requests over {@link HttpConnector#RANGED_CONNECTIONS} connections and written into the
+     * file at their offsets. If the download fails, the received chunks are kept, and calling this
+     * method again with the same file fetches only the missing ones.
+     *
+     * @param fileId File ID
+     * @param file Destination file (overwritten unless it holds an interrupted download)
+     * @param listener Listener for receiving the file size and the download progress
+     * @return Image data backed by the file (null is returned if the download fails)
+     */
+    public ImageData getImage(String fileId, File file, HttpDownloadListener listener) {
+        ImageData imageData = null;
+
+        long startNanos = System.nanoTime();
+        RangedDownload download = null;
+        try {
+            XmpExtractor xmpExtractor = new XmpExtractor();
+            download = new RangedDownload(mTransport, mBufferPool, mExecutor,
+                    RANGED_CONNECTIONS, RANGED_CHUNK_SIZE, fileId, file, xmpExtractor);
+            download.run(listener);
+            mCommandMetrics.record(CommandMetrics.FILE, System.nanoTime() - startNanos,
+                    download.getReceivedBytes(), null);
+            if (!xmpExtractor.isFinished()) {
+                // the head was received by an earlier attempt
+                readHead(file, xmpExtractor);
+            }
+
+            imageData = new ImageData();
+            imageData.setFile(file);
+            xmpExtractor.applyTo(imageData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            mCommandMetrics.recordFailure(CommandMetrics.FILE,
+                    download != null ? download.getReceivedBytes() : 0);
+        } finally {
+            if (download != null) {
+                mCommandMetrics.recordRetries(CommandMetrics.FILE, download.getRetryCount());
+            }
+        }
+
+        return imageData;
+    }
+
+    /**
+     * Download file to channel<p>
+     * The body is passed to the channel in large blocks through a pooled buffer, and progress is
+     * reported at most every 100 milliseconds.
+     *
+     * @param fileId File ID
+     * @param channel Destination channel (not closed by this method)
+     * @param listener Listener for receiving the file size and the download progress (null is
+     * allowed)
+     * @return Number of bytes written
+     * @throws IOException Failed to download or write the file
+     */
+    public long downloadFile(String fileId, WritableByteChannel channel,
+            HttpDownloadListener listener) throws IOException {
+        long startNanos = System.nanoTime();
+        HttpTransport.Response response = mTransport.get(fileId, null, Priority.TRANSFER);
+        CommandInputStream is = new CommandInputStream(CommandMetrics.FILE, startNanos, 0,
+                response.getInputStream(), false);
+
+        try {
+            checkFileResponse(response, is, fileId);
+
+            long totalSize = response.getContentLength();
+            if (listener != null) {
+                listener.onTotalSize(totalSize);
+            }
+            return transfer(is, channel, new ProgressNotifier(listener));
+        } finally {
+            is.close();
+        }
+    }
+
     /**
      * Acquire live view stream
      *
@@ -513,46 +891,35 @@ public class HttpConnector {
         // set capture mode to image
         setImageCaptureMode();
 
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
         JSONObject input = new JSONObject();
         InputStream is = null;
 
         try {
             // send HTTP POST
             input.put("name", "camera.getLivePreview");
-            JSONObject parameters = new JSONObject();
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-        } catch (IOException e) {
-            e.printStackTrace();
-            String errorMessage = null;
-            InputStream es = postConnection.getErrorStream();
+            // the stream lasts until live view stops, so only starting it occupies the scheduler
+            HttpTransport.Response response;
+            CommandScheduler.Permit permit = mCommandScheduler.acquire(Priority.PREVIEW);
             try {
-                if (es != null) {
-                    String errorData = InputStreamToString(es);
-                    JSONObject output = new JSONObject(errorData);
-                    JSONObject errors = output.getJSONObject("error");
-                    errorMessage = errors.getString("message");
-                }
-            } catch (IOException e1) {
-                e1.printStackTrace();
-            } catch (JSONException e1) {
-                e1.printStackTrace();
+                response = mTransport.post("/osc/commands/execute", toBytes(input));
             } finally {
-                if (es != null) {
-                    try {
-                        es.close();
-                    } catch (IOException e1) {
-                        e1.printStackTrace();
-                    }
+                permit.close();
+            }
+            if (!response.isSuccessful()) {
+                InputStream es = response.getInputStream();
+                String errorMessage;
+                try {
+                    errorMessage = readCommandStatus(es, null).getErrorMessage();
+                } finally {
+                    es.close();
                 }
+                invalidateCaptureMode();
+                throw new IOException("Failed to start live preview: " + errorMessage);
             }
+            is = response.getInputStream();
+        } catch (IOException e) {
+            e.printStackTrace();
             throw e;
         } catch (JSONException e) {
             e.printStackTrace();
@@ -562,6 +929,18 @@ public class HttpConnector {
         return is;
     }
 
+    /**
+     * Acquire live view split into JPEG frames
+     *
+     * @param latestFrameWins true:Drop frames not consumed in time, false:Return every frame
+     * @return Reader of frames (close it to stop live view)
+     */
+    public LivePreviewReader openLivePreview(boolean latestFrameWins)
+            throws IOException, JSONException {
+        return new LivePreviewReader(getLivePreview(), new BitmapPool(PREVIEW_POOL_BYTES),
+                latestFrameWins);
+    }
+
     /**
      * Delete specified file
      *
@@ -577,11 +956,17 @@ public class HttpConnector {
             return;
         }
 
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
+        // the fingerprint after the mode switch is the reference for detecting completion
+        CameraState state = getState();
+        String fingerPrint = state != null ? state.getFingerprint() : null;
+        if (fingerPrint == null) {
+            listener.onError("Failed to acquire device status before camera.delete");
+            return;
+        }
+
         JSONObject input = new JSONObject();
-        String responseData;
-        mHttpEventListener = listener;
         InputStream is = null;
+        long startNanos = System.nanoTime();
 
         try {
             // send HTTP POST
@@ -590,35 +975,30 @@ public class HttpConnector {
             parameters.put("fileUri", deletedFileId);
             input.put("parameters", parameters);
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.SETTINGS);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String status = output.getString("state");
-
-            if (status.equals("inProgress")) {
-                getState();
-                mCheckStatusTimer = new Timer(true);
-                DeletedTimerTask deletedTimerTask = new DeletedTimerTask();
-                deletedTimerTask.setDeletedFileId(deletedFileId);
-                mCheckStatusTimer.scheduleAtFixedRate(deletedTimerTask, CHECK_STATUS_PERIOD_MS,
-                        CHECK_STATUS_PERIOD_MS);
-            } else if (status.equals("done")) {
-                mHttpEventListener.onObjectChanged(deletedFileId);
-                mHttpEventListener.onCompleted();
-                mFingerPrint = null;
+            CommandStatus commandStatus = readCommandStatus(is, null);
+
+            if (commandStatus.isInProgress()) {
+                String commandId = commandStatus.getCommandId();
+                mCommandRegistry.register(commandId, "camera.delete");
+                mStatusScheduler.schedule(this, commandId != null ? commandId : deletedFileId,
+                        DELETE_EXPECTED_LATENCY_MS, DELETE_TIMEOUT_MS,
+                        new DeletedStatusCheck(listener, commandId, deletedFileId, fingerPrint,
+                                startNanos));
+            } else if (commandStatus.isDone()) {
+                listener.onObjectChanged(deletedFileId);
+                listener.onCompleted();
+            } else {
+                listener.onError(commandStatus.getErrorMessage());
             }
         } catch (IOException e) {
             e.printStackTrace();
+            listener.onError(e.toString());
         } catch (JSONException e) {
             e.printStackTrace();
+            listener.onError(e.toString());
         } finally {
             if (is != null) {
                 try {
@@ -631,54 +1011,358 @@ public class HttpConnector {
     }
 
     /**
-     * Acquire currently set shooting size
+     * Take photo asynchronously<p>
+     * Several commands can be in progress at the same time. Each command is tracked by its own
+     * command ID in {@link HttpConnector#getCommandRegistry()}.
      *
-     * @return Shooting size (null is returned if acquisition fails)
+     * @return Future completed with the URL of the saved file
      */
-    public ImageSize getImageSize() {
+    public CompletableFuture<String> takePictureAsync() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        mExecutor.execute(() -> {
+            ShootResult result = takePicture(new FutureEventListener(future));
+            if (result != ShootResult.SUCCESS) {
+                future.completeExceptionally(
+                        new IOException("Failed to take picture: " + result));
+            }
+        });
+        return future;
+    }
 
-        // set capture mode to image
-        setImageCaptureMode();
+    /**
+     * Delete specified file asynchronously
+     *
+     * @param deletedFileId File ID
+     * @return Future completed with the ID of the deleted file
+     */
+    public CompletableFuture<String> deleteFileAsync(String deletedFileId) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        mExecutor.execute(() -> deleteFile(deletedFileId, new FutureEventListener(future)));
+        return future;
+    }
+
+    /**
+     * Delete multiple files asynchronously
+     *
+     * @param fileIds File IDs
+     * @return Future completed with the result of each file
+     * @see #deleteFiles(List)
+     */
+    public CompletableFuture<DeleteResult> deleteFilesAsync(List<String> fileIds) {
+        List<String> requestedFileIds = new ArrayList<>(fileIds);
+        return CompletableFuture.supplyAsync(() -> deleteFiles(requestedFileIds), mExecutor);
+    }
+
+    /**
+     * Delete multiple files<p>
+     * Files are passed to camera.delete as one array per {@value #DELETE_CHUNK_SIZE} files, and
+     * each request waits for a single change of the fingerprint instead of one wait per file. The
+     * outcome of each file is then confirmed against the file list on device.
+     *
+     * @param fileIds File IDs
+     * @return Result of each file
+     */
+    public DeleteResult deleteFiles(List<String> fileIds) {
+        if (fileIds.isEmpty()) {
+            return new DeleteResult(new LinkedHashMap<>(), true);
+        }
+
+        Map<String, String> chunkErrors = new HashMap<>();
+        boolean modeSet = false;
+
+        for (int start = 0; start < fileIds.size(); start += DELETE_CHUNK_SIZE) {
+            List<String> chunk =
+                    fileIds.subList(start, Math.min(start + DELETE_CHUNK_SIZE, fileIds.size()));
+
+            String errorMessage = null;
+            if (!modeSet) {
+                errorMessage = setImageCaptureMode();
+                modeSet = errorMessage == null;
+            }
+            if (errorMessage == null) {
+                // the fingerprint after the mode switch is the reference for detecting completion
+                CameraState state = getState();
+                String fingerPrint = state != null ? state.getFingerprint() : null;
+                errorMessage = fingerPrint != null ? deleteChunk(chunk, fingerPrint)
+                        : "Failed to acquire device status before camera.delete";
+            }
+            if (errorMessage != null) {
+                for (String fileId : chunk) {
+                    chunkErrors.put(fileId, errorMessage);
+                }
+            }
+        }
+        invalidateStorageOptions();
+        requestStateCheck();
+
+        // confirm against the files remaining on device
+        Set<String> remainingFileIds = new HashSet<>();
+        FileListIterator iterator = listFiles(FILE_TYPE_ALL, DEFAULT_LIST_PAGE_SIZE);
+        while (iterator.hasNext()) {
+            remainingFileIds.add(iterator.next().getFileId());
+        }
+        boolean confirmed = !iterator.hasFailed();
+
+        LinkedHashMap<String, String> errorMessages = new LinkedHashMap<>();
+        ThumbnailCache thumbnailCache = mThumbnailCache;
+        for (String fileId : fileIds) {
+            String errorMessage = chunkErrors.get(fileId);
+            boolean deleted = confirmed ? !remainingFileIds.contains(fileId) : errorMessage == null;
+            if (deleted) {
+                errorMessage = null;
+                if (thumbnailCache != null) {
+                    thumbnailCache.remove(fileId);
+                }
+            } else if (errorMessage == null) {
+                errorMessage = "File remains on device";
+            }
+            errorMessages.put(fileId, errorMessage);
+        }
+        return new DeleteResult(errorMessages, confirmed);
+    }
 
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
+    /**
+     * Delete files by one camera.delete and wait for its completion
+     *
+     * @param fileIds File IDs
+     * @param fingerPrint Fingerprint before deletion (not null)
+     * @return Error message (null is returned if the command completed)
+     */
+    private String deleteChunk(List<String> fileIds, String fingerPrint) {
         JSONObject input = new JSONObject();
-        String responseData;
-        ImageSize imageSize = null;
         InputStream is = null;
+        CommandStatus commandStatus;
+        long startNanos = System.nanoTime();
 
         try {
             // send HTTP POST
-            input.put("name", "camera.getOptions");
+            input.put("name", "camera.delete");
             JSONObject parameters = new JSONObject();
-            JSONArray optionNames = new JSONArray();
-            optionNames.put("fileFormat");
-            parameters.put("optionNames", optionNames);
+            JSONArray fileUrls = new JSONArray();
+            for (String fileId : fileIds) {
+                fileUrls.put(fileId);
+            }
+            parameters.put("fileUrls", fileUrls);
             input.put("parameters", parameters);
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.SETTINGS);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String status = output.getString("state");
-
-            if (status.equals("done")) {
-                JSONObject results = output.getJSONObject("results");
-                JSONObject options = results.getJSONObject("options");
-                JSONObject fileFormat = options.getJSONObject("fileFormat");
-                int width = fileFormat.getInt("width");
-
-                switch(width) {
-                    case 2048:
-                        imageSize = ImageSize.IMAGE_SIZE_2048x1024;
-                        break;
-                    case 5376:
+            commandStatus = readCommandStatus(is, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return e.toString();
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return e.toString();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if (commandStatus.isDone()) {
+            return null;
+        } else if (!commandStatus.isInProgress()) {
+            return commandStatus.getErrorMessage();
+        }
+
+        String commandId = commandStatus.getCommandId();
+        mCommandRegistry.register(commandId, "camera.delete");
+        BatchDeletedStatusCheck statusCheck = new BatchDeletedStatusCheck(commandId, fingerPrint,
+                startNanos);
+        mStatusScheduler.schedule(this,
+                commandId != null ? commandId : "camera.delete:" + fingerPrint,
+                DELETE_EXPECTED_LATENCY_MS + DELETE_LATENCY_PER_FILE_MS * fileIds.size(),
+                DELETE_TIMEOUT_MS + DELETE_TIMEOUT_PER_FILE_MS * fileIds.size(), statusCheck);
+        try {
+            return statusCheck.mResult.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e.toString();
+        } catch (ExecutionException e) {
+            return e.getCause().toString();
+        }
+    }
+
+    /**
+     * Acquire list of media files on device asynchronously
+     *
+     * @param fileType {@link HttpConnector#FILE_TYPE_ALL}, {@link HttpConnector#FILE_TYPE_IMAGE} or
+     * {@link HttpConnector#FILE_TYPE_VIDEO}
+     * @return Future completed with the media file list
+     */
+    public CompletableFuture<ArrayList<ImageInfo>> getListAsync(String fileType) {
+        return CompletableFuture.supplyAsync(() -> {
+            ArrayList<ImageInfo> imageInfos = new ArrayList<>();
+            FileListIterator iterator = listFiles(fileType, DEFAULT_LIST_PAGE_SIZE);
+            while (iterator.hasNext()) {
+                imageInfos.add(iterator.next());
+            }
+            if (iterator.hasFailed()) {
+                throw new CompletionException(new IOException("Failed to acquire file list"));
+            }
+            return imageInfos;
+        }, mExecutor);
+    }
+
+    /**
+     * Stop checking status of command in progress<p>
+     * The command itself keeps running on the device, but its listener is notified of an error
+     * and no further status check is made.
+     *
+     * @param commandId Command ID
+     * @return true:Cancelled, false:The command is not being checked
+     */
+    public boolean cancelStatusCheck(String commandId) {
+        return mStatusScheduler.cancel(this, commandId);
+    }
+
+    /**
+     * Start transaction sending option reads and writes together
+     *
+     * @return Transaction to be committed by {@link OptionsTransaction#commit()}
+     */
+    public OptionsTransaction beginOptionsTransaction() {
+        return new OptionsTransaction(this);
+    }
+
+    /**
+     * Acquire option value asynchronously<p>
+     * Reads and writes requested within a short time of each other, or while a previous batch is
+     * in flight, are sent together in one camera.getOptions and one camera.setOptions command.
+     *
+     * @param name Option name
+     * @return Future completed with the option value (String, Number, Boolean, JSONObject,
+     * JSONArray or null)
+     */
+    public CompletableFuture<Object> getOptionAsync(String name) {
+        synchronized (mOptionsBatchLock) {
+            CompletableFuture<Object> future = getPendingOptions().get(name);
+            startOptionsBatch();
+            return future;
+        }
+    }
+
+    /**
+     * Set option value asynchronously<p>
+     * Batched in the same way as {@link HttpConnector#getOptionAsync(String)}.
+     *
+     * @param name Option name
+     * @param value Option value (String, Number, Boolean, JSONObject or JSONArray)
+     * @return Future completed when the value is applied
+     */
+    public CompletableFuture<Void> setOptionAsync(String name, Object value) {
+        synchronized (mOptionsBatchLock) {
+            CompletableFuture<Void> future = getPendingOptions().set(name, value);
+            startOptionsBatch();
+            return future;
+        }
+    }
+
+    /**
+     * Send option reads and writes of transaction on a background thread
+     *
+     * @param transaction Committed transaction
+     * @return Future completed when every read and write has finished
+     */
+    CompletableFuture<Void> executeOptionsAsync(OptionsTransaction transaction) {
+        List<CompletableFuture<?>> futures = transaction.getAllFutures();
+        mExecutor.execute(() -> executeOptions(transaction));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Acquire pose angles of still images without downloading them<p>
+     * Only the head of each file holding the XMP packet is fetched by range requests, and
+     * {@link HttpConnector#HARVEST_PARALLELISM} files are read at the same time. Videos are
+     * skipped.
+     *
+     * @param imageInfos Media files, usually acquired by {@link HttpConnector#listFiles}
+     * @return Pose table of the still images in the order of imageInfos
+     */
+    public PoseTable getPoseTable(List<ImageInfo> imageInfos) {
+        List<String> fileUrls = new ArrayList<>(imageInfos.size());
+        for (ImageInfo imageInfo : imageInfos) {
+            if (!ImageInfo.FILE_FORMAT_CODE_EXIF_MPEG.equals(imageInfo.getFileFormat())) {
+                fileUrls.add(imageInfo.getFileId());
+            }
+        }
+
+        MetadataHarvester harvester = new MetadataHarvester(mTransport, mBufferPool, mExecutor,
+                HARVEST_PARALLELISM);
+        return harvester.harvest(fileUrls.toArray(new String[0]));
+    }
+
+    /**
+     * Acquire pose angles of all still images on device asynchronously
+     *
+     * @return Future completed with the pose table
+     */
+    public CompletableFuture<PoseTable> getPoseTableAsync() {
+        return getListAsync(FILE_TYPE_IMAGE).thenApplyAsync(this::getPoseTable, mExecutor);
+    }
+
+    /**
+     * Acquire registry of OSC commands in progress
+     *
+     * @return Command registry
+     */
+    public CommandRegistry getCommandRegistry() {
+        return mCommandRegistry;
+    }
+
+    /**
+     * Acquire currently set shooting size
+     *
+     * @return Shooting size (null is returned if acquisition fails)
+     */
+    public ImageSize getImageSize() {
+        Object[] cached = mOptionsCache.get(IMAGE_SIZE_OPTION_NAMES, this::getCurrentFingerPrint);
+        if (cached != null) {
+            return (ImageSize) cached[0];
+        }
+
+        // set capture mode to image
+        setImageCaptureMode();
+
+        JSONObject input = new JSONObject();
+        ImageSize imageSize = null;
+        InputStream is = null;
+        String fingerPrint = getCacheFingerPrint();
+
+        try {
+            // send HTTP POST
+            input.put("name", "camera.getOptions");
+            JSONObject parameters = new JSONObject();
+            JSONArray optionNames = new JSONArray();
+            optionNames.put("fileFormat");
+            parameters.put("optionNames", optionNames);
+            input.put("parameters", parameters);
+
+            is = executeCommand(input, Priority.SETTINGS);
+
+            // parse JSON data
+            final int[] width = new int[1];
+            CommandStatus commandStatus = readCommandStatus(is, reader -> readOptions(reader,
+                    index -> {
+                        if (index == 0) {
+                            width[0] = readWidth(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }, IMAGE_SIZE_OPTION_NAMES));
+
+            if (commandStatus.isDone()) {
+                switch(width[0]) {
+                    case 2048:
+                        imageSize = ImageSize.IMAGE_SIZE_2048x1024;
+                        break;
+                    case 5376:
                         imageSize = ImageSize.IMAGE_SIZE_5376x2688;
                         break;
                     case 6720:
@@ -692,6 +1376,8 @@ public class HttpConnector {
                         imageSize = ImageSize.IMAGE_SIZE_11008x5504;
                         break;
                 }
+                mImageSize = imageSize;
+                mOptionsCache.put(IMAGE_SIZE_OPTION_NAMES[0], imageSize, fingerPrint);
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -745,9 +1431,7 @@ public class HttpConnector {
         // set capture mode to image
         setImageCaptureMode();
 
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
         JSONObject input = new JSONObject();
-        String responseData;
         InputStream is = null;
 
         try {
@@ -763,14 +1447,15 @@ public class HttpConnector {
             parameters.put("options", options);
             input.put("parameters", parameters);
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.SETTINGS);
+            if (readCommandStatus(is, null).isDone()) {
+                mImageSize = imageSize;
+                mOptionsCache.put(IMAGE_SIZE_OPTION_NAMES[0], imageSize, mFingerPrint);
+                // the number of remaining pictures depends on the shooting size
+                mOptionsCache.invalidate(STORAGE_OPTION_NAMES[0]);
+            } else {
+                mOptionsCache.invalidate(IMAGE_SIZE_OPTION_NAMES[0]);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         } catch (JSONException e) {
@@ -787,16 +1472,22 @@ public class HttpConnector {
     }
 
     /**
-     * Set still image as shooting mode
+     * Set still image as shooting mode<p>
+     * Nothing is sent while the mode is known to be image and the fingerprint has not changed
+     * since it was confirmed.
      *
      * @return Error message (null is returned if successful)
      */
     private String setImageCaptureMode() {
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/commands/execute");
+        if (isImageModeConfirmed()) {
+            return null;
+        }
+
         JSONObject input = new JSONObject();
-        String responseData;
         String errorMessage = null;
         InputStream is = null;
+        // without a fingerprint the mode could never be confirmed, so acquire one first
+        String fingerPrint = getCurrentFingerPrint();
 
         try {
             // send HTTP POST
@@ -807,47 +1498,22 @@ public class HttpConnector {
             parameters.put("options", options);
             input.put("parameters", parameters);
 
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
-
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.SETTINGS);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String status = output.getString("state");
+            CommandStatus commandStatus = readCommandStatus(is, null);
 
-            if (status.equals("error")) {
-                JSONObject errors = output.getJSONObject("error");
-                errorMessage = errors.getString("message");
+            if (commandStatus.isError()) {
+                errorMessage = commandStatus.getErrorMessage();
+            } else {
+                synchronized (mCaptureModeLock) {
+                    mImageModeConfirmed = true;
+                    mImageModeFingerPrint = fingerPrint;
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             errorMessage = e.toString();
-            InputStream es = postConnection.getErrorStream();
-            try {
-                if (es != null) {
-                    String errorData = InputStreamToString(es);
-                    JSONObject output = new JSONObject(errorData);
-                    JSONObject errors = output.getJSONObject("error");
-                    errorMessage = errors.getString("message");
-                }
-            } catch (IOException e1) {
-                e1.printStackTrace();
-            } catch (JSONException e1) {
-                e1.printStackTrace();
-            } finally {
-                if (es != null) {
-                    try {
-                        es.close();
-                    } catch (IOException e1) {
-                        e1.printStackTrace();
-                    }
-                }
-            }
         } catch (JSONException e) {
             e.printStackTrace();
             errorMessage = e.toString();
@@ -864,33 +1530,163 @@ public class HttpConnector {
         return errorMessage;
     }
 
+    private OptionsTransaction getPendingOptions() {
+        if (mPendingOptions == null) {
+            mPendingOptions = new OptionsTransaction(this);
+        }
+        return mPendingOptions;
+    }
+
+    private void startOptionsBatch() {
+        if (!mOptionsBatchRunning) {
+            mOptionsBatchRunning = true;
+            mExecutor.execute(this::runOptionsBatches);
+        }
+    }
+
     /**
-     * Acquire device status
+     * Send pending option requests until none is left
+     */
+    private void runOptionsBatches() {
+        try {
+            Thread.sleep(OPTIONS_BATCH_WINDOW_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        boolean finished = false;
+        try {
+            while (true) {
+                OptionsTransaction transaction;
+                synchronized (mOptionsBatchLock) {
+                    transaction = mPendingOptions;
+                    mPendingOptions = null;
+                    if (transaction == null) {
+                        mOptionsBatchRunning = false;
+                        finished = true;
+                        return;
+                    }
+                }
+                transaction.markCommitted();
+                executeOptions(transaction);
+            }
+        } finally {
+            if (!finished) {
+                // let the next request start a new batch instead of waiting for this one
+                synchronized (mOptionsBatchLock) {
+                    mOptionsBatchRunning = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send option reads and writes of transaction<p>
+     * Futures left incomplete by an unexpected error are completed exceptionally, so that no
+     * caller waits forever.
+     *
+     * @param transaction Committed transaction
+     */
+    private void executeOptions(OptionsTransaction transaction) {
+        try {
+            sendOptions(transaction);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            for (CompletableFuture<?> future : transaction.getAllFutures()) {
+                future.completeExceptionally(new IOException("Failed to access options", e));
+            }
+        }
+    }
+
+    /**
+     * Send option reads and writes of transaction<p>
+     * An invalid option makes the whole command fail, so a failed batch is retried one option at
+     * a time to give each caller its own result.
+     *
+     * @param transaction Committed transaction
+     */
+    private void sendOptions(OptionsTransaction transaction) {
+        Map<String, Object> writes = transaction.getWrites();
+        Map<String, List<CompletableFuture<Void>>> writeFutures = transaction.getWriteFutures();
+        if (!writes.isEmpty()) {
+            String errorMessage = sendSetOptions(writes);
+            for (Map.Entry<String, Object> write : writes.entrySet()) {
+                String writeErrorMessage = errorMessage;
+                if (errorMessage != null && writes.size() > 1) {
+                    writeErrorMessage = sendSetOptions(
+                            Collections.singletonMap(write.getKey(), write.getValue()));
+                }
+                for (CompletableFuture<Void> future : writeFutures.get(write.getKey())) {
+                    if (writeErrorMessage == null) {
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(new IOException(
+                                "Failed to set " + write.getKey() + ": " + writeErrorMessage));
+                    }
+                }
+            }
+        }
+
+        Map<String, List<CompletableFuture<Object>>> readFutures = transaction.getReadFutures();
+        if (!readFutures.isEmpty()) {
+            String[] names = readFutures.keySet().toArray(new String[0]);
+            Object[] values = new Object[names.length];
+            String errorMessage = sendGetOptions(names, values);
+            for (int index = 0; index < names.length; index++) {
+                String readErrorMessage = errorMessage;
+                Object value = values[index];
+                if (errorMessage != null && names.length > 1) {
+                    Object[] singleValue = new Object[1];
+                    readErrorMessage = sendGetOptions(new String[]{names[index]}, singleValue);
+                    value = singleValue[0];
+                }
+                for (CompletableFuture<Object> future : readFutures.get(names[index])) {
+                    if (readErrorMessage == null) {
+                        future.complete(value);
+                    } else {
+                        future.completeExceptionally(new IOException(
+                                "Failed to get " + names[index] + ": " + readErrorMessage));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Send camera.setOptions with several options
      *
-     * @return Last saved file
+     * @param writes Option names and values
+     * @return Error message (null is returned if successful)
      */
-    private String getState() {
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/state");
-        String responseData;
-        String lastFile = "";
+    private String sendSetOptions(Map<String, Object> writes) {
+        JSONObject input = new JSONObject();
+        String errorMessage = null;
         InputStream is = null;
 
         try {
             // send HTTP POST
-            postConnection.connect();
+            input.put("name", "camera.setOptions");
+            JSONObject parameters = new JSONObject();
+            JSONObject options = new JSONObject();
+            for (Map.Entry<String, Object> write : writes.entrySet()) {
+                options.put(write.getKey(), write.getValue());
+            }
+            parameters.put("options", options);
+            input.put("parameters", parameters);
 
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.SETTINGS);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            mFingerPrint = output.getString("fingerprint");
-            JSONObject status = output.getJSONObject("state");
-            lastFile = status.getString("_latestFileUri");
+            CommandStatus commandStatus = readCommandStatus(is, null);
+            if (commandStatus.isError()) {
+                errorMessage = commandStatus.getErrorMessage();
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            errorMessage = e.toString();
         } catch (JSONException e) {
             e.printStackTrace();
+            errorMessage = e.toString();
         } finally {
             if (is != null) {
                 try {
@@ -901,50 +1697,64 @@ public class HttpConnector {
             }
         }
 
-        return lastFile;
+        // the device may adjust written values, so they are read again on the next query
+        for (String name : writes.keySet()) {
+            mOptionsCache.invalidate(name);
+        }
+        if (writes.containsKey("captureMode")) {
+            invalidateCaptureMode();
+        }
+        if (writes.containsKey(IMAGE_SIZE_OPTION_NAMES[0])) {
+            mImageSize = null;
+            mOptionsCache.invalidate(STORAGE_OPTION_NAMES[0]);
+        }
+
+        return errorMessage;
     }
 
     /**
-     * Check for updates to device status
+     * Send camera.getOptions with several options
      *
-     * @return true:Update available, false:No update available
+     * @param names Option names
+     * @param values Array receiving the values in the order of names
+     * @return Error message (null is returned if successful)
      */
-    private boolean isUpdate() {
-        boolean update = false;
-        InputStream is = null;
-
-        if (mFingerPrint == null) {
-            return update;
-        }
-
-        HttpURLConnection postConnection = createHttpConnection("POST", "/osc/checkForUpdates");
+    private String sendGetOptions(String[] names, Object[] values) {
         JSONObject input = new JSONObject();
-        String responseData = null;
+        String errorMessage = null;
+        InputStream is = null;
 
         try {
             // send HTTP POST
-            input.put("stateFingerprint", mFingerPrint);
-
-            OutputStream os = postConnection.getOutputStream();
-            os.write(input.toString().getBytes());
-            postConnection.connect();
-            os.flush();
-            os.close();
+            input.put("name", "camera.getOptions");
+            JSONObject parameters = new JSONObject();
+            JSONArray optionNames = new JSONArray();
+            for (String name : names) {
+                optionNames.put(name);
+            }
+            parameters.put("optionNames", optionNames);
+            input.put("parameters", parameters);
 
-            is = postConnection.getInputStream();
-            responseData = InputStreamToString(is);
+            is = executeCommand(input, Priority.SETTINGS);
 
             // parse JSON data
-            JSONObject output = new JSONObject(responseData);
-            String currentFingerPrint = output.getString("stateFingerprint");
-            if (!currentFingerPrint.equals(mFingerPrint)) {
-                mFingerPrint = currentFingerPrint;
-                update = true;
+            CommandStatus commandStatus = readCommandStatus(is, reader -> readOptions(reader,
+                    index -> {
+                        if (index >= 0) {
+                            values[index] = readValue(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }, names));
+            if (commandStatus.isError()) {
+                errorMessage = commandStatus.getErrorMessage();
             }
         } catch (IOException e) {
             e.printStackTrace();
+            errorMessage = e.toString();
         } catch (JSONException e) {
             e.printStackTrace();
+            errorMessage = e.toString();
         } finally {
             if (is != null) {
                 try {
@@ -955,119 +1765,1092 @@ public class HttpConnector {
             }
         }
 
-        return update;
+        return errorMessage;
     }
 
     /**
-     * Generate connection destination URL
+     * Feed head of downloaded file to XMP extractor
      *
-     * @param path Path
-     * @return URL
+     * @param file Downloaded file
+     * @param xmpExtractor XMP extractor
+     * @throws IOException Failed to read the file
      */
-    private String createUrl(String path) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("http://");
-        sb.append(mIpAddress);
-        sb.append(path);
+    private void readHead(File file, XmpExtractor xmpExtractor) throws IOException {
+        ByteBuffer buffer = mBufferPool.acquire();
+        InputStream is = new FileInputStream(file);
 
-        return sb.toString();
+        try {
+            byte[] array = buffer.array();
+            int length;
+            while (!xmpExtractor.isFinished() && (length = is.read(array)) >= 0) {
+                xmpExtractor.feed(array, 0, length);
+            }
+        } finally {
+            is.close();
+            mBufferPool.release(buffer);
+        }
     }
 
     /**
-     * Generate HTTP connection
+     * Copy response body to channel
      *
-     * @param method Method
-     * @param path Path
-     * @return HTTP Connection instance
+     * @param is Response body
+     * @param channel Destination channel
+     * @param progress Progress notifier
+     * @return Number of bytes copied
+     * @throws IOException Failed to read or write
      */
-    private HttpURLConnection createHttpConnection(String method, String path) {
-        HttpURLConnection connection = null;
+    private long transfer(InputStream is, WritableByteChannel channel, ProgressNotifier progress)
+            throws IOException {
+        ByteBuffer buffer = mBufferPool.acquire();
+        byte[] array = buffer.array();
+        long transferred = 0;
+
         try {
-            URL url = new URL(createUrl(path));
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestProperty("Content-Type", "application/json;charset=utf-8");
-            connection.setRequestProperty("Accept", "application/json");
-            connection.setDoInput(true);
+            int length = 0;
+            while (length >= 0) {
+                // fill the buffer so that the channel is written in large blocks
+                int filled = 0;
+                while (filled < array.length
+                        && (length = is.read(array, filled, array.length - filled)) >= 0) {
+                    filled += length;
+                    progress.add(length);
+                }
 
-            if (method.equals("POST")) {
-                connection.setRequestMethod(method);
-                connection.setDoOutput(true);
+                buffer.clear();
+                buffer.limit(filled);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                transferred += filled;
             }
+            progress.flush();
+        } finally {
+            mBufferPool.release(buffer);
+        }
 
-        } catch (MalformedURLException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
+        return transferred;
+    }
+
+    /**
+     * Acquire current fingerprint of device<p>
+     * A fingerprint confirmed within {@link HttpConnector#FINGERPRINT_FRESH_NS} is returned as is.
+     * Otherwise it is confirmed by /osc/checkForUpdates, or by /osc/state if none is known yet.
+     *
+     * @return Fingerprint (null is returned if communication fails)
+     */
+    private String getCurrentFingerPrint() {
+        String fingerPrint = mFingerPrint;
+        long checkedNanos = mFingerPrintCheckedNanos;
+        if (fingerPrint != null && System.nanoTime() - checkedNanos < FINGERPRINT_FRESH_NS) {
+            return fingerPrint;
         }
 
-        return connection;
+        if (fingerPrint == null) {
+            getState();
+        } else {
+            isUpdate(fingerPrint);
+        }
+        return mFingerPrintCheckedNanos != checkedNanos ? mFingerPrint : null;
     }
 
     /**
-     * Convert input stream to string
+     * Acquire fingerprint that option values acquired from now on are stored with
      *
-     * @param is InputStream
-     * @return String
-     * @throws IOException IO error
+     * @return Fingerprint (null is returned if communication fails)
+     */
+    private String getCacheFingerPrint() {
+        String fingerPrint = mFingerPrint;
+        return fingerPrint != null ? fingerPrint : getCurrentFingerPrint();
+    }
+
+    /**
+     * Drop cached storage options after a file was saved or deleted
      */
-    private String InputStreamToString(InputStream is) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-        StringBuilder sb = new StringBuilder();
-        String lineData;
-        while ((lineData = br.readLine()) != null) {
-            sb.append(lineData);
+    private void invalidateStorageOptions() {
+        for (String name : STORAGE_OPTION_NAMES) {
+            mOptionsCache.invalidate(name);
         }
-        br.close();
-        return sb.toString();
     }
 
-    public enum ShootResult {
-        SUCCESS, FAIL_CAMERA_DISCONNECTED, FAIL_STORE_FULL, FAIL_DEVICE_BUSY
+    /**
+     * Check whether the capture mode is known to be image<p>
+     * Nothing is sent to the device. The mode button changes the fingerprint, so the mode is
+     * trusted until the fingerprint last seen by the {@link CameraStateWatcher} or by a command
+     * differs from the one the mode was confirmed with. A change not seen yet makes the device
+     * refuse the next capture with disabledCommand, which sets the mode again.
+     *
+     * @return true:Mode switch is unnecessary, false:Mode is unknown
+     */
+    private boolean isImageModeConfirmed() {
+        String fingerPrint = mFingerPrint;
+        synchronized (mCaptureModeLock) {
+            return mImageModeConfirmed && fingerPrint != null
+                    && fingerPrint.equals(mImageModeFingerPrint);
+        }
     }
 
-    private class CapturedTimerTask extends TimerTask {
-        private String mCommandId;
+    /**
+     * Acquire fingerprint that the capture mode was confirmed to be image with
+     *
+     * @return Fingerprint (null is returned if the mode is unknown)
+     */
+    private String getImageModeFingerPrint() {
+        synchronized (mCaptureModeLock) {
+            return mImageModeConfirmed ? mImageModeFingerPrint : null;
+        }
+    }
 
-        public void setCommandId(String commandId) {
-            mCommandId = commandId;
+    /**
+     * Move the confirmed capture mode past the status change made by a finished capture
+     *
+     * @param modeFingerPrint Fingerprint the mode was confirmed with when the capture was
+     * requested (null if the mode was unknown)
+     */
+    private void carryOverCaptureMode(String modeFingerPrint) {
+        if (modeFingerPrint == null) {
+            return;
+        }
+        UpdateStatus status = checkForUpdates(modeFingerPrint, 0);
+        if (status != null) {
+            carryOverCaptureMode(modeFingerPrint, status.getFingerprint());
         }
+    }
 
-        @Override
-        public void run() {
-            String capturedFileId = checkCaptureStatus(mCommandId);
-
-            if (capturedFileId != null) {
-                mHttpEventListener.onCheckStatus(true);
-                mCheckStatusTimer.cancel();
-                mHttpEventListener.onObjectChanged(capturedFileId);
-                mHttpEventListener.onCompleted();
-            } else {
-                mHttpEventListener.onCheckStatus(false);
+    /**
+     * Move the confirmed capture mode to a fingerprint produced by a command of this connector
+     *
+     * @param previousFingerPrint Fingerprint before the command
+     * @param currentFingerPrint Fingerprint after the command
+     */
+    private void carryOverCaptureMode(String previousFingerPrint, String currentFingerPrint) {
+        synchronized (mCaptureModeLock) {
+            if (mImageModeConfirmed && previousFingerPrint != null
+                    && previousFingerPrint.equals(mImageModeFingerPrint)) {
+                mImageModeFingerPrint = currentFingerPrint;
             }
         }
     }
 
     /**
-     * Status check class for file deletion
+     * Forget the capture mode so that the next command sets it again<p>
+     * Call this when the mode may have been changed outside this connector, such as by the mode
+     * button of the device.
      */
-    private class DeletedTimerTask extends TimerTask {
-        private String mDeletedFileId = null;
-
-        public void setDeletedFileId(String deletedFileId) {
-            mDeletedFileId = deletedFileId;
+    public void invalidateCaptureMode() {
+        synchronized (mCaptureModeLock) {
+            mImageModeConfirmed = false;
+            mImageModeFingerPrint = null;
         }
+    }
 
-        @Override
-        public void run() {
-            boolean update = isUpdate();
-            mHttpEventListener.onCheckStatus(update);
-            if (update) {
-                mCheckStatusTimer.cancel();
-                getState();
-                mHttpEventListener.onObjectChanged(mDeletedFileId);
-                mHttpEventListener.onCompleted();
-                mFingerPrint = null;
-            }
+    /**
+     * Acquire device status
+     *
+     * @return Device status (null is returned if acquisition fails)
+     */
+    CameraState getState() {
+        CameraState state = null;
+        InputStream is = null;
+
+        try {
+            // send HTTP POST
+            is = postCommand("/osc/state", null);
+
+            // parse JSON data
+            CameraState receivedState = new CameraState();
+            receivedState.setLatestFileUri("");
+            OscJsonReader reader = OscJsonReader.obtain(is);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(STATE_NAMES)) {
+                    case 0:
+                        receivedState.setFingerprint(reader.nextString());
+                        break;
+                    case 1:
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.selectName(STATE_FIELD_NAMES)) {
+                                case 0:
+                                    receivedState.setLatestFileUri(reader.nextString());
+                                    break;
+                                case 1:
+                                    receivedState.setBatteryLevel(reader.nextDouble());
+                                    break;
+                                case 2:
+                                    receivedState.setBatteryState(reader.nextString());
+                                    break;
+                                case 3:
+                                    receivedState.setCaptureStatus(reader.nextString());
+                                    break;
+                                default:
+                                    reader.skipValue();
+                                    break;
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            state = receivedState;
+            mFingerPrint = receivedState.getFingerprint();
+            mFingerPrintCheckedNanos = System.nanoTime();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Check for updates to device status
+     *
+     * @param fingerPrint Fingerprint of the status to compare with
+     * @return true:Update available, false:No update available
+     */
+    private boolean isUpdate(String fingerPrint) {
+        if (fingerPrint == null) {
+            return false;
+        }
+
+        UpdateStatus status = checkForUpdates(fingerPrint, 0);
+        return status != null && status.getFingerprint() != null
+                && !status.getFingerprint().equals(fingerPrint);
+    }
+
+    /**
+     * Check for updates to device status by /osc/checkForUpdates
+     *
+     * @param fingerPrint Fingerprint of the status to compare with
+     * @param waitTimeout Time the device may hold the request until the status changes (unit:
+     * seconds, 0 returns immediately)
+     * @return Result of the check (null is returned if the check fails)
+     */
+    UpdateStatus checkForUpdates(String fingerPrint, int waitTimeout) {
+        UpdateStatus status = null;
+        InputStream is = null;
+        JSONObject input = new JSONObject();
+
+        try {
+            // send HTTP POST
+            input.put("stateFingerprint", fingerPrint);
+            if (waitTimeout > 0) {
+                input.put("waitTimeout", waitTimeout);
+            }
+
+            is = postCommand("/osc/checkForUpdates", toBytes(input));
+
+            // parse JSON data
+            String currentFingerPrint = null;
+            int throttleTimeout = -1;
+            OscJsonReader reader = OscJsonReader.obtain(is);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.selectName(UPDATE_NAMES)) {
+                    case 0:
+                        currentFingerPrint = reader.nextString();
+                        break;
+                    case 1:
+                        throttleTimeout = reader.nextInt();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            if (currentFingerPrint != null) {
+                if (!currentFingerPrint.equals(fingerPrint)) {
+                    mFingerPrint = currentFingerPrint;
+                }
+                mFingerPrintCheckedNanos = System.nanoTime();
+                status = new UpdateStatus(currentFingerPrint, throttleTimeout);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (JSONException e) {
+            e.printStackTrace();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        return status;
+    }
+
+    /**
+     * Acquire watcher of device status shared by all users of this connector
+     *
+     * @return State watcher
+     */
+    public CameraStateWatcher getStateWatcher() {
+        CameraStateWatcher stateWatcher = mStateWatcher;
+        if (stateWatcher == null) {
+            synchronized (this) {
+                if (mStateWatcher == null) {
+                    mStateWatcher = new CameraStateWatcher(this);
+                }
+                stateWatcher = mStateWatcher;
+            }
+        }
+        return stateWatcher;
+    }
+
+    /**
+     * Let the state watcher check right away after a command changed the device status
+     */
+    private void requestStateCheck() {
+        CameraStateWatcher stateWatcher = mStateWatcher;
+        if (stateWatcher != null) {
+            stateWatcher.checkNow();
+        }
+    }
+
+    /**
+     * Acquire scheduler admitting requests to device by priority<p>
+     * The scheduler is shared by all connections to the same device.
+     *
+     * @return Command scheduler
+     */
+    public CommandScheduler getCommandScheduler() {
+        return mCommandScheduler;
+    }
+
+    /**
+     * Acquire cache of option values
+     *
+     * @return Options cache
+     */
+    public OptionsCache getOptionsCache() {
+        return mOptionsCache;
+    }
+
+    /**
+     * Acquire statistics of HTTP connections to device
+     *
+     * @return Statistics (connection reuse ratio and request latency)
+     */
+    public TransportStats getTransportStats() {
+        return mTransport.getStats();
+    }
+
+    /**
+     * Acquire latency histograms and counters of the commands sent to device
+     *
+     * @return Command metrics
+     */
+    public CommandMetrics getCommandMetrics() {
+        return mCommandMetrics;
+    }
+
+    /**
+     * Encode JSON data for request body
+     *
+     * @param input JSON data
+     * @return UTF-8 encoded data
+     */
+    private byte[] toBytes(JSONObject input) {
+        return input.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Send OSC command whose response is counted in the command metrics under the command name
+     *
+     * @param input JSON data holding the command name
+     * @param priority Priority class
+     * @return Stream of response body
+     * @throws IOException Failed to send the command
+     * @throws JSONException Command name is missing
+     */
+    private InputStream executeCommand(JSONObject input, Priority priority)
+            throws IOException, JSONException {
+        return postCommand("/osc/commands/execute", input.getString("name"), toBytes(input),
+                priority);
+    }
+
+    /**
+     * Send OSC API request whose response is counted in the command metrics under the path
+     *
+     * @param path Path of the API
+     * @param body Request body (null is allowed)
+     * @return Stream of response body
+     * @throws IOException Failed to send the request
+     */
+    private InputStream postCommand(String path, byte[] body) throws IOException {
+        return postCommand(path, path, body, null);
+    }
+
+    private InputStream postCommand(String path, String name, byte[] body, Priority priority)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        int sentBytes = body != null ? body.length : 0;
+        try {
+            return new CommandInputStream(name, startNanos, sentBytes,
+                    mTransport.post(path, body, priority).getInputStream(),
+                    path.equals("/osc/commands/execute"));
+        } catch (IOException e) {
+            mCommandMetrics.recordFailure(name, 0);
+            throw e;
+        }
+    }
+
+    /**
+     * Parse response of OSC command
+     *
+     * @param is Stream of response body
+     * @param resultsParser Parser of "results" (null to read the saved file URL)
+     * @return Command status
+     * @throws IOException IO error or malformed JSON
+     */
+    private CommandStatus readCommandStatus(InputStream is, ResultsParser resultsParser)
+            throws IOException {
+        CommandStatus commandStatus = new CommandStatus();
+        OscJsonReader reader = OscJsonReader.obtain(is);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.selectName(COMMAND_NAMES)) {
+                case 0:
+                    commandStatus.setState(reader.nextString());
+                    break;
+                case 1:
+                    commandStatus.setCommandId(reader.nextString());
+                    break;
+                case 2:
+                    if (resultsParser != null) {
+                        resultsParser.parse(reader);
+                    } else {
+                        readFileResults(reader, commandStatus);
+                    }
+                    break;
+                case 3:
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        switch (reader.selectName(ERROR_NAMES)) {
+                            case 0:
+                                commandStatus.setErrorCode(reader.nextString());
+                                break;
+                            case 1:
+                                commandStatus.setErrorMessage(reader.nextString());
+                                break;
+                            default:
+                                reader.skipValue();
+                                break;
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (is instanceof CommandInputStream) {
+            ((CommandInputStream) is).setCommandStatus(commandStatus);
+        }
+        return commandStatus;
+    }
+
+    /**
+     * Parse any JSON value into the types used by org.json
+     *
+     * @param reader JSON reader positioned at the value
+     * @return String, Long, Double, Boolean, JSONObject or JSONArray (null is returned for JSON
+     * null)
+     * @throws IOException IO error or malformed JSON
+     */
+    private static Object readValue(OscJsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    Object value = readValue(reader);
+                    try {
+                        object.put(name, value != null ? value : JSONObject.NULL);
+                    } catch (JSONException e) {
+                        throw new IOException(e);
+                    }
+                }
+                reader.endObject();
+                return object;
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Object value = readValue(reader);
+                    array.put(value != null ? value : JSONObject.NULL);
+                }
+                reader.endArray();
+                return array;
+            case NUMBER:
+                String number = reader.nextString();
+                if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0
+                        || number.indexOf('E') >= 0) {
+                    return Double.valueOf(number);
+                }
+                return Long.valueOf(number);
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.skipValue();
+                return null;
+            default:
+                return reader.nextString();
+        }
+    }
+
+    /**
+     * Parse "results" holding the URL of the saved file
+     *
+     * @param reader JSON reader positioned at "results"
+     * @param commandStatus Command status to be updated
+     * @throws IOException IO error or malformed JSON
+     */
+    private void readFileResults(OscJsonReader reader, CommandStatus commandStatus)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.selectName(FILE_RESULT_NAMES) >= 0) {
+                // camera.takePicture returns "fileUri", commands/status returns "fileUrl"
+                commandStatus.setFileUrl(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Parse "results" of camera.getOptions
+     *
+     * @param reader JSON reader positioned at "results"
+     * @param optionParser Parser called for each option
+     * @param optionNames Option names passed to the parser as index
+     * @throws IOException IO error or malformed JSON
+     */
+    private void readOptions(OscJsonReader reader, OptionParser optionParser,
+            String[] optionNames) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.selectName(OPTIONS_NAMES) == 0) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    optionParser.parse(reader.selectName(optionNames));
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Parse "fileFormat" option
+     *
+     * @param reader JSON reader positioned at "fileFormat"
+     * @return Image width
+     * @throws IOException IO error or malformed JSON
+     */
+    private int readWidth(OscJsonReader reader) throws IOException {
+        int width = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.selectName(FILE_FORMAT_NAMES) == 0) {
+                width = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return width;
+    }
+
+    /**
+     * Parse an entry of camera.listFiles
+     *
+     * @param reader JSON reader positioned at the entry
+     * @return Media file information
+     * @throws IOException IO error or malformed JSON
+     */
+    private ImageInfo readImageInfo(OscJsonReader reader) throws IOException {
+        ImageInfo imageInfo = new ImageInfo();
+        imageInfo.setFileFormat(ImageInfo.FILE_FORMAT_CODE_EXIF_JPEG);
+        int thumbnailLength = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.selectName(ENTRY_NAMES)) {
+                case 0:
+                    imageInfo.setFileName(reader.nextString());
+                    break;
+                case 1:
+                    imageInfo.setFileId(reader.nextString());
+                    break;
+                case 2:
+                    imageInfo.setFileSize(reader.nextLong());
+                    break;
+                case 3:
+                    imageInfo.setWidth(reader.nextInt());
+                    break;
+                case 4:
+                    imageInfo.setHeight(reader.nextInt());
+                    break;
+                case 5:
+                    reader.skipValue();
+                    imageInfo.setFileFormat(ImageInfo.FILE_FORMAT_CODE_EXIF_MPEG);
+                    break;
+                case 6:
+                    thumbnailLength = reader.nextBase64();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (thumbnailLength > 0) {
+            // the decoded bytes stay valid until the thumbnail of the next entry is read
+            byte[] thumbnailData = reader.getDecodedBytes();
+            ThumbnailCache thumbnailCache = mThumbnailCache;
+            if (thumbnailCache != null && imageInfo.getFileId() != null) {
+                imageInfo.setThumbnail(
+                        thumbnailCache.put(imageInfo.getFileId(), thumbnailData, 0,
+                                thumbnailLength));
+            } else {
+                imageInfo.setThumbnail(
+                        BitmapFactory.decodeByteArray(thumbnailData, 0, thumbnailLength));
+            }
+        }
+
+        return imageInfo;
+    }
+
+    public enum ShootResult {
+        SUCCESS, FAIL_CAMERA_DISCONNECTED, FAIL_STORE_FULL, FAIL_DEVICE_BUSY, FAIL_COMMAND_ERROR
+    }
+
+    /**
+     * Check whether the device refused a command in its current state
+     *
+     * @param commandStatus Command status
+     * @return true:Refused with disabledCommand, false:Other result
+     */
+    private static boolean isDisabledCommand(CommandStatus commandStatus) {
+        return commandStatus.isError()
+                && CommandStatus.ERROR_DISABLED_COMMAND.equals(commandStatus.getErrorCode());
+    }
+
+    /**
+     * Fail if the device answered a file or thumbnail request with an error status
+     *
+     * @param response Response
+     * @param is Response body, counted as an error in the command metrics
+     * @param fileId File ID
+     * @throws IOException The status code is not 2xx
+     */
+    private static void checkFileResponse(HttpTransport.Response response, CommandInputStream is,
+            String fileId) throws IOException {
+        if (!response.isSuccessful()) {
+            is.setErrorCode("http" + response.getStatusCode());
+            throw new IOException("Failed to download " + fileId + ": HTTP "
+                    + response.getStatusCode());
+        }
+    }
+
+    /**
+     * Acquire error code of command finished with an error
+     *
+     * @param commandStatus Command status
+     * @return OSC error code ("unknown" is returned if the device sent none)
+     */
+    private static String getErrorCode(CommandStatus commandStatus) {
+        String errorCode = commandStatus.getErrorCode();
+        return errorCode != null ? errorCode : "unknown";
+    }
+
+    /**
+     * Response body counting the command in the command metrics when closed<p>
+     * A command accepted by the device and continuing in the background is counted by its status
+     * check when it finishes, so only its bytes are counted here.
+     */
+    private class CommandInputStream extends FilterInputStream {
+        private final String mName;
+        private final long mStartNanos;
+        private final boolean mExecute;
+        private long mBytes;
+        private boolean mFailed = false;
+        private boolean mClosed = false;
+        private CommandStatus mCommandStatus = null;
+        private String mErrorCode = null;
+
+        /**
+         * Constructor
+         *
+         * @param name Command name
+         * @param startNanos Time the request was sent
+         * @param sentBytes Size of the request body
+         * @param in Response body
+         * @param execute true:Response of camera command execution, false:Other response
+         */
+        CommandInputStream(String name, long startNanos, int sentBytes, InputStream in,
+                boolean execute) {
+            super(in);
+            mName = name;
+            mStartNanos = startNanos;
+            mBytes = sentBytes;
+            mExecute = execute;
+        }
+
+        /**
+         * Set status parsed from the body
+         *
+         * @param commandStatus Command status
+         */
+        void setCommandStatus(CommandStatus commandStatus) {
+            mCommandStatus = commandStatus;
+        }
+
+        /**
+         * Set error of a response without command status
+         *
+         * @param errorCode Error code
+         */
+        void setErrorCode(String errorCode) {
+            mErrorCode = errorCode;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int value = super.read();
+                if (value >= 0) {
+                    mBytes++;
+                }
+                return value;
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int received = super.read(buffer, offset, length);
+                if (received > 0) {
+                    mBytes += received;
+                }
+                return received;
+            } catch (IOException e) {
+                mFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!mClosed) {
+                mClosed = true;
+                if (mFailed) {
+                    mCommandMetrics.recordFailure(mName, mBytes);
+                } else if (mExecute && mCommandStatus != null
+                        && mCommandStatus.isInProgress()) {
+                    mCommandMetrics.recordBytes(mName, mBytes);
+                } else {
+                    String errorCode = mCommandStatus != null && mCommandStatus.isError()
+                            ? getErrorCode(mCommandStatus) : mErrorCode;
+                    mCommandMetrics.record(mName, System.nanoTime() - mStartNanos, mBytes,
+                            errorCode);
+                }
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Event listener completing a future
+     */
+    private static class FutureEventListener implements HttpEventListener {
+        private final CompletableFuture<String> mFuture;
+        private String mFileId;
+
+        FutureEventListener(CompletableFuture<String> future) {
+            mFuture = future;
+        }
+
+        @Override
+        public void onCheckStatus(boolean newStatus) {
+            // do nothing
+        }
+
+        @Override
+        public void onObjectChanged(String latestCapturedFileId) {
+            mFileId = latestCapturedFileId;
+        }
+
+        @Override
+        public void onCompleted() {
+            mFuture.complete(mFileId);
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            mFuture.completeExceptionally(new IOException(errorMessage));
+        }
+    }
+
+    /**
+     * Parser of "results" in OSC command response
+     */
+    private interface ResultsParser {
+        void parse(OscJsonReader reader) throws IOException;
+    }
+
+    /**
+     * Parser of an option value, called with the index of the option name
+     */
+    private interface OptionParser {
+        void parse(int index) throws IOException;
+    }
+
+    /**
+     * Acquire expected time from shooting until the file is saved
+     *
+     * @return Expected latency (unit: milliseconds)
+     */
+    private long getExpectedCaptureLatencyMs() {
+        ImageSize imageSize = mImageSize;
+        if (imageSize == null) {
+            imageSize = ImageSize.IMAGE_SIZE_5376x2688;
+        }
+        synchronized (mCaptureLatencyMs) {
+            return mCaptureLatencyMs[imageSize.ordinal()];
+        }
+    }
+
+    /**
+     * Update expected capture latency with a measured one
+     *
+     * @param latencyMs Measured time from shooting until the file is saved (unit: milliseconds)
+     */
+    private void updateExpectedCaptureLatencyMs(long latencyMs) {
+        ImageSize imageSize = mImageSize;
+        if (imageSize == null) {
+            return;
+        }
+        synchronized (mCaptureLatencyMs) {
+            long expected = mCaptureLatencyMs[imageSize.ordinal()];
+            mCaptureLatencyMs[imageSize.ordinal()] =
+                    (long) (expected + (latencyMs - expected) * LATENCY_SMOOTHING);
+        }
+    }
+
+    /**
+     * Acquire typical time from shooting until the file is saved
+     *
+     * @param imageSize Shooting size
+     * @return Expected latency (unit: milliseconds)
+     */
+    private static long defaultCaptureLatencyMs(ImageSize imageSize) {
+        switch (imageSize) {
+            case IMAGE_SIZE_2048x1024:
+                return 1500;
+            case IMAGE_SIZE_5376x2688:
+                return 3000;
+            case IMAGE_SIZE_6720x3360:
+                return 4500;
+            case IMAGE_SIZE_5504x2752:
+                return 2500;
+            case IMAGE_SIZE_11008x5504:
+            default:
+                return 5000;
+        }
+    }
+
+    /**
+     * Status check class for still image shooting
+     */
+    private class CapturedStatusCheck implements CommandStatusScheduler.StatusCheck {
+        private final HttpEventListener mListener;
+        private final String mCommandId;
+        private final String mModeFingerPrint;
+        private final long mStartNanos;
+
+        CapturedStatusCheck(HttpEventListener listener, String commandId, String modeFingerPrint,
+                long startNanos) {
+            mListener = listener;
+            mCommandId = commandId;
+            mModeFingerPrint = modeFingerPrint;
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public boolean check() {
+            CommandStatus commandStatus = checkCaptureStatus(mCommandId);
+
+            if (commandStatus != null && commandStatus.isDone()) {
+                mCommandRegistry.unregister(mCommandId);
+                invalidateStorageOptions();
+                carryOverCaptureMode(mModeFingerPrint);
+                requestStateCheck();
+                long latencyNanos = System.nanoTime() - mStartNanos;
+                mCommandMetrics.record("camera.takePicture", latencyNanos, 0, null);
+                updateExpectedCaptureLatencyMs(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+                String fileUrl = commandStatus.getFileUrl();
+                prefetchCaptured(fileUrl);
+                mStatusScheduler.dispatch(() -> {
+                    mListener.onCheckStatus(true);
+                    mListener.onObjectChanged(fileUrl);
+                    mListener.onCompleted();
+                });
+                return true;
+            } else if (commandStatus != null && commandStatus.isError()) {
+                mCommandRegistry.unregister(mCommandId);
+                mCommandMetrics.record("camera.takePicture", System.nanoTime() - mStartNanos, 0,
+                        getErrorCode(commandStatus));
+                String errorMessage = commandStatus.getErrorMessage();
+                mStatusScheduler.dispatch(() -> mListener.onError(errorMessage));
+                return true;
+            } else {
+                mStatusScheduler.dispatch(() -> mListener.onCheckStatus(false));
+                return false;
+            }
+        }
+
+        @Override
+        public void onTimeout() {
+            mCommandRegistry.unregister(mCommandId);
+            mCommandMetrics.recordTimeout("camera.takePicture");
+            mListener.onError("Timed out waiting for camera.takePicture");
+        }
+
+        @Override
+        public void onCancelled() {
+            mCommandRegistry.unregister(mCommandId);
+            mListener.onError("Status check of camera.takePicture was cancelled");
+        }
+    }
+
+    /**
+     * Status check class for deletion of multiple files
+     */
+    private class BatchDeletedStatusCheck implements CommandStatusScheduler.StatusCheck {
+        // completed with the error message, or null when the deletion is reflected in the state
+        private final CompletableFuture<String> mResult = new CompletableFuture<>();
+        private final String mCommandId;
+        private final String mFingerPrint;
+        private final long mStartNanos;
+
+        BatchDeletedStatusCheck(String commandId, String fingerPrint, long startNanos) {
+            mCommandId = commandId;
+            mFingerPrint = fingerPrint;
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public boolean check() {
+            boolean update = isUpdate(mFingerPrint);
+            if (update) {
+                carryOverCaptureMode(mFingerPrint, HttpConnector.this.mFingerPrint);
+                mCommandRegistry.unregister(mCommandId);
+                mCommandMetrics.record("camera.delete", System.nanoTime() - mStartNanos, 0, null);
+                mResult.complete(null);
+            }
+            return update;
+        }
+
+        @Override
+        public void onTimeout() {
+            mCommandRegistry.unregister(mCommandId);
+            mCommandMetrics.recordTimeout("camera.delete");
+            mResult.complete("Timed out waiting for camera.delete");
+        }
+
+        @Override
+        public void onCancelled() {
+            mCommandRegistry.unregister(mCommandId);
+            mResult.complete("Status check of camera.delete was cancelled");
+        }
+    }
+
+    /**
+     * Status check class for file deletion
+     */
+    private class DeletedStatusCheck implements CommandStatusScheduler.StatusCheck {
+        private final HttpEventListener mListener;
+        private final String mCommandId;
+        private final String mDeletedFileId;
+        private final String mFingerPrint;
+        private final long mStartNanos;
+
+        DeletedStatusCheck(HttpEventListener listener, String commandId, String deletedFileId,
+                String fingerPrint, long startNanos) {
+            mListener = listener;
+            mCommandId = commandId;
+            mDeletedFileId = deletedFileId;
+            mFingerPrint = fingerPrint;
+            mStartNanos = startNanos;
+        }
+
+        @Override
+        public boolean check() {
+            boolean update = isUpdate(mFingerPrint);
+            if (update) {
+                // the change was made by the deletion, so the capture mode is still valid
+                carryOverCaptureMode(mFingerPrint, HttpConnector.this.mFingerPrint);
+                mCommandRegistry.unregister(mCommandId);
+                mCommandMetrics.record("camera.delete", System.nanoTime() - mStartNanos, 0, null);
+                invalidateStorageOptions();
+                requestStateCheck();
+                ThumbnailCache thumbnailCache = mThumbnailCache;
+                if (thumbnailCache != null) {
+                    thumbnailCache.remove(mDeletedFileId);
+                }
+                mStatusScheduler.dispatch(() -> {
+                    mListener.onCheckStatus(true);
+                    mListener.onObjectChanged(mDeletedFileId);
+                    mListener.onCompleted();
+                });
+            } else {
+                mStatusScheduler.dispatch(() -> mListener.onCheckStatus(false));
+            }
+            return update;
+        }
+
+        @Override
+        public void onTimeout() {
+            mCommandRegistry.unregister(mCommandId);
+            mCommandMetrics.recordTimeout("camera.delete");
+            mListener.onError("Timed out waiting for camera.delete");
+        }
+
+        @Override
+        public void onCancelled() {
+            mCommandRegistry.unregister(mCommandId);
+            mListener.onError("Status check of camera.delete was cancelled");
         }
     }
 }
@@ -28,4 +28,9 @@ public interface HttpDownloadListener {
      * Received byte count
      */
     void onDataReceived(int size);
+    /**
+     * Pose angles read from the head of the file, notified before the rest is received
+     */
+    default void onPoseReceived(Double pitch, Double roll, Double yaw) {
+    }
 }
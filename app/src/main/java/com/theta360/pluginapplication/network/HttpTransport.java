@@ -0,0 +1,857 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HTTP/1.1 transport keeping persistent connections to device<p>
+ * Connections are pooled per destination and reused as long as the device keeps them alive, so
+ * polling and consecutive OSC commands do not pay for a new TCP connection each time. A request
+ * is sent again over another connection only if its pooled one failed before any response byte
+ * arrived, and never for /osc/commands/execute, whose command may already have run on the device.
+ */
+public class HttpTransport {
+    private final static int CONNECT_TIMEOUT_MS = 5000;
+    private final static int READ_TIMEOUT_MS = 30000;
+    private final static int HEALTH_CHECK_TIMEOUT_MS = 1;
+    private final static String EXECUTE_PATH = "/osc/commands/execute";
+    private final static int MAX_IDLE_CONNECTIONS = 4;
+    private final static long KEEP_ALIVE_NS = 30L * 1000 * 1000 * 1000;
+    private final static int BUFFER_SIZE = 8192;
+    private final static int MAX_DRAIN_BYTES = 64 * 1024;
+    private final static byte[] EMPTY_BODY = new byte[0];
+
+    private final String mAuthority;
+    private final CommandScheduler mScheduler;
+    private final Map<String, Route> mRoutes = new ConcurrentHashMap<>();
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mReusedCount = new AtomicLong();
+    private final AtomicLong mOpenedCount = new AtomicLong();
+    private final AtomicLong mTotalLatencyNanos = new AtomicLong();
+    private final AtomicLong mMaxLatencyNanos = new AtomicLong();
+    private volatile long mLastLatencyNanos = 0;
+
+    /**
+     * Constructor
+     *
+     * @param authority Connection destination ("host:port")
+     */
+    public HttpTransport(String authority) {
+        this(authority, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param authority Connection destination ("host:port")
+     * @param scheduler Scheduler admitting requests sent with a priority (null if none)
+     */
+    public HttpTransport(String authority, CommandScheduler scheduler) {
+        mAuthority = authority;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Send JSON by HTTP POST
+     *
+     * @param path Path
+     * @param body JSON data encoded in UTF-8 (null if there is no input)
+     * @return Response (must be closed by the caller)
+     * @throws IOException IO error
+     */
+    public Response post(String path, byte[] body) throws IOException {
+        return post(path, body, null);
+    }
+
+    /**
+     * Send JSON by HTTP POST once the scheduler admits the priority class<p>
+     * The request occupies the scheduler until the response is closed.
+     *
+     * @param path Path
+     * @param body JSON data encoded in UTF-8 (null if there is no input)
+     * @param priority Priority class (null sends without waiting for the scheduler)
+     * @return Response (must be closed by the caller)
+     * @throws IOException IO error
+     */
+    public Response post(String path, byte[] body, CommandScheduler.Priority priority)
+            throws IOException {
+        return execute("POST", path, null, body != null ? body : EMPTY_BODY, priority);
+    }
+
+    /**
+     * Send HTTP GET
+     *
+     * @param pathOrUrl Path, or absolute URL such as the file URL of a media file
+     * @return Response (must be closed by the caller)
+     * @throws IOException IO error
+     */
+    public Response get(String pathOrUrl) throws IOException {
+        return get(pathOrUrl, null);
+    }
+
+    /**
+     * Send HTTP GET with additional request headers
+     *
+     * @param pathOrUrl Path, or absolute URL such as the file URL of a media file
+     * @param extraHeaders Header lines, each terminated with CRLF (null if none)
+     * @return Response (must be closed by the caller)
+     * @throws IOException IO error
+     */
+    public Response get(String pathOrUrl, String extraHeaders) throws IOException {
+        return get(pathOrUrl, extraHeaders, null);
+    }
+
+    /**
+     * Send HTTP GET once the scheduler admits the priority class<p>
+     * The request occupies the scheduler until the response is closed.
+     *
+     * @param pathOrUrl Path, or absolute URL such as the file URL of a media file
+     * @param extraHeaders Header lines, each terminated with CRLF (null if none)
+     * @param priority Priority class (null sends without waiting for the scheduler)
+     * @return Response (must be closed by the caller)
+     * @throws IOException IO error
+     */
+    public Response get(String pathOrUrl, String extraHeaders, CommandScheduler.Priority priority)
+            throws IOException {
+        return execute("GET", pathOrUrl, extraHeaders, null, priority);
+    }
+
+    /**
+     * Acquire statistics of this transport
+     *
+     * @return Statistics
+     */
+    public TransportStats getStats() {
+        return new TransportStats(mRequestCount.get(), mReusedCount.get(), mOpenedCount.get(),
+                mTotalLatencyNanos.get(), mMaxLatencyNanos.get(), mLastLatencyNanos);
+    }
+
+    /**
+     * Close body of a response without draining it<p>
+     * Unlike {@link InputStream#close()} this may be called while another thread is blocked
+     * reading the body, and the connection is closed instead of being returned to the pool.
+     *
+     * @param body Stream acquired by {@link Response#getInputStream()}
+     * @throws IOException IO error of a stream not created by this class
+     */
+    static void abort(InputStream body) throws IOException {
+        if (body instanceof BodyInputStream) {
+            ((BodyInputStream) body).abort();
+        } else {
+            body.close();
+        }
+    }
+
+    /**
+     * Close all idle connections
+     */
+    public void evictAll() {
+        for (Route route : mRoutes.values()) {
+            route.evictAll();
+        }
+    }
+
+    /**
+     * Send request and receive response header
+     *
+     * @param method Method
+     * @param pathOrUrl Path or absolute URL
+     * @param extraHeaders Additional header lines (null if none)
+     * @param body Request body (null if none)
+     * @param priority Priority class (null if the scheduler is not used)
+     * @return Response
+     * @throws IOException IO error
+     */
+    private Response execute(String method, String pathOrUrl, String extraHeaders, byte[] body,
+            CommandScheduler.Priority priority) throws IOException {
+        CommandScheduler.Permit permit = mScheduler != null && priority != null
+                ? mScheduler.acquire(priority) : null;
+        try {
+            Response response = execute(method, pathOrUrl, extraHeaders, body);
+            // the permit is released when the body is closed
+            response.mBody.mPermit = permit;
+            return response;
+        } catch (IOException | RuntimeException e) {
+            if (permit != null) {
+                permit.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Send request over a pooled or new connection and receive response header
+     */
+    private Response execute(String method, String pathOrUrl, String extraHeaders, byte[] body)
+            throws IOException {
+        String authority = mAuthority;
+        String path = pathOrUrl;
+        if (pathOrUrl.startsWith("http://")) {
+            int pathIndex = pathOrUrl.indexOf('/', "http://".length());
+            if (pathIndex < 0) {
+                authority = pathOrUrl.substring("http://".length());
+                path = "/";
+            } else {
+                authority = pathOrUrl.substring("http://".length(), pathIndex);
+                path = pathOrUrl.substring(pathIndex);
+            }
+        } else if (pathOrUrl.contains("://")) {
+            throw new IOException("Unsupported URL: " + pathOrUrl);
+        }
+
+        Route route = mRoutes.get(authority);
+        if (route == null) {
+            route = new Route(authority);
+            Route existing = mRoutes.putIfAbsent(authority, route);
+            if (existing != null) {
+                route = existing;
+            }
+        }
+
+        // a command may have been run by the device even if no response arrived
+        boolean resendable = !("POST".equals(method) && EXECUTE_PATH.equals(path));
+        while (true) {
+            Connection connection = route.acquire();
+            if (connection != null && !resendable && !connection.isHealthy()) {
+                connection.closeQuietly();
+                continue;
+            }
+            boolean reused = connection != null;
+            if (!reused) {
+                connection = new Connection(route);
+                mOpenedCount.incrementAndGet();
+            }
+
+            long startTime = System.nanoTime();
+            try {
+                connection.writeRequest(method, path, extraHeaders, body);
+                Response response = connection.readResponse(method.equals("HEAD"));
+                long latency = System.nanoTime() - startTime;
+                response.mLatencyNanos = latency;
+                response.mReused = reused;
+                recordRequest(reused, latency);
+                return response;
+            } catch (IOException e) {
+                connection.closeQuietly();
+                if (!reused || !resendable || e instanceof SocketTimeoutException
+                        || connection.hasResponseStarted()) {
+                    throw e;
+                }
+                // the device closed the pooled connection, retry with another one
+            } catch (RuntimeException e) {
+                connection.closeQuietly();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Record statistics of completed request
+     *
+     * @param reused true:Pooled connection was used, false:New connection was opened
+     * @param latency Time until the response header was received (unit: nanoseconds)
+     */
+    private void recordRequest(boolean reused, long latency) {
+        mRequestCount.incrementAndGet();
+        if (reused) {
+            mReusedCount.incrementAndGet();
+        }
+        mTotalLatencyNanos.addAndGet(latency);
+        mLastLatencyNanos = latency;
+        long max = mMaxLatencyNanos.get();
+        while (latency > max && !mMaxLatencyNanos.compareAndSet(max, latency)) {
+            max = mMaxLatencyNanos.get();
+        }
+    }
+
+    /**
+     * HTTP response
+     */
+    public static class Response implements Closeable {
+        private final int mStatusCode;
+        private final Map<String, String> mHeaders;
+        private final BodyInputStream mBody;
+        private long mLatencyNanos;
+        private boolean mReused;
+
+        private Response(int statusCode, Map<String, String> headers, BodyInputStream body) {
+            mStatusCode = statusCode;
+            mHeaders = headers;
+            mBody = body;
+        }
+
+        /**
+         * Acquire HTTP status code
+         * @return Status code
+         */
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        /**
+         * Check whether the status code is 2xx
+         * @return true:Successful, false:Error
+         */
+        public boolean isSuccessful() {
+            return mStatusCode >= 200 && mStatusCode < 300;
+        }
+
+        /**
+         * Acquire response header
+         * @param name Header name (case insensitive)
+         * @return Header value (null is returned if the header is not present)
+         */
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+
+        /**
+         * Acquire length of response body
+         * @return Content length (-1 is returned if unknown)
+         */
+        public long getContentLength() {
+            String contentLength = getHeader("Content-Length");
+            if (contentLength == null) {
+                return -1;
+            }
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Acquire stream of response body<p>
+         * Closing the stream returns the connection to the pool once the body has been read.
+         * @return Stream for receiving data
+         */
+        public InputStream getInputStream() {
+            return mBody;
+        }
+
+        /**
+         * Acquire time from sending the request to receiving the response header
+         * @return Latency (unit: nanoseconds)
+         */
+        public long getLatencyNanos() {
+            return mLatencyNanos;
+        }
+
+        /**
+         * Check whether the request was sent over a pooled connection
+         * @return true:Reused, false:New connection
+         */
+        public boolean isReused() {
+            return mReused;
+        }
+
+        @Override
+        public void close() {
+            mBody.close();
+        }
+    }
+
+    /**
+     * Connection pool of a destination
+     */
+    private class Route {
+        private final String mHost;
+        private final int mPort;
+        private final byte[] mHeaders;
+        private final ArrayDeque<Connection> mIdleConnections = new ArrayDeque<>();
+
+        Route(String authority) {
+            int portIndex = authority.lastIndexOf(':');
+            if (portIndex < 0) {
+                mHost = authority;
+                mPort = 80;
+            } else {
+                mHost = authority.substring(0, portIndex);
+                mPort = Integer.parseInt(authority.substring(portIndex + 1));
+            }
+            // header lines common to every request, built once per destination
+            mHeaders = ("Host: " + authority + "\r\n"
+                    + "Accept: application/json\r\n"
+                    + "Connection: keep-alive\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        /**
+         * Take out an idle connection
+         * @return Connection (null is returned if there is no live connection)
+         */
+        synchronized Connection acquire() {
+            long now = System.nanoTime();
+            Connection connection;
+            while ((connection = mIdleConnections.pollFirst()) != null) {
+                if (now - connection.mIdleSince < KEEP_ALIVE_NS && !connection.mSocket.isClosed()) {
+                    return connection;
+                }
+                connection.closeQuietly();
+            }
+            return null;
+        }
+
+        /**
+         * Return connection to the pool
+         * @param connection Connection whose response has been fully read
+         */
+        synchronized void release(Connection connection) {
+            if (mIdleConnections.size() >= MAX_IDLE_CONNECTIONS) {
+                connection.closeQuietly();
+                return;
+            }
+            connection.mIdleSince = System.nanoTime();
+            mIdleConnections.addFirst(connection);
+        }
+
+        synchronized void evictAll() {
+            Connection connection;
+            while ((connection = mIdleConnections.pollFirst()) != null) {
+                connection.closeQuietly();
+            }
+        }
+    }
+
+    /**
+     * Persistent connection
+     */
+    private class Connection {
+        private final Route mRoute;
+        private final Socket mSocket;
+        private final InputStream mIn;
+        private final OutputStream mOut;
+        private byte[] mLineBuffer = new byte[256];
+        private long mIdleSince;
+        private boolean mResponseStarted;
+
+        Connection(Route route) throws IOException {
+            mRoute = route;
+            mSocket = new Socket();
+            try {
+                mSocket.setTcpNoDelay(true);
+                mSocket.setKeepAlive(true);
+                mSocket.connect(new InetSocketAddress(route.mHost, route.mPort), CONNECT_TIMEOUT_MS);
+                mSocket.setSoTimeout(READ_TIMEOUT_MS);
+                mIn = new BufferedInputStream(mSocket.getInputStream(), BUFFER_SIZE);
+                mOut = new BufferedOutputStream(mSocket.getOutputStream(), BUFFER_SIZE);
+            } catch (IOException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+
+        /**
+         * Write request line, headers and body
+         */
+        void writeRequest(String method, String path, String extraHeaders, byte[] body)
+                throws IOException {
+            mResponseStarted = false;
+            writeAscii(method);
+            mOut.write(' ');
+            writeAscii(path);
+            writeAscii(" HTTP/1.1\r\n");
+            mOut.write(mRoute.mHeaders);
+            if (extraHeaders != null) {
+                writeAscii(extraHeaders);
+            }
+            if (body != null) {
+                writeAscii("Content-Type: application/json;charset=utf-8\r\nContent-Length: ");
+                writeAscii(Integer.toString(body.length));
+                writeAscii("\r\n\r\n");
+                mOut.write(body);
+            } else {
+                writeAscii("\r\n");
+            }
+            mOut.flush();
+        }
+
+        /**
+         * Read status line and headers
+         *
+         * @param headRequest true:Response has no body
+         * @return Response
+         */
+        Response readResponse(boolean headRequest) throws IOException {
+            int statusCode;
+            boolean http11;
+            Map<String, String> headers = new HashMap<>();
+            do {
+                int length = readLine();
+                if (length < 12 || mLineBuffer[0] != 'H') {
+                    throw new IOException("Unexpected status line");
+                }
+                http11 = mLineBuffer[7] == '1';
+                statusCode = (mLineBuffer[9] - '0') * 100 + (mLineBuffer[10] - '0') * 10
+                        + (mLineBuffer[11] - '0');
+                headers.clear();
+                while ((length = readLine()) > 0) {
+                    int colon = indexOf(mLineBuffer, length, (byte) ':');
+                    if (colon > 0) {
+                        String name = new String(mLineBuffer, 0, colon, StandardCharsets.ISO_8859_1)
+                                .toLowerCase(Locale.US);
+                        String value = new String(mLineBuffer, colon + 1, length - colon - 1,
+                                StandardCharsets.ISO_8859_1).trim();
+                        headers.put(name, value);
+                    }
+                }
+            } while (statusCode == 100);
+
+            String connectionHeader = headers.get("connection");
+            boolean keepAlive = http11 ? !"close".equalsIgnoreCase(connectionHeader)
+                    : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+            BodyInputStream body;
+            String contentLength = headers.get("content-length");
+            if (headRequest || statusCode == 204 || statusCode == 304) {
+                body = new FixedLengthInputStream(this, keepAlive, 0);
+            } else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+                body = new ChunkedInputStream(this, keepAlive);
+            } else if (contentLength != null) {
+                body = new FixedLengthInputStream(this, keepAlive,
+                        parseContentLength(contentLength));
+            } else {
+                body = new UntilCloseInputStream(this);
+            }
+            return new Response(statusCode, headers, body);
+        }
+
+        /**
+         * Parse Content-Length header of response
+         *
+         * @param contentLength Header value
+         * @return Length of the body
+         * @throws IOException The value is not a length
+         */
+        private long parseContentLength(String contentLength) throws IOException {
+            try {
+                long length = Long.parseLong(contentLength.trim());
+                if (length >= 0) {
+                    return length;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IOException("Invalid Content-Length: " + contentLength);
+        }
+
+        /**
+         * Read a line terminated with CRLF into the line buffer
+         * @return Length of the line excluding CRLF
+         */
+        int readLine() throws IOException {
+            int length = 0;
+            while (true) {
+                int data = mIn.read();
+                if (data < 0) {
+                    throw new EOFException("Connection closed by device");
+                }
+                mResponseStarted = true;
+                if (data == '\n') {
+                    if (length > 0 && mLineBuffer[length - 1] == '\r') {
+                        length--;
+                    }
+                    return length;
+                }
+                if (length == mLineBuffer.length) {
+                    byte[] buffer = new byte[mLineBuffer.length * 2];
+                    System.arraycopy(mLineBuffer, 0, buffer, 0, length);
+                    mLineBuffer = buffer;
+                }
+                mLineBuffer[length++] = (byte) data;
+            }
+        }
+
+        /**
+         * Check whether any byte of the response to the last request has been received
+         * @return true:Received, false:Nothing received
+         */
+        boolean hasResponseStarted() {
+            return mResponseStarted;
+        }
+
+        /**
+         * Check whether the idle connection is still open on the device side<p>
+         * The check waits {@link HttpTransport#HEALTH_CHECK_TIMEOUT_MS} for data, so it is only
+         * used before requests that cannot be sent again.
+         * @return true:Usable, false:Closed by the device or holding unexpected data
+         */
+        boolean isHealthy() {
+            try {
+                if (mIn.available() > 0) {
+                    return false;
+                }
+                mSocket.setSoTimeout(HEALTH_CHECK_TIMEOUT_MS);
+                try {
+                    // data or EOF before a request means the connection is unusable
+                    mIn.read();
+                    return false;
+                } finally {
+                    mSocket.setSoTimeout(READ_TIMEOUT_MS);
+                }
+            } catch (SocketTimeoutException e) {
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void writeAscii(String text) throws IOException {
+            int length = text.length();
+            for (int index = 0; index < length; index++) {
+                mOut.write(text.charAt(index));
+            }
+        }
+
+        void release() {
+            mRoute.release(this);
+        }
+
+        void closeQuietly() {
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, int length, byte target) {
+        for (int index = 0; index < length; index++) {
+            if (data[index] == target) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stream of response body<p>
+     * The connection is returned to the pool when the body is closed after being fully read.
+     */
+    private abstract static class BodyInputStream extends InputStream {
+        protected final Connection mConnection;
+        protected final InputStream mIn;
+        private final boolean mReusable;
+        private final byte[] mSingleByte = new byte[1];
+        private final AtomicBoolean mClosed = new AtomicBoolean(false);
+        private CommandScheduler.Permit mPermit = null;
+
+        BodyInputStream(Connection connection, boolean reusable) {
+            mConnection = connection;
+            mIn = connection.mIn;
+            mReusable = reusable;
+        }
+
+        /**
+         * Check whether the whole body has been read
+         * @return true:Completed, false:Data remains
+         */
+        abstract boolean isExhausted();
+
+        @Override
+        public int read() throws IOException {
+            int length = read(mSingleByte, 0, 1);
+            return length < 0 ? -1 : mSingleByte[0] & 0xff;
+        }
+
+        @Override
+        public void close() {
+            if (!mClosed.compareAndSet(false, true)) {
+                return;
+            }
+            if (mReusable && drain()) {
+                mConnection.release();
+            } else {
+                mConnection.closeQuietly();
+            }
+            if (mPermit != null) {
+                mPermit.close();
+            }
+        }
+
+        /**
+         * Close the socket without reading the rest of the body, so that a blocked read fails
+         */
+        void abort() {
+            if (!mClosed.compareAndSet(false, true)) {
+                return;
+            }
+            mConnection.closeQuietly();
+            if (mPermit != null) {
+                mPermit.close();
+            }
+        }
+
+        /**
+         * Discard small amount of unread data so that the connection can be reused
+         * @return true:Body completely read, false:Connection cannot be reused
+         */
+        private boolean drain() {
+            if (isExhausted()) {
+                return true;
+            }
+            try {
+                byte[] buffer = new byte[1024];
+                int drained = 0;
+                int length;
+                while (drained < MAX_DRAIN_BYTES && (length = read(buffer, 0, buffer.length)) >= 0) {
+                    drained += length;
+                }
+                return isExhausted();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private static class FixedLengthInputStream extends BodyInputStream {
+        private long mRemaining;
+
+        FixedLengthInputStream(Connection connection, boolean reusable, long length) {
+            super(connection, reusable);
+            mRemaining = length;
+        }
+
+        @Override
+        boolean isExhausted() {
+            return mRemaining == 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            int read = mIn.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of response body");
+            }
+            mRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(mIn.available(), mRemaining);
+        }
+    }
+
+    private static class ChunkedInputStream extends BodyInputStream {
+        private long mChunkRemaining = 0;
+        private boolean mFirstChunk = true;
+        private boolean mLastChunk = false;
+
+        ChunkedInputStream(Connection connection, boolean reusable) {
+            super(connection, reusable);
+        }
+
+        @Override
+        boolean isExhausted() {
+            return mLastChunk;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mLastChunk) {
+                return -1;
+            }
+            if (mChunkRemaining == 0) {
+                readChunkSize();
+                if (mLastChunk) {
+                    return -1;
+                }
+            }
+            int read = mIn.read(buffer, offset, (int) Math.min(length, mChunkRemaining));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of chunked body");
+            }
+            mChunkRemaining -= read;
+            return read;
+        }
+
+        private void readChunkSize() throws IOException {
+            if (!mFirstChunk) {
+                // CRLF that terminates the previous chunk
+                mConnection.readLine();
+            }
+            mFirstChunk = false;
+            int length = mConnection.readLine();
+            byte[] line = mConnection.mLineBuffer;
+            long size = 0;
+            for (int index = 0; index < length; index++) {
+                int digit = Character.digit(line[index], 16);
+                if (digit < 0) {
+                    break;
+                }
+                size = size * 16 + digit;
+            }
+            mChunkRemaining = size;
+            if (size == 0) {
+                // skip trailers
+                while (mConnection.readLine() > 0) {
+                    // do nothing
+                }
+                mLastChunk = true;
+            }
+        }
+    }
+
+    private static class UntilCloseInputStream extends BodyInputStream {
+        private boolean mEnded = false;
+
+        UntilCloseInputStream(Connection connection) {
+            super(connection, false);
+        }
+
+        @Override
+        boolean isExhausted() {
+            return mEnded;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mEnded) {
+                return -1;
+            }
+            int read = mIn.read(buffer, offset, length);
+            if (read < 0) {
+                mEnded = true;
+            }
+            return read;
+        }
+    }
+}
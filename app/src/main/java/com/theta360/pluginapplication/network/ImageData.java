@@ -16,18 +16,27 @@
 
 package com.theta360.pluginapplication.network;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
 /**
- * Image data class
+ * Image data class<p>
+ * The data is held either in memory or in a file the image was downloaded to.
  */
 public class ImageData {
     private byte[] mRawData;
+    private File mFile;
+    private ByteBuffer mMappedData;
     private Double pitch = 0.0d;
     private Double roll = 0.0d;
     private Double yaw = 0.0d;
 
     /**
      * Acquire raw data of image
-     * @return Raw data of image
+     * @return Raw data of image (null is returned if the image is held in a file)
      */
     public byte[] getRawData() {
         return mRawData;
@@ -41,6 +50,56 @@ public class ImageData {
         mRawData = rawData;
     }
 
+    /**
+     * Acquire file holding the image
+     * @return File (null is returned if the image is held in memory)
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Set file holding the image
+     * @param file File
+     */
+    public void setFile(File file) {
+        mFile = file;
+        mMappedData = null;
+    }
+
+    /**
+     * Acquire image data without copying it<p>
+     * Data held in a file is memory mapped on the first call.
+     * @return Read-only buffer of image (null is returned if there is no data)
+     * @throws IOException Failed to map the file
+     */
+    public synchronized ByteBuffer getBuffer() throws IOException {
+        if (mRawData != null) {
+            return ByteBuffer.wrap(mRawData).asReadOnlyBuffer();
+        }
+        if (mFile == null) {
+            return null;
+        }
+        if (mMappedData == null) {
+            try (RandomAccessFile file = new RandomAccessFile(mFile, "r");
+                    FileChannel channel = file.getChannel()) {
+                mMappedData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        return mMappedData.duplicate();
+    }
+
+    /**
+     * Acquire size of image data
+     * @return Size (unit: bytes)
+     */
+    public long getSize() {
+        if (mRawData != null) {
+            return mRawData.length;
+        }
+        return mFile != null ? mFile.length() : 0;
+    }
+
     /**
      * Acquire pitch angle
      * @return Pitch angle
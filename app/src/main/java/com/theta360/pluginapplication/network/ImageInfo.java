@@ -16,6 +16,8 @@
 
 package com.theta360.pluginapplication.network;
 
+import android.graphics.Bitmap;
+
 /**
  * Information class of media file
  */
@@ -30,6 +32,7 @@ public class ImageInfo {
     private String mFileFormat;
     private int mWidth;
     private int mHeight;
+    private Bitmap mThumbnail;
 
     /**
      * Acquire file name
@@ -143,4 +146,20 @@ public class ImageInfo {
     public void setHeight(int height) {
         mHeight = height;
     }
+
+    /**
+     * Acquire thumbnail embedded in the file list
+     * @return Thumbnail (null is returned if the list was acquired without thumbnails)
+     */
+    public Bitmap getThumbnail() {
+        return mThumbnail;
+    }
+
+    /**
+     * Set thumbnail
+     * @param thumbnail Thumbnail
+     */
+    public void setThumbnail(Bitmap thumbnail) {
+        mThumbnail = thumbnail;
+    }
 }
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies with bounded relative error<p>
+ * Values are counted in microseconds in buckets whose width doubles with each power of two, and
+ * each power of two is split into {@link LatencyHistogram#HALF_SUB_BUCKET_COUNT} sub-buckets, so
+ * a value is reported within about 3% of its recorded value. The counts are held in one array
+ * allocated with the histogram, and recording allocates nothing.
+ */
+final class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 6;
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    // values up to 2^(MAX_EXPONENT + SUB_BUCKET_BITS) microseconds (about 76 hours) are kept apart
+    private final static int MAX_EXPONENT = 32;
+    private final static int BUCKET_COUNT = SUB_BUCKET_COUNT + MAX_EXPONENT * HALF_SUB_BUCKET_COUNT;
+
+    private final long[] mCounts;
+    private long mTotalCount = 0;
+    private long mTotalMicros = 0;
+    private long mMaxMicros = 0;
+
+    LatencyHistogram() {
+        mCounts = new long[BUCKET_COUNT];
+    }
+
+    private LatencyHistogram(LatencyHistogram source) {
+        mCounts = source.mCounts.clone();
+        mTotalCount = source.mTotalCount;
+        mTotalMicros = source.mTotalMicros;
+        mMaxMicros = source.mMaxMicros;
+    }
+
+    /**
+     * Count latency
+     *
+     * @param latencyNanos Latency (unit: nanoseconds)
+     */
+    void record(long latencyNanos) {
+        long micros = Math.max(0, latencyNanos / 1000);
+        mCounts[indexOf(micros)]++;
+        mTotalCount++;
+        mTotalMicros += micros;
+        mMaxMicros = Math.max(mMaxMicros, micros);
+    }
+
+    /**
+     * Acquire copy of the histogram
+     *
+     * @return Histogram
+     */
+    LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /**
+     * Clear all counts
+     */
+    void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mTotalMicros = 0;
+        mMaxMicros = 0;
+    }
+
+    /**
+     * Acquire number of latencies counted
+     *
+     * @return Number of latencies
+     */
+    long getTotalCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * Acquire average latency
+     *
+     * @return Average latency (unit: microseconds)
+     */
+    double getMeanMicros() {
+        if (mTotalCount == 0) {
+            return 0.0d;
+        }
+        return (double) mTotalMicros / mTotalCount;
+    }
+
+    /**
+     * Acquire maximum latency
+     *
+     * @return Maximum latency (unit: microseconds)
+     */
+    long getMaxMicros() {
+        return mMaxMicros;
+    }
+
+    /**
+     * Acquire latency below which the given percentage of latencies fall
+     *
+     * @param percentile Percentage (value between 0 and 100)
+     * @return Latency (unit: microseconds, "0" is returned if nothing is counted)
+     */
+    long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0d) / 100.0d
+                * mTotalCount));
+        long count = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            count += mCounts[index];
+            if (count >= rank) {
+                return Math.min(valueOf(index), mMaxMicros);
+            }
+        }
+        return mMaxMicros;
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        // shift the value so that it falls in the upper half of the sub-buckets
+        int exponent = 63 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS - 1);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        return SUB_BUCKET_COUNT + (exponent - 1) * HALF_SUB_BUCKET_COUNT
+                + (int) (micros >>> exponent) - HALF_SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Acquire middle value of bucket
+     */
+    private static long valueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return (subBucket << exponent) + (1L << (exponent - 1));
+    }
+}
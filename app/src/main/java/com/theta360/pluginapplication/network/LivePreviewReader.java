@@ -0,0 +1,508 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import android.graphics.Bitmap;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reader splitting the live preview stream into JPEG frames<p>
+ * The multipart MJPEG stream is read into a ring of reusable frame buffers. A frame starts at the
+ * SOI marker and the marker segments are followed by their lengths up to the EOI marker, so
+ * boundaries and part headers between frames are skipped without being parsed. Frames are decoded
+ * into bitmaps recycled through a {@link BitmapPool}.<p>
+ * In latest-frame-wins mode the stream is read by a background thread, and a frame that is
+ * replaced by a newer one before it is consumed is dropped, so a slow consumer always receives the
+ * newest frame instead of building up latency.
+ */
+public class LivePreviewReader implements Closeable {
+    private final static int RING_SIZE = 3;
+    private final static int READ_BUFFER_SIZE = 16 * 1024;
+    private final static int INITIAL_FRAME_CAPACITY = 128 * 1024;
+    private final static int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+    private final static double FRAME_RATE_SMOOTHING = 0.1d;
+
+    private final static int MARKER_STUFFING = 0x00;
+    private final static int MARKER_TEM = 0x01;
+    private final static int MARKER_RST0 = 0xD0;
+    private final static int MARKER_RST7 = 0xD7;
+    private final static int MARKER_SOI = 0xD8;
+    private final static int MARKER_EOI = 0xD9;
+    private final static int MARKER_SOS = 0xDA;
+
+    private final InputStream mIn;
+    private final BitmapPool mBitmapPool;
+    private final boolean mLatestFrameWins;
+    private final byte[] mReadBuffer = new byte[READ_BUFFER_SIZE];
+    private int mPosition = 0;
+    private int mLimit = 0;
+
+    private final Frame[] mRing = new Frame[RING_SIZE];
+    private int mNextIndex = 0;
+    private Bitmap mLastBitmap = null;
+
+    private final Object mLock = new Object();
+    // frame published by the background thread and not yet consumed
+    private Frame mLatest = null;
+    // frame returned to the consumer by the last call of nextFrame()
+    private Frame mHeld = null;
+    private IOException mError = null;
+    private boolean mEnded = false;
+    private volatile boolean mClosed = false;
+
+    private long mFrameCount = 0;
+    private long mDroppedCount = 0;
+    private long mDecodedCount = 0;
+    private long mTotalFrameBytes = 0;
+    private int mLastFrameSize = 0;
+    private long mLastFrameNanos = 0;
+    private double mFrameIntervalNanos = 0.0d;
+    private long mTotalDecodeNanos = 0;
+    private long mMaxDecodeNanos = 0;
+
+    /**
+     * JPEG frame of live preview
+     */
+    public static final class Frame {
+        private byte[] mData = new byte[INITIAL_FRAME_CAPACITY];
+        private int mLength;
+        private long mSequence;
+        private long mTimestampNanos;
+
+        /**
+         * Acquire buffer holding the JPEG data
+         * @return Buffer (only the first {@link #getLength()} bytes are valid)
+         */
+        public byte[] getData() {
+            return mData;
+        }
+
+        /**
+         * Acquire length of the JPEG data
+         * @return Length (unit: bytes)
+         */
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * Acquire sequence number of the frame in the stream
+         * @return Sequence number starting from 0
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * Acquire time the frame was received
+         * @return Time of {@link System#nanoTime()}
+         */
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        private void append(int value) throws IOException {
+            ensureCapacity(mLength + 1);
+            mData[mLength++] = (byte) value;
+        }
+
+        private void append(byte[] data, int offset, int length) throws IOException {
+            ensureCapacity(mLength + length);
+            System.arraycopy(data, offset, mData, mLength, length);
+            mLength += length;
+        }
+
+        private void ensureCapacity(int capacity) throws IOException {
+            if (capacity <= mData.length) {
+                return;
+            }
+            if (capacity > MAX_FRAME_SIZE) {
+                throw new IOException("Live preview frame exceeds " + MAX_FRAME_SIZE + " bytes");
+            }
+            byte[] data = new byte[Math.min(Math.max(capacity, mData.length * 2), MAX_FRAME_SIZE)];
+            System.arraycopy(mData, 0, data, 0, mLength);
+            mData = data;
+        }
+    }
+
+    /**
+     * Constructor<p>
+     * In latest-frame-wins mode the background thread starts reading immediately.
+     *
+     * @param in Stream of live preview acquired by {@link HttpConnector#getLivePreview()}
+     * @param bitmapPool Pool of bitmaps frames are decoded into
+     * @param latestFrameWins true:Drop frames not consumed in time, false:Return every frame
+     */
+    public LivePreviewReader(InputStream in, BitmapPool bitmapPool, boolean latestFrameWins) {
+        mIn = in;
+        mBitmapPool = bitmapPool;
+        mLatestFrameWins = latestFrameWins;
+        for (int index = 0; index < RING_SIZE; index++) {
+            mRing[index] = new Frame();
+        }
+
+        if (latestFrameWins) {
+            Thread thread = new Thread(this::runReader, "LivePreviewReader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Acquire next JPEG frame<p>
+     * The frame buffer is reused, so the frame is valid until the next call.
+     *
+     * @return Frame (null is returned at the end of the stream)
+     * @throws IOException IO error of the stream
+     */
+    public Frame nextFrame() throws IOException {
+        if (!mLatestFrameWins) {
+            Frame frame = mRing[mNextIndex];
+            mNextIndex = (mNextIndex + 1) % RING_SIZE;
+            if (!readFrame(frame)) {
+                return null;
+            }
+            synchronized (mLock) {
+                recordFrame(frame);
+            }
+            return frame;
+        }
+
+        synchronized (mLock) {
+            mHeld = null;
+            while (mLatest == null && mError == null && !mEnded && !mClosed) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for live preview");
+                }
+            }
+            if (mLatest == null) {
+                if (mError != null) {
+                    throw mError;
+                }
+                return null;
+            }
+            mHeld = mLatest;
+            mLatest = null;
+            return mHeld;
+        }
+    }
+
+    /**
+     * Acquire next frame decoded into a bitmap<p>
+     * The bitmap returned by the previous call is recycled for this decode, so finish drawing it
+     * before calling again. Frames that cannot be decoded are skipped.
+     *
+     * @return Bitmap (null is returned at the end of the stream)
+     * @throws IOException IO error of the stream
+     */
+    public Bitmap nextBitmap() throws IOException {
+        while (true) {
+            Frame frame = nextFrame();
+            if (frame == null) {
+                return null;
+            }
+
+            long startNanos = System.nanoTime();
+            if (mLastBitmap != null) {
+                mBitmapPool.put(mLastBitmap);
+                mLastBitmap = null;
+            }
+            Bitmap bitmap = mBitmapPool.decode(frame.mData, 0, frame.mLength);
+            long decodeNanos = System.nanoTime() - startNanos;
+            synchronized (mLock) {
+                mDecodedCount++;
+                mTotalDecodeNanos += decodeNanos;
+                mMaxDecodeNanos = Math.max(mMaxDecodeNanos, decodeNanos);
+            }
+
+            if (bitmap != null) {
+                mLastBitmap = bitmap;
+                return bitmap;
+            }
+        }
+    }
+
+    /**
+     * Acquire statistics of frames received and decoded
+     *
+     * @return Statistics
+     */
+    public LivePreviewStats getStats() {
+        synchronized (mLock) {
+            double frameRate =
+                    mFrameIntervalNanos > 0.0d ? 1000000000.0d / mFrameIntervalNanos : 0.0d;
+            return new LivePreviewStats(mFrameCount, mDroppedCount, mDecodedCount,
+                    mTotalFrameBytes, mLastFrameSize, frameRate, mTotalDecodeNanos,
+                    mMaxDecodeNanos);
+        }
+    }
+
+    /**
+     * Stop reading and close the stream<p>
+     * A read in progress on another thread fails instead of being raced, and the connection of
+     * the stream is closed without being drained or returned to the pool.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        try {
+            HttpTransport.abort(mIn);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (mLock) {
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Read frames into free buffers of the ring until the end of the stream
+     */
+    private void runReader() {
+        try {
+            while (!mClosed) {
+                Frame frame;
+                synchronized (mLock) {
+                    frame = takeFreeFrame();
+                }
+                if (!readFrame(frame)) {
+                    break;
+                }
+                synchronized (mLock) {
+                    if (mLatest != null) {
+                        mDroppedCount++;
+                    }
+                    recordFrame(frame);
+                    mLatest = frame;
+                    mLock.notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            if (!mClosed) {
+                e.printStackTrace();
+                synchronized (mLock) {
+                    mError = e;
+                }
+            }
+        } finally {
+            // the reader thread owns the stream, so only it closes the stream normally
+            try {
+                mIn.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            synchronized (mLock) {
+                mEnded = true;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Take buffer that is neither the latest frame nor the frame held by the consumer
+     */
+    private Frame takeFreeFrame() {
+        for (Frame frame : mRing) {
+            if (frame != mLatest && frame != mHeld) {
+                return frame;
+            }
+        }
+        throw new IllegalStateException("No free live preview buffer");
+    }
+
+    private void recordFrame(Frame frame) {
+        long now = System.nanoTime();
+        frame.mSequence = mFrameCount++;
+        frame.mTimestampNanos = now;
+        mTotalFrameBytes += frame.mLength;
+        mLastFrameSize = frame.mLength;
+        if (mLastFrameNanos != 0) {
+            long interval = now - mLastFrameNanos;
+            if (mFrameIntervalNanos == 0.0d) {
+                mFrameIntervalNanos = interval;
+            } else {
+                mFrameIntervalNanos += (interval - mFrameIntervalNanos) * FRAME_RATE_SMOOTHING;
+            }
+        }
+        mLastFrameNanos = now;
+    }
+
+    /**
+     * Read next JPEG frame into buffer
+     *
+     * @return true:Frame was read, false:End of the stream before the next frame
+     */
+    private boolean readFrame(Frame frame) throws IOException {
+        while (true) {
+            // skip the boundary and part headers up to the SOI marker
+            int previous = 0;
+            while (true) {
+                int c = read();
+                if (c < 0) {
+                    return false;
+                }
+                if (previous == 0xFF && c == MARKER_SOI) {
+                    break;
+                }
+                previous = c;
+            }
+
+            frame.mLength = 0;
+            frame.append(0xFF);
+            frame.append(MARKER_SOI);
+            if (readImage(frame)) {
+                return true;
+            }
+            // malformed frame, resynchronize at the next SOI marker
+        }
+    }
+
+    /**
+     * Read marker segments following the SOI marker up to the EOI marker
+     *
+     * @return true:EOI marker was reached, false:Data is not a JPEG image
+     */
+    private boolean readImage(Frame frame) throws IOException {
+        int marker = -1;
+        while (true) {
+            if (marker < 0) {
+                if (readRequired() != 0xFF) {
+                    return false;
+                }
+                marker = readMarker();
+                frame.append(0xFF);
+                frame.append(marker);
+            }
+
+            if (marker == MARKER_EOI) {
+                return true;
+            } else if (marker == MARKER_SOI) {
+                // the previous frame was truncated, start over with this one
+                frame.mLength = 0;
+                frame.append(0xFF);
+                frame.append(MARKER_SOI);
+                marker = -1;
+                continue;
+            } else if (marker == MARKER_TEM || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+                marker = -1;
+                continue;
+            }
+
+            int high = readRequired();
+            int low = readRequired();
+            int length = (high << 8) | low;
+            if (length < 2) {
+                return false;
+            }
+            frame.append(high);
+            frame.append(low);
+            copy(frame, length - 2);
+
+            marker = marker == MARKER_SOS ? copyEntropyCodedData(frame) : -1;
+        }
+    }
+
+    /**
+     * Copy entropy-coded data following SOS up to the next marker other than RSTn
+     *
+     * @return Marker that ended the data
+     */
+    private int copyEntropyCodedData(Frame frame) throws IOException {
+        while (true) {
+            if (mPosition == mLimit && !fill()) {
+                throw new EOFException("Unexpected end of live preview frame");
+            }
+
+            // copy up to the next 0xFF in one block
+            int start = mPosition;
+            int index = start;
+            while (index < mLimit && mReadBuffer[index] != (byte) 0xFF) {
+                index++;
+            }
+            frame.append(mReadBuffer, start, index - start);
+            mPosition = index;
+            if (index == mLimit) {
+                continue;
+            }
+
+            mPosition++;
+            int marker = readMarker();
+            frame.append(0xFF);
+            frame.append(marker);
+            if (marker != MARKER_STUFFING && (marker < MARKER_RST0 || marker > MARKER_RST7)) {
+                return marker;
+            }
+        }
+    }
+
+    /**
+     * Read marker type following 0xFF, skipping fill bytes
+     */
+    private int readMarker() throws IOException {
+        int marker = readRequired();
+        while (marker == 0xFF) {
+            marker = readRequired();
+        }
+        return marker;
+    }
+
+    private void copy(Frame frame, int length) throws IOException {
+        while (length > 0) {
+            if (mPosition == mLimit && !fill()) {
+                throw new EOFException("Unexpected end of live preview frame");
+            }
+            int size = Math.min(length, mLimit - mPosition);
+            frame.append(mReadBuffer, mPosition, size);
+            mPosition += size;
+            length -= size;
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mReadBuffer[mPosition++] & 0xFF;
+    }
+
+    private int readRequired() throws IOException {
+        int c = read();
+        if (c < 0) {
+            throw new EOFException("Unexpected end of live preview frame");
+        }
+        return c;
+    }
+
+    private boolean fill() throws IOException {
+        int length = mIn.read(mReadBuffer, 0, mReadBuffer.length);
+        if (length <= 0) {
+            mPosition = 0;
+            mLimit = 0;
+            return false;
+        }
+        mPosition = 0;
+        mLimit = length;
+        return true;
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP server rebroadcasting live preview to multiple clients<p>
+ * The camera supports a single live preview stream, so this server holds one stream acquired by
+ * {@link HttpConnector#openLivePreview(boolean)} while any client is connected and sends its
+ * frames to every client as multipart MJPEG. Each frame is copied once into a shared, reference
+ * counted buffer together with its part header, and every client writes that same buffer. A
+ * client keeps at most one pending frame, so a client that cannot keep up skips frames instead of
+ * delaying the others.
+ */
+public class LivePreviewServer implements Closeable {
+    private final static String BOUNDARY = "thetaLivePreview";
+    private final static byte[] PART_TRAILER = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final static int MAX_REQUEST_SIZE = 8 * 1024;
+    private final static int REQUEST_TIMEOUT_MS = 5000;
+    private final static int MAX_POOLED_FRAMES = 8;
+
+    private final HttpConnector mConnector;
+    private final int mPort;
+    private ServerSocket mServerSocket = null;
+
+    private final Object mLock = new Object();
+    private final ArrayList<Client> mClients = new ArrayList<>();
+    private final ArrayDeque<SharedFrame> mFreeFrames = new ArrayDeque<>();
+    private Thread mUpstream = null;
+    private volatile boolean mClosed = false;
+
+    private final AtomicLong mFrameCount = new AtomicLong();
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /**
+     * Frame buffer shared by all clients
+     */
+    private final class SharedFrame {
+        private byte[] mData;
+        private int mLength;
+        private final AtomicInteger mReferenceCount = new AtomicInteger();
+
+        SharedFrame(int capacity) {
+            mData = new byte[capacity];
+        }
+
+        void retain() {
+            mReferenceCount.incrementAndGet();
+        }
+
+        void release() {
+            if (mReferenceCount.decrementAndGet() == 0) {
+                synchronized (mFreeFrames) {
+                    if (mFreeFrames.size() < MAX_POOLED_FRAMES) {
+                        mFreeFrames.addLast(this);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connector Connection to device
+     * @param port Port to listen on (0 selects a free port)
+     */
+    public LivePreviewServer(HttpConnector connector, int port) {
+        mConnector = connector;
+        mPort = port;
+    }
+
+    /**
+     * Start accepting clients on the loopback address<p>
+     * Live preview of the camera is started when the first client connects and stopped when the
+     * last client disconnects.
+     *
+     * @throws IOException Port cannot be opened
+     */
+    public void start() throws IOException {
+        synchronized (mLock) {
+            if (mServerSocket != null) {
+                return;
+            }
+            mServerSocket = new ServerSocket(mPort, 0, InetAddress.getLoopbackAddress());
+        }
+
+        Thread thread = new Thread(this::runAccept, "LivePreviewServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Acquire port the server listens on
+     *
+     * @return Port number ("-1" is returned before start)
+     */
+    public int getPort() {
+        synchronized (mLock) {
+            return mServerSocket != null ? mServerSocket.getLocalPort() : -1;
+        }
+    }
+
+    /**
+     * Stop server, disconnecting all clients and the live preview
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        ArrayList<Client> clients;
+        synchronized (mLock) {
+            if (mServerSocket != null) {
+                try {
+                    mServerSocket.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            clients = new ArrayList<>(mClients);
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+    }
+
+    /**
+     * Acquire number of connected clients
+     *
+     * @return Number of clients
+     */
+    public int getClientCount() {
+        synchronized (mLock) {
+            return mClients.size();
+        }
+    }
+
+    /**
+     * Acquire number of frames received from the camera
+     *
+     * @return Number of frames
+     */
+    public long getFrameCount() {
+        return mFrameCount.get();
+    }
+
+    /**
+     * Acquire number of frames sent, summed over all clients
+     *
+     * @return Number of frames
+     */
+    public long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * Acquire number of frames skipped because a client was still sending the previous one, summed
+     * over all clients
+     *
+     * @return Number of frames
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    private void runAccept() {
+        ServerSocket serverSocket;
+        synchronized (mLock) {
+            serverSocket = mServerSocket;
+        }
+        while (!mClosed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(new Client(socket), "LivePreviewClient");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!mClosed) {
+                    e.printStackTrace();
+                }
+                return;
+            }
+        }
+    }
+
+    private void addClient(Client client) {
+        synchronized (mLock) {
+            mClients.add(client);
+            if (mUpstream == null) {
+                startUpstreamLocked();
+            }
+        }
+    }
+
+    private void removeClient(Client client) {
+        synchronized (mLock) {
+            mClients.remove(client);
+        }
+    }
+
+    private void startUpstreamLocked() {
+        mUpstream = new Thread(this::runUpstream, "LivePreviewUpstream");
+        mUpstream.setDaemon(true);
+        mUpstream.start();
+    }
+
+    /**
+     * Read frames from the camera and hand them to all clients until no client remains
+     */
+    private void runUpstream() {
+        LivePreviewReader reader = null;
+        boolean failed = true;
+        try {
+            reader = mConnector.openLivePreview(false);
+            while (!mClosed) {
+                Client[] clients;
+                synchronized (mLock) {
+                    if (mClients.isEmpty()) {
+                        failed = false;
+                        break;
+                    }
+                    clients = mClients.toArray(new Client[0]);
+                }
+
+                LivePreviewReader.Frame frame = reader.nextFrame();
+                if (frame == null) {
+                    break;
+                }
+                mFrameCount.incrementAndGet();
+
+                SharedFrame sharedFrame = toSharedFrame(frame);
+                sharedFrame.retain();
+                for (Client client : clients) {
+                    client.offer(sharedFrame);
+                }
+                sharedFrame.release();
+            }
+        } catch (Exception e) {
+            if (!mClosed) {
+                e.printStackTrace();
+            }
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+
+            ArrayList<Client> clients = null;
+            synchronized (mLock) {
+                mUpstream = null;
+                if (!mClosed && !mClients.isEmpty()) {
+                    if (failed) {
+                        // disconnect clients so that they reconnect to a new live preview
+                        clients = new ArrayList<>(mClients);
+                    } else {
+                        // a client connected while the live preview was being stopped
+                        startUpstreamLocked();
+                    }
+                }
+            }
+            if (clients != null) {
+                for (Client client : clients) {
+                    client.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy frame into shared buffer preceded by its part header
+     */
+    private SharedFrame toSharedFrame(LivePreviewReader.Frame frame) {
+        byte[] header = ("--" + BOUNDARY + "\r\nContent-Type: image/jpeg\r\nContent-Length: "
+                + frame.getLength() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        int length = header.length + frame.getLength() + PART_TRAILER.length;
+
+        SharedFrame sharedFrame;
+        synchronized (mFreeFrames) {
+            sharedFrame = mFreeFrames.pollFirst();
+        }
+        if (sharedFrame == null) {
+            sharedFrame = new SharedFrame(length);
+        } else if (sharedFrame.mData.length < length) {
+            sharedFrame.mData = new byte[length];
+        }
+
+        byte[] data = sharedFrame.mData;
+        System.arraycopy(header, 0, data, 0, header.length);
+        System.arraycopy(frame.getData(), 0, data, header.length, frame.getLength());
+        System.arraycopy(PART_TRAILER, 0, data, header.length + frame.getLength(),
+                PART_TRAILER.length);
+        sharedFrame.mLength = length;
+        return sharedFrame;
+    }
+
+    /**
+     * Connection to a client sending the latest frame each time the previous one is written
+     */
+    private class Client implements Runnable {
+        private final Socket mSocket;
+        private SharedFrame mPending = null;
+        private boolean mClientClosed = false;
+
+        Client(Socket socket) {
+            mSocket = socket;
+        }
+
+        /**
+         * Replace pending frame with a newer one
+         */
+        synchronized void offer(SharedFrame frame) {
+            if (mClientClosed) {
+                return;
+            }
+            if (mPending != null) {
+                mPending.release();
+                mDroppedCount.incrementAndGet();
+            }
+            frame.retain();
+            mPending = frame;
+            notifyAll();
+        }
+
+        void close() {
+            synchronized (this) {
+                mClientClosed = true;
+                if (mPending != null) {
+                    mPending.release();
+                    mPending = null;
+                }
+                notifyAll();
+            }
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                mSocket.setTcpNoDelay(true);
+                OutputStream os = mSocket.getOutputStream();
+                String method = readRequestMethod();
+                if (!"GET".equals(method)) {
+                    os.write(("HTTP/1.0 405 Method Not Allowed\r\nConnection: close\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    return;
+                }
+                os.write(("HTTP/1.0 200 OK\r\nContent-Type: multipart/x-mixed-replace; boundary="
+                        + BOUNDARY + "\r\nCache-Control: no-cache\r\nConnection: close\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+                addClient(this);
+
+                while (true) {
+                    SharedFrame frame;
+                    synchronized (this) {
+                        while (mPending == null && !mClientClosed) {
+                            wait();
+                        }
+                        if (mClientClosed) {
+                            return;
+                        }
+                        frame = mPending;
+                        mPending = null;
+                    }
+                    try {
+                        os.write(frame.mData, 0, frame.mLength);
+                    } finally {
+                        frame.release();
+                    }
+                    mSentCount.incrementAndGet();
+                }
+            } catch (IOException e) {
+                // client disconnected
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                removeClient(this);
+                close();
+            }
+        }
+
+        /**
+         * Read request header and acquire its method
+         *
+         * @return Method (null is returned if the request is malformed)
+         */
+        private String readRequestMethod() throws IOException {
+            mSocket.setSoTimeout(REQUEST_TIMEOUT_MS);
+            InputStream is = mSocket.getInputStream();
+            StringBuilder requestLine = new StringBuilder();
+            boolean requestLineRead = false;
+            int matched = 0;
+            for (int size = 0; size < MAX_REQUEST_SIZE && matched < 4; size++) {
+                int c = is.read();
+                if (c < 0) {
+                    return null;
+                }
+                // the header ends with an empty line
+                matched = (c == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1
+                        : (c == '\r' ? 1 : 0);
+                if (!requestLineRead) {
+                    if (c == '\r' || c == '\n') {
+                        requestLineRead = true;
+                    } else {
+                        requestLine.append((char) c);
+                    }
+                }
+            }
+            mSocket.setSoTimeout(0);
+            if (matched < 4) {
+                return null;
+            }
+
+            int end = requestLine.indexOf(" ");
+            return end > 0 ? requestLine.substring(0, end) : null;
+        }
+    }
+}
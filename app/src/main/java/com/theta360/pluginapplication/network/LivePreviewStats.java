@@ -0,0 +1,132 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+/**
+ * Statistics class of live preview
+ */
+public class LivePreviewStats {
+    private final long mFrameCount;
+    private final long mDroppedCount;
+    private final long mDecodedCount;
+    private final long mTotalFrameBytes;
+    private final int mLastFrameSize;
+    private final double mFrameRate;
+    private final long mTotalDecodeNanos;
+    private final long mMaxDecodeNanos;
+
+    /**
+     * Constructor
+     *
+     * @param frameCount Number of frames received
+     * @param droppedCount Number of frames dropped before they were consumed
+     * @param decodedCount Number of frames decoded into bitmaps
+     * @param totalFrameBytes Sum of frame sizes (unit: bytes)
+     * @param lastFrameSize Size of the most recent frame (unit: bytes)
+     * @param frameRate Recent rate of received frames (unit: frames per second)
+     * @param totalDecodeNanos Sum of decode times (unit: nanoseconds)
+     * @param maxDecodeNanos Maximum decode time (unit: nanoseconds)
+     */
+    LivePreviewStats(long frameCount, long droppedCount, long decodedCount, long totalFrameBytes,
+            int lastFrameSize, double frameRate, long totalDecodeNanos, long maxDecodeNanos) {
+        mFrameCount = frameCount;
+        mDroppedCount = droppedCount;
+        mDecodedCount = decodedCount;
+        mTotalFrameBytes = totalFrameBytes;
+        mLastFrameSize = lastFrameSize;
+        mFrameRate = frameRate;
+        mTotalDecodeNanos = totalDecodeNanos;
+        mMaxDecodeNanos = maxDecodeNanos;
+    }
+
+    /**
+     * Acquire number of frames received
+     * @return Number of frames
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Acquire number of frames dropped because a newer frame arrived before they were consumed
+     * @return Number of frames
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Acquire number of frames decoded into bitmaps
+     * @return Number of frames
+     */
+    public long getDecodedCount() {
+        return mDecodedCount;
+    }
+
+    /**
+     * Acquire recent rate of received frames
+     * @return Frame rate (unit: frames per second)
+     */
+    public double getFrameRate() {
+        return mFrameRate;
+    }
+
+    /**
+     * Acquire average size of received frames
+     * @return Average frame size (unit: bytes)
+     */
+    public double getAverageFrameSize() {
+        if (mFrameCount == 0) {
+            return 0.0d;
+        }
+        return (double) mTotalFrameBytes / mFrameCount;
+    }
+
+    /**
+     * Acquire size of the most recent frame
+     * @return Frame size (unit: bytes)
+     */
+    public int getLastFrameSize() {
+        return mLastFrameSize;
+    }
+
+    /**
+     * Acquire average time to decode a frame into a bitmap
+     * @return Average decode time (unit: milliseconds)
+     */
+    public double getAverageDecodeMillis() {
+        if (mDecodedCount == 0) {
+            return 0.0d;
+        }
+        return mTotalDecodeNanos / 1000000.0d / mDecodedCount;
+    }
+
+    /**
+     * Acquire maximum time to decode a frame into a bitmap
+     * @return Maximum decode time (unit: milliseconds)
+     */
+    public double getMaxDecodeMillis() {
+        return mMaxDecodeNanos / 1000000.0d;
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + mFrameCount + " dropped=" + mDroppedCount + " fps=" + mFrameRate
+                + " avgFrameBytes=" + getAverageFrameSize() + " avgDecodeMs="
+                + getAverageDecodeMillis() + " maxDecodeMs=" + getMaxDecodeMillis();
+    }
+}
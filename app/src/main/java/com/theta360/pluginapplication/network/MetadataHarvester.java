@@ -0,0 +1,178 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Harvester of pose angles reading only the head of each file<p>
+ * The head is fetched by range requests of {@link MetadataHarvester#HEAD_RANGE_SIZE} until the
+ * XMP packet has been read, which usually takes one request. Several files are read at the same
+ * time over separate connections.
+ */
+final class MetadataHarvester {
+    private final static int HEAD_RANGE_SIZE = 64 * 1024;
+    private final static int MAX_HEAD_SIZE = 512 * 1024;
+
+    private final HttpTransport mTransport;
+    private final BufferPool mBufferPool;
+    private final Executor mExecutor;
+    private final int mParallelism;
+
+    /**
+     * Constructor
+     *
+     * @param transport HTTP transport
+     * @param bufferPool Pool of transfer buffers
+     * @param executor Executor running the additional connections
+     * @param parallelism Number of files read at the same time
+     */
+    MetadataHarvester(HttpTransport transport, BufferPool bufferPool, Executor executor,
+            int parallelism) {
+        mTransport = transport;
+        mBufferPool = bufferPool;
+        mExecutor = executor;
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Read pose angles of files<p>
+     * If the calling thread is interrupted, no further file is started and the files being read
+     * are awaited, so the table is not written after it is returned. Files not read are unknown
+     * and counted as failed, and the interrupt status is kept.
+     *
+     * @param fileUrls URLs of the files
+     * @return Pose table in the order of fileUrls
+     */
+    PoseTable harvest(String[] fileUrls) {
+        PoseTable poseTable = new PoseTable(fileUrls);
+        AtomicInteger nextIndex = new AtomicInteger();
+        AtomicInteger failedCount = new AtomicInteger();
+        AtomicInteger readCount = new AtomicInteger();
+        Runnable worker = () -> {
+            int index;
+            while ((index = nextIndex.getAndIncrement()) < fileUrls.length) {
+                if (Thread.currentThread().isInterrupted()) {
+                    nextIndex.set(fileUrls.length);
+                    break;
+                }
+                XmpExtractor extractor = new XmpExtractor();
+                try {
+                    readHead(fileUrls[index], extractor);
+                    poseTable.set(index, extractor);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    poseTable.setFailed(index);
+                    failedCount.incrementAndGet();
+                }
+                readCount.incrementAndGet();
+            }
+        };
+
+        // the calling thread works as one of the connections and runs workers not yet started
+        List<FutureTask<Void>> workers = new ArrayList<>();
+        for (int count = 1; count < Math.min(mParallelism, fileUrls.length); count++) {
+            FutureTask<Void> task = new FutureTask<>(worker, null);
+            workers.add(task);
+            mExecutor.execute(task);
+        }
+        worker.run();
+        boolean interrupted = Thread.interrupted();
+        if (interrupted) {
+            nextIndex.set(fileUrls.length);
+        }
+        for (FutureTask<Void> task : workers) {
+            // a worker not started by the executor yet runs here, and exits at once when stopped
+            task.run();
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // workers still write to the table, so stop them and keep waiting
+                    interrupted = true;
+                    nextIndex.set(fileUrls.length);
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        poseTable.setFailedCount(failedCount.get() + fileUrls.length - readCount.get());
+        return poseTable;
+    }
+
+    /**
+     * Feed head of file to extractor until the XMP packet has been read
+     *
+     * @param fileUrl URL of the file
+     * @param extractor XMP extractor
+     * @throws IOException Failed to read the file
+     */
+    private void readHead(String fileUrl, XmpExtractor extractor) throws IOException {
+        ByteBuffer buffer = mBufferPool.acquire();
+        byte[] array = buffer.array();
+        long start = 0;
+
+        try {
+            while (!extractor.isFinished() && start < MAX_HEAD_SIZE) {
+                HttpTransport.Response response = mTransport.get(fileUrl,
+                        "Range: bytes=" + start + "-" + (start + HEAD_RANGE_SIZE - 1) + "\r\n",
+                        CommandScheduler.Priority.TRANSFER);
+                InputStream is = response.getInputStream();
+                int received = 0;
+                try {
+                    int statusCode = response.getStatusCode();
+                    if (statusCode != 200 && statusCode != 206) {
+                        throw new IOException("Failed to read " + fileUrl + ": HTTP "
+                                + statusCode);
+                    }
+
+                    // a device ignoring the range sends the whole file, which is read only up to
+                    // the XMP packet
+                    int limit = statusCode == 206 ? HEAD_RANGE_SIZE : MAX_HEAD_SIZE;
+                    int length;
+                    while (!extractor.isFinished() && received < limit && (length = is.read(array,
+                            0, Math.min(array.length, limit - received))) >= 0) {
+                        extractor.feed(array, 0, length);
+                        received += length;
+                    }
+                    if (statusCode == 200 || received < HEAD_RANGE_SIZE) {
+                        break;
+                    }
+                } finally {
+                    is.close();
+                }
+                start += received;
+            }
+        } finally {
+            mBufferPool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,579 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Manager moving media files from device to local storage in the background<p>
+ * Files are queued from file lists and downloaded by a fixed number of worker threads, each file
+ * by {@link HttpConnector#getImage(String, File, HttpDownloadListener)} so that an interrupted
+ * file resumes where it stopped. The queue and the transferred files are recorded in a journal in
+ * the destination directory, so queued files survive a restart of the plugin and files already
+ * transferred are not queued again. Workers do not start a file while a capture is in progress.
+ */
+public class OffloadManager implements Closeable {
+    private final static String JOURNAL_NAME = ".offload";
+    private final static String RECORD_QUEUED = "Q";
+    private final static String RECORD_DONE = "D";
+    private final static int MAX_ATTEMPTS = 3;
+    private final static int LIST_PAGE_SIZE = 100;
+    // a capture started by this connector is noticed within this time
+    private final static long PAUSE_CHECK_INTERVAL_MS = 500;
+    private final static int THROUGHPUT_WINDOW_SECONDS = 10;
+
+    private final HttpConnector mConnector;
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final int mWorkerCount;
+    private final Listener mListener;
+
+    private final Object mLock = new Object();
+    private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+    private final Set<String> mQueuedKeys = new HashSet<>();
+    private final Set<String> mDoneKeys = new HashSet<>();
+    private Writer mJournal = null;
+    private FileOutputStream mJournalStream = null;
+    private final List<Thread> mWorkers = new ArrayList<>();
+    private boolean mStarted = false;
+    private boolean mClosed = false;
+    private boolean mPaused = false;
+    private volatile boolean mCaptureInProgress = false;
+
+    private int mActiveCount = 0;
+    private long mActiveBytes = 0;
+    private long mBacklogBytes = 0;
+    private long mCompletedCount = 0;
+    private long mCompletedBytes = 0;
+    private long mFailedCount = 0;
+    private final long[] mSecondBytes = new long[THROUGHPUT_WINDOW_SECONDS];
+    private final long[] mSeconds = new long[THROUGHPUT_WINDOW_SECONDS];
+
+    private final CameraStateWatcher.Listener mStateListener = new CameraStateWatcher.Listener() {
+        @Override
+        public void onStateChanged(CameraState state) {
+        }
+
+        @Override
+        public void onCaptureStatusChanged(String captureStatus) {
+            mCaptureInProgress = captureStatus != null && !"idle".equals(captureStatus);
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
+        }
+    };
+
+    /**
+     * Listener receiving the outcome of each file<p>
+     * Methods are called on the worker thread that transferred the file.
+     */
+    public interface Listener {
+        /**
+         * Notify that file was transferred
+         *
+         * @param imageInfo Media file information
+         * @param file Local file
+         */
+        void onOffloaded(ImageInfo imageInfo, File file);
+
+        /**
+         * Notify that file could not be transferred after retries<p>
+         * The file stays in the journal and is queued again on the next start.
+         *
+         * @param imageInfo Media file information
+         */
+        default void onFailed(ImageInfo imageInfo) {
+        }
+    }
+
+    /**
+     * Queued file
+     */
+    private static class Entry {
+        final String mFileId;
+        final String mFileName;
+        final long mFileSize;
+        int mAttempts = 0;
+
+        Entry(String fileId, String fileName, long fileSize) {
+            mFileId = fileId;
+            // the journal writes a missing name as an empty field
+            mFileName = fileName != null && !fileName.isEmpty() ? fileName : null;
+            mFileSize = fileSize;
+        }
+
+        /**
+         * Key identifying the file, which changes if the same URL is reused for another file
+         */
+        String getKey() {
+            return mFileId + "#" + mFileSize;
+        }
+
+        ImageInfo toImageInfo() {
+            ImageInfo imageInfo = new ImageInfo();
+            imageInfo.setFileId(mFileId);
+            imageInfo.setFileName(mFileName);
+            imageInfo.setFileSize(mFileSize);
+            return imageInfo;
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connector Connection to device
+     * @param directory Destination directory
+     * @param workerCount Number of files transferred at the same time
+     * @param listener Listener (null is allowed)
+     */
+    public OffloadManager(HttpConnector connector, File directory, int workerCount,
+            Listener listener) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be positive");
+        }
+        mConnector = connector;
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_NAME);
+        mWorkerCount = workerCount;
+        mListener = listener;
+    }
+
+    /**
+     * Load the journal, queue the files left by the previous run and start the workers
+     *
+     * @throws IOException Journal cannot be read or written
+     */
+    public void start() throws IOException {
+        synchronized (mLock) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+            mDirectory.mkdirs();
+            loadJournal();
+
+            for (int index = 0; index < mWorkerCount; index++) {
+                Thread worker = new Thread(this::runWorker, "OffloadWorker-" + index);
+                worker.setDaemon(true);
+                mWorkers.add(worker);
+                worker.start();
+            }
+        }
+        mConnector.getStateWatcher().addListener(mStateListener);
+    }
+
+    /**
+     * Queue files that have not been transferred yet
+     *
+     * @param imageInfos Media files
+     * @return Number of files newly queued
+     * @throws IOException Journal cannot be written
+     */
+    public int enqueue(List<ImageInfo> imageInfos) throws IOException {
+        int count = 0;
+        synchronized (mLock) {
+            for (ImageInfo imageInfo : imageInfos) {
+                Entry entry = new Entry(imageInfo.getFileId(), imageInfo.getFileName(),
+                        imageInfo.getFileSize());
+                String key = entry.getKey();
+                if (mDoneKeys.contains(key) || mQueuedKeys.contains(key)) {
+                    continue;
+                }
+                if (isTransferred(entry)) {
+                    // transferred by an earlier run whose journal was lost
+                    mDoneKeys.add(key);
+                    continue;
+                }
+                writeRecord(RECORD_QUEUED, entry);
+                mQueuedKeys.add(key);
+                mQueue.addLast(entry);
+                mBacklogBytes += entry.mFileSize;
+                count++;
+            }
+            if (mJournal != null) {
+                mJournal.flush();
+            }
+            mLock.notifyAll();
+        }
+        return count;
+    }
+
+    /**
+     * Queue all media files on device that have not been transferred yet<p>
+     * The file list is acquired on the calling thread.
+     *
+     * @return Number of files newly queued ("-1" is returned if the list cannot be acquired)
+     * @throws IOException Journal cannot be written
+     */
+    public int enqueueCameraRoll() throws IOException {
+        List<ImageInfo> imageInfos = new ArrayList<>();
+        boolean failed;
+        try (FileListIterator iterator =
+                mConnector.listFiles(HttpConnector.FILE_TYPE_ALL, LIST_PAGE_SIZE)) {
+            while (iterator.hasNext()) {
+                imageInfos.add(iterator.next());
+            }
+            failed = iterator.hasFailed();
+        }
+        int count = enqueue(imageInfos);
+        return failed ? -1 : count;
+    }
+
+    /**
+     * Stop starting new files until {@link #resume()} is called<p>
+     * Files being transferred are completed.
+     */
+    public void pause() {
+        synchronized (mLock) {
+            mPaused = true;
+        }
+    }
+
+    /**
+     * Restart transfers stopped by {@link #pause()}
+     */
+    public void resume() {
+        synchronized (mLock) {
+            mPaused = false;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Check whether new files are currently held back
+     *
+     * @return true:Paused by {@link #pause()} or by a capture in progress, false:Running
+     */
+    public boolean isPaused() {
+        synchronized (mLock) {
+            return isPausedLocked();
+        }
+    }
+
+    /**
+     * Stop workers after the files being transferred<p>
+     * Files not yet transferred remain in the journal.
+     */
+    @Override
+    public void close() {
+        mConnector.getStateWatcher().removeListener(mStateListener);
+        List<Thread> workers;
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+            workers = new ArrayList<>(mWorkers);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (mLock) {
+            closeJournal();
+        }
+    }
+
+    /**
+     * Acquire number of files queued or being transferred
+     *
+     * @return Number of files
+     */
+    public int getBacklogCount() {
+        synchronized (mLock) {
+            return mQueue.size() + mActiveCount;
+        }
+    }
+
+    /**
+     * Acquire size of files queued or being transferred
+     *
+     * @return Size (unit: bytes)
+     */
+    public long getBacklogBytes() {
+        synchronized (mLock) {
+            return mBacklogBytes + mActiveBytes;
+        }
+    }
+
+    /**
+     * Acquire number of files transferred since start
+     *
+     * @return Number of files
+     */
+    public long getCompletedCount() {
+        synchronized (mLock) {
+            return mCompletedCount;
+        }
+    }
+
+    /**
+     * Acquire size of files transferred since start
+     *
+     * @return Size (unit: bytes)
+     */
+    public long getCompletedBytes() {
+        synchronized (mLock) {
+            return mCompletedBytes;
+        }
+    }
+
+    /**
+     * Acquire number of files given up after retries since start
+     *
+     * @return Number of files
+     */
+    public long getFailedCount() {
+        synchronized (mLock) {
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * Acquire amount of data received per second over the last
+     * {@value #THROUGHPUT_WINDOW_SECONDS} seconds
+     *
+     * @return Throughput (unit: bytes per second)
+     */
+    public double getThroughput() {
+        long now = System.nanoTime() / 1000000000L;
+        long total = 0;
+        synchronized (mLock) {
+            for (int index = 0; index < THROUGHPUT_WINDOW_SECONDS; index++) {
+                if (now - mSeconds[index] < THROUGHPUT_WINDOW_SECONDS) {
+                    total += mSecondBytes[index];
+                }
+            }
+        }
+        return (double) total / THROUGHPUT_WINDOW_SECONDS;
+    }
+
+    @Override
+    public String toString() {
+        return "backlog=" + getBacklogCount() + " backlogBytes=" + getBacklogBytes()
+                + " completed=" + getCompletedCount() + " failed=" + getFailedCount()
+                + " throughput=" + getThroughput() + " paused=" + isPaused();
+    }
+
+    private void runWorker() {
+        while (true) {
+            Entry entry;
+            synchronized (mLock) {
+                while (!mClosed && (mQueue.isEmpty() || isPausedLocked())) {
+                    try {
+                        if (mQueue.isEmpty()) {
+                            mLock.wait();
+                        } else {
+                            mLock.wait(PAUSE_CHECK_INTERVAL_MS);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (mClosed) {
+                    return;
+                }
+                entry = mQueue.pollFirst();
+                mBacklogBytes -= entry.mFileSize;
+                mActiveBytes += entry.mFileSize;
+                mActiveCount++;
+            }
+
+            File file = getLocalFile(entry);
+            file.getParentFile().mkdirs();
+            entry.mAttempts++;
+            ImageData imageData = mConnector.getImage(entry.mFileId, file,
+                    new HttpDownloadListener() {
+                        @Override
+                        public void onTotalSize(long totalSize) {
+                        }
+
+                        @Override
+                        public void onDataReceived(int size) {
+                            recordReceived(size);
+                        }
+                    });
+
+            boolean failed = false;
+            synchronized (mLock) {
+                mActiveBytes -= entry.mFileSize;
+                mActiveCount--;
+                if (imageData != null) {
+                    try {
+                        writeRecord(RECORD_DONE, entry);
+                        mJournal.flush();
+                        mJournalStream.getFD().sync();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    mQueuedKeys.remove(entry.getKey());
+                    mDoneKeys.add(entry.getKey());
+                    mCompletedCount++;
+                    mCompletedBytes += entry.mFileSize;
+                } else if (entry.mAttempts < MAX_ATTEMPTS && !mClosed) {
+                    // retry after the other queued files, resuming from the received chunks
+                    mQueue.addLast(entry);
+                    mBacklogBytes += entry.mFileSize;
+                } else {
+                    mQueuedKeys.remove(entry.getKey());
+                    mFailedCount++;
+                    failed = true;
+                }
+            }
+
+            if (mListener != null) {
+                if (imageData != null) {
+                    mListener.onOffloaded(entry.toImageInfo(), file);
+                } else if (failed) {
+                    mListener.onFailed(entry.toImageInfo());
+                }
+            }
+        }
+    }
+
+    private boolean isPausedLocked() {
+        return mPaused || mCaptureInProgress
+                || mConnector.getCommandRegistry().isInFlightByName("camera.takePicture");
+    }
+
+    private void recordReceived(int size) {
+        long second = System.nanoTime() / 1000000000L;
+        int index = (int) (second % THROUGHPUT_WINDOW_SECONDS);
+        synchronized (mLock) {
+            if (mSeconds[index] != second) {
+                mSeconds[index] = second;
+                mSecondBytes[index] = 0;
+            }
+            mSecondBytes[index] += size;
+        }
+    }
+
+    /**
+     * Acquire local file of entry, keeping the folder of the file on device
+     */
+    private File getLocalFile(Entry entry) {
+        String path = entry.mFileId;
+        int nameIndex = path.lastIndexOf('/');
+        int folderIndex = nameIndex > 0 ? path.lastIndexOf('/', nameIndex - 1) : -1;
+        String folder = folderIndex >= 0 ? path.substring(folderIndex + 1, nameIndex) : "";
+        String name = entry.mFileName != null ? entry.mFileName : path.substring(nameIndex + 1);
+        return new File(new File(mDirectory, folder), name);
+    }
+
+    private boolean isTransferred(Entry entry) {
+        File file = getLocalFile(entry);
+        return file.length() == entry.mFileSize && entry.mFileSize > 0
+                && !RangedDownload.getJournalFile(file).exists();
+    }
+
+    /**
+     * Read the journal, then rewrite it with only the transferred and the pending files
+     */
+    private void loadJournal() throws IOException {
+        Map<String, Entry> pending = new LinkedHashMap<>();
+        if (mJournalFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(mJournalFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length < 4) {
+                        // record cut by a crash while writing
+                        continue;
+                    }
+                    Entry entry;
+                    try {
+                        entry = new Entry(fields[1], fields[3], Long.parseLong(fields[2]));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (RECORD_DONE.equals(fields[0])) {
+                        pending.remove(entry.getKey());
+                        mDoneKeys.add(entry.getKey());
+                    } else if (RECORD_QUEUED.equals(fields[0])
+                            && !mDoneKeys.contains(entry.getKey())) {
+                        pending.put(entry.getKey(), entry);
+                    }
+                }
+            }
+        }
+
+        File temporaryFile = new File(mJournalFile.getPath() + ".tmp");
+        mJournalStream = new FileOutputStream(temporaryFile);
+        mJournal = new OutputStreamWriter(mJournalStream, StandardCharsets.UTF_8);
+        for (String key : mDoneKeys) {
+            int index = key.lastIndexOf('#');
+            mJournal.write(RECORD_DONE + "\t" + key.substring(0, index) + "\t"
+                    + key.substring(index + 1) + "\t\n");
+        }
+        for (Entry entry : pending.values()) {
+            writeRecord(RECORD_QUEUED, entry);
+            mQueuedKeys.add(entry.getKey());
+            mQueue.addLast(entry);
+            mBacklogBytes += entry.mFileSize;
+        }
+        mJournal.flush();
+        mJournalStream.getFD().sync();
+        closeJournal();
+        if (!temporaryFile.renameTo(mJournalFile)) {
+            throw new IOException("Failed to replace " + mJournalFile);
+        }
+
+        mJournalStream = new FileOutputStream(mJournalFile, true);
+        mJournal = new OutputStreamWriter(mJournalStream, StandardCharsets.UTF_8);
+    }
+
+    private void writeRecord(String type, Entry entry) throws IOException {
+        if (mJournal == null) {
+            throw new IOException("Offload manager is not started");
+        }
+        String fileName = entry.mFileName != null ? entry.mFileName : "";
+        mJournal.write(type + "\t" + entry.mFileId + "\t" + entry.mFileSize + "\t" + fileName
+                + "\n");
+    }
+
+    private void closeJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mJournal = null;
+            mJournalStream = null;
+        }
+    }
+}
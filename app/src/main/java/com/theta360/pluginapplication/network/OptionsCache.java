@@ -0,0 +1,202 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of option values acquired from device<p>
+ * Each value is stored with the state fingerprint observed when it was acquired. A value stays
+ * valid until its time to live elapses or the fingerprint of the device changes. Values that
+ * never change, such as the serial number, can be stored without binding to a fingerprint.
+ */
+public class OptionsCache {
+    public final static long TTL_INFINITE = Long.MAX_VALUE;
+    public final static long DEFAULT_TTL_MS = 60000;
+
+    private final Map<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final Map<String, Policy> mPolicies = new ConcurrentHashMap<>();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mRevalidationCount = new AtomicLong();
+
+    /**
+     * Set how long a value is kept
+     *
+     * @param name Option name
+     * @param ttlMs Time to live (unit: milliseconds)
+     * @param fingerprintBound true:The value is dropped when the fingerprint changes
+     */
+    public void setPolicy(String name, long ttlMs, boolean fingerprintBound) {
+        mPolicies.put(name, new Policy(ttlMs, fingerprintBound));
+    }
+
+    /**
+     * Acquire cached values of options
+     *
+     * @param names Option names
+     * @param fingerPrint Supplier of the current fingerprint, called at most once and only if a
+     * fingerprint bound value has to be validated
+     * @return Values in the order of names (null is returned unless all values are valid)
+     */
+    Object[] get(String[] names, Supplier<String> fingerPrint) {
+        Object[] values = new Object[names.length];
+        long now = System.nanoTime();
+        String currentFingerPrint = null;
+        boolean revalidated = false;
+
+        for (int i = 0; i < names.length; i++) {
+            Entry entry = mEntries.get(names[i]);
+            if (entry == null || now - entry.mStoredNanos >= entry.mTtlNanos) {
+                mMissCount.incrementAndGet();
+                return null;
+            }
+            if (entry.mFingerPrint != null) {
+                if (!revalidated) {
+                    mRevalidationCount.incrementAndGet();
+                    currentFingerPrint = fingerPrint.get();
+                    revalidated = true;
+                }
+                if (!entry.mFingerPrint.equals(currentFingerPrint)) {
+                    mEntries.remove(names[i], entry);
+                    mMissCount.incrementAndGet();
+                    return null;
+                }
+            }
+            values[i] = entry.mValue;
+        }
+
+        mHitCount.incrementAndGet();
+        return values;
+    }
+
+    /**
+     * Store value of option
+     *
+     * @param name Option name
+     * @param value Value
+     * @param fingerPrint Fingerprint observed before the value was acquired (null is treated as a
+     * fingerprint that never matches for fingerprint bound options)
+     */
+    void put(String name, Object value, String fingerPrint) {
+        Policy policy = mPolicies.get(name);
+        long ttlMs = policy != null ? policy.mTtlMs : DEFAULT_TTL_MS;
+        boolean fingerprintBound = policy == null || policy.mFingerprintBound;
+        if (fingerprintBound && fingerPrint == null) {
+            return;
+        }
+        long ttlNanos = ttlMs == TTL_INFINITE ? Long.MAX_VALUE
+                : TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        mEntries.put(name, new Entry(value, fingerprintBound ? fingerPrint : null, ttlNanos));
+    }
+
+    /**
+     * Drop cached value of option
+     *
+     * @param name Option name
+     */
+    public void invalidate(String name) {
+        mEntries.remove(name);
+    }
+
+    /**
+     * Drop all cached values
+     */
+    public void invalidateAll() {
+        mEntries.clear();
+    }
+
+    /**
+     * Acquire number of lookups answered from the cache
+     *
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * Acquire number of lookups that had to ask the device
+     *
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Acquire number of fingerprint validations
+     *
+     * @return Number of validations
+     */
+    public long getRevalidationCount() {
+        return mRevalidationCount.get();
+    }
+
+    /**
+     * Acquire ratio of lookups answered from the cache
+     *
+     * @return Hit ratio (value between 0 and 1)
+     */
+    public double getHitRatio() {
+        long hitCount = mHitCount.get();
+        long total = hitCount + mMissCount.get();
+        if (total == 0) {
+            return 0.0d;
+        }
+        return (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + " misses=" + getMissCount() + " revalidations="
+                + getRevalidationCount() + " entries=" + mEntries.size();
+    }
+
+    /**
+     * Caching policy of option
+     */
+    private static class Policy {
+        private final long mTtlMs;
+        private final boolean mFingerprintBound;
+
+        Policy(long ttlMs, boolean fingerprintBound) {
+            mTtlMs = ttlMs;
+            mFingerprintBound = fingerprintBound;
+        }
+    }
+
+    /**
+     * Cached value
+     */
+    private static class Entry {
+        private final Object mValue;
+        private final String mFingerPrint;
+        private final long mStoredNanos = System.nanoTime();
+        private final long mTtlNanos;
+
+        Entry(Object value, String fingerPrint, long ttlNanos) {
+            mValue = value;
+            mFingerPrint = fingerPrint;
+            mTtlNanos = ttlNanos;
+        }
+    }
+}
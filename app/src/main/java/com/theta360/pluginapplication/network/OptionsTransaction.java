@@ -0,0 +1,149 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Set of option reads and writes sent together<p>
+ * All writes are merged into one camera.setOptions command and all reads into one
+ * camera.getOptions command. Writes are sent first, so reads observe the written values. When the
+ * same option is written twice, the last value is sent.
+ */
+public class OptionsTransaction {
+    private final HttpConnector mConnector;
+    private final Map<String, Object> mWrites = new LinkedHashMap<>();
+    private final Map<String, List<CompletableFuture<Void>>> mWriteFutures = new LinkedHashMap<>();
+    private final Map<String, List<CompletableFuture<Object>>> mReadFutures =
+            new LinkedHashMap<>();
+    private boolean mCommitted = false;
+
+    /**
+     * Constructor
+     *
+     * @param connector Connector sending the commands
+     */
+    OptionsTransaction(HttpConnector connector) {
+        mConnector = connector;
+    }
+
+    /**
+     * Add option read
+     *
+     * @param name Option name
+     * @return Future completed with the option value (String, Number, Boolean, JSONObject,
+     * JSONArray or null) after the transaction is committed
+     */
+    public synchronized CompletableFuture<Object> get(String name) {
+        checkNotCommitted();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        List<CompletableFuture<Object>> futures = mReadFutures.get(name);
+        if (futures == null) {
+            futures = new ArrayList<>();
+            mReadFutures.put(name, futures);
+        }
+        futures.add(future);
+        return future;
+    }
+
+    /**
+     * Add option write
+     *
+     * @param name Option name
+     * @param value Option value (String, Number, Boolean, JSONObject or JSONArray)
+     * @return Future completed after the transaction is committed and the value is applied
+     */
+    public synchronized CompletableFuture<Void> set(String name, Object value) {
+        checkNotCommitted();
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        mWrites.put(name, value);
+        List<CompletableFuture<Void>> futures = mWriteFutures.get(name);
+        if (futures == null) {
+            futures = new ArrayList<>();
+            mWriteFutures.put(name, futures);
+        }
+        futures.add(future);
+        return future;
+    }
+
+    /**
+     * Send reads and writes to device
+     *
+     * @return Future completed when every read and write of the transaction has finished
+     */
+    public CompletableFuture<Void> commit() {
+        synchronized (this) {
+            checkNotCommitted();
+            mCommitted = true;
+        }
+        return mConnector.executeOptionsAsync(this);
+    }
+
+    /**
+     * Check whether the transaction has no reads and writes
+     *
+     * @return true:Empty, false:Not empty
+     */
+    synchronized boolean isEmpty() {
+        return mWrites.isEmpty() && mReadFutures.isEmpty();
+    }
+
+    /**
+     * Mark the transaction as committed by the connector
+     */
+    synchronized void markCommitted() {
+        mCommitted = true;
+    }
+
+    Map<String, Object> getWrites() {
+        return mWrites;
+    }
+
+    Map<String, List<CompletableFuture<Void>>> getWriteFutures() {
+        return mWriteFutures;
+    }
+
+    Map<String, List<CompletableFuture<Object>>> getReadFutures() {
+        return mReadFutures;
+    }
+
+    /**
+     * Acquire futures of all reads and writes
+     *
+     * @return Futures
+     */
+    List<CompletableFuture<?>> getAllFutures() {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (List<CompletableFuture<Void>> writeFutures : mWriteFutures.values()) {
+            futures.addAll(writeFutures);
+        }
+        for (List<CompletableFuture<Object>> readFutures : mReadFutures.values()) {
+            futures.addAll(readFutures);
+        }
+        return futures;
+    }
+
+    private void checkNotCommitted() {
+        if (mCommitted) {
+            throw new IllegalStateException("Transaction has already been committed");
+        }
+    }
+}
@@ -0,0 +1,613 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON reader for OSC responses<p>
+ * Reads UTF-8 JSON directly from the response stream without building an intermediate String or
+ * object tree. The byte and char buffers belong to the calling thread and are reused by every
+ * response parsed on that thread.
+ */
+final class OscJsonReader {
+    /**
+     * Token type
+     */
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL,
+        END_DOCUMENT
+    }
+
+    private final static int SCOPE_OBJECT_NAME = 1;
+    private final static int SCOPE_OBJECT_VALUE = 2;
+    private final static int SCOPE_ARRAY = 3;
+    private final static String[] NO_NAMES = new String[0];
+    private final static byte[] BASE64_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int index = 0; index < alphabet.length(); index++) {
+            BASE64_VALUES[alphabet.charAt(index)] = (byte) index;
+        }
+    }
+
+    private final static ThreadLocal<OscJsonReader> sReaders = new ThreadLocal<OscJsonReader>() {
+        @Override
+        protected OscJsonReader initialValue() {
+            return new OscJsonReader();
+        }
+    };
+
+    private final byte[] mBuffer = new byte[4096];
+    private int mPosition;
+    private int mLimit;
+    private InputStream mIn;
+
+    private char[] mChars = new char[256];
+    private int mCharLength;
+    private boolean mBooleanValue;
+
+    private byte[] mBytes = new byte[0];
+    private int mByteLength;
+    private int mBase64Bits;
+    private int mBase64BitCount;
+
+    private int[] mScopes = new int[32];
+    private int mScopeSize;
+    private Token mPeeked;
+
+    private OscJsonReader() {
+    }
+
+    /**
+     * Acquire reader of the current thread and attach it to stream
+     *
+     * @param in Stream of JSON data
+     * @return Reader
+     */
+    static OscJsonReader obtain(InputStream in) {
+        OscJsonReader reader = sReaders.get();
+        reader.mIn = in;
+        reader.mPosition = 0;
+        reader.mLimit = 0;
+        reader.mScopeSize = 0;
+        reader.mPeeked = null;
+        return reader;
+    }
+
+    /**
+     * Acquire type of next token without consuming it
+     *
+     * @return Token type
+     * @throws IOException IO error or malformed JSON
+     */
+    Token peek() throws IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+
+        int c = nextNonSeparator();
+        switch (c) {
+            case -1:
+                mPeeked = Token.END_DOCUMENT;
+                break;
+            case '{':
+                mPeeked = Token.BEGIN_OBJECT;
+                break;
+            case '}':
+                mPeeked = Token.END_OBJECT;
+                break;
+            case '[':
+                mPeeked = Token.BEGIN_ARRAY;
+                break;
+            case ']':
+                mPeeked = Token.END_ARRAY;
+                break;
+            case '"':
+                readString();
+                mPeeked = currentScope() == SCOPE_OBJECT_NAME ? Token.NAME : Token.STRING;
+                break;
+            case 't':
+                skipLiteral("rue");
+                mBooleanValue = true;
+                mPeeked = Token.BOOLEAN;
+                break;
+            case 'f':
+                skipLiteral("alse");
+                mBooleanValue = false;
+                mPeeked = Token.BOOLEAN;
+                break;
+            case 'n':
+                skipLiteral("ull");
+                mPeeked = Token.NULL;
+                break;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    readNumber(c);
+                    mPeeked = Token.NUMBER;
+                } else {
+                    throw new IOException("Unexpected character in JSON: " + (char) c);
+                }
+                break;
+        }
+        return mPeeked;
+    }
+
+    /**
+     * Check whether the current object or array has more elements
+     *
+     * @return true:Element remains, false:End of object or array
+     * @throws IOException IO error or malformed JSON
+     */
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        consumeValue();
+        pushScope(SCOPE_OBJECT_NAME);
+    }
+
+    void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        mScopeSize--;
+    }
+
+    void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        consumeValue();
+        pushScope(SCOPE_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        mScopeSize--;
+    }
+
+    /**
+     * Consume property name
+     *
+     * @return Property name
+     * @throws IOException IO error or malformed JSON
+     */
+    String nextName() throws IOException {
+        expect(Token.NAME);
+        mScopes[mScopeSize - 1] = SCOPE_OBJECT_VALUE;
+        return new String(mChars, 0, mCharLength);
+    }
+
+    /**
+     * Consume property name and look it up without allocating a String
+     *
+     * @param names Candidate property names
+     * @return Index of the matching candidate ("-1" is returned if there are no hits)
+     * @throws IOException IO error or malformed JSON
+     */
+    int selectName(String[] names) throws IOException {
+        expect(Token.NAME);
+        mScopes[mScopeSize - 1] = SCOPE_OBJECT_VALUE;
+        for (int index = 0; index < names.length; index++) {
+            if (currentTextEquals(names[index])) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Consume string value (numbers are returned in their textual form)
+     *
+     * @return String value (null is returned for JSON null)
+     * @throws IOException IO error or malformed JSON
+     */
+    String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NULL) {
+            consumeValue();
+            return null;
+        }
+        if (token != Token.STRING && token != Token.NUMBER) {
+            throw new IOException("Expected string but was " + token);
+        }
+        consumeValue();
+        return new String(mChars, 0, mCharLength);
+    }
+
+    /**
+     * Consume numeric value (numbers written as strings are accepted)
+     *
+     * @return Numeric value
+     * @throws IOException IO error or malformed JSON
+     */
+    long nextLong() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw new IOException("Expected number but was " + token);
+        }
+        consumeValue();
+
+        long value = 0;
+        boolean negative = false;
+        for (int index = 0; index < mCharLength; index++) {
+            char c = mChars[index];
+            if (index == 0 && c == '-') {
+                negative = true;
+            } else if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else {
+                // fractional or exponential notation
+                return (long) parseDouble();
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    int nextInt() throws IOException {
+        return (int) nextLong();
+    }
+
+    double nextDouble() throws IOException {
+        Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) {
+            throw new IOException("Expected number but was " + token);
+        }
+        consumeValue();
+        return parseDouble();
+    }
+
+    boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        consumeValue();
+        return mBooleanValue;
+    }
+
+    /**
+     * Consume string value holding base64 data and decode it straight from the input<p>
+     * The text of the value is not built when this is called right after the property name, so
+     * large embedded data such as thumbnails costs only its decoded size. The decoded bytes stay
+     * in a buffer of this reader until the next base64 value is decoded.
+     *
+     * @return Number of bytes decoded into {@link #getDecodedBytes()} ("-1" is returned for JSON
+     * null)
+     * @throws IOException IO error, malformed JSON or invalid base64 data
+     */
+    int nextBase64() throws IOException {
+        mByteLength = 0;
+        mBase64Bits = 0;
+        mBase64BitCount = 0;
+
+        if (mPeeked != null) {
+            // the value was already read as text by peek()
+            Token token = peek();
+            if (token == Token.NULL) {
+                consumeValue();
+                return -1;
+            }
+            if (token != Token.STRING) {
+                throw new IOException("Expected string but was " + token);
+            }
+            consumeValue();
+            for (int index = 0; index < mCharLength; index++) {
+                appendBase64(mChars[index]);
+            }
+            return mByteLength;
+        }
+
+        int c = nextNonSeparator();
+        if (c == 'n') {
+            skipLiteral("ull");
+            consumeValue();
+            return -1;
+        }
+        if (c != '"') {
+            throw new IOException("Expected string but was " + (char) c);
+        }
+        while ((c = readRequired()) != '"') {
+            if (c == '\\') {
+                c = readRequired();
+                if (c == 'u') {
+                    int value = 0;
+                    for (int index = 0; index < 4; index++) {
+                        int digit = Character.digit(readRequired(), 16);
+                        if (digit < 0) {
+                            throw new IOException("Invalid escape in JSON");
+                        }
+                        value = (value << 4) | digit;
+                    }
+                    c = value;
+                } else if (c == 'n' || c == 'r' || c == 't') {
+                    // line breaks of MIME style base64
+                    continue;
+                }
+            }
+            appendBase64(c);
+        }
+        consumeValue();
+        return mByteLength;
+    }
+
+    /**
+     * Acquire buffer holding the bytes decoded by {@link #nextBase64()}
+     *
+     * @return Decoded bytes (only the length returned by nextBase64() is valid)
+     */
+    byte[] getDecodedBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Skip the next value including nested objects and arrays
+     *
+     * @throws IOException IO error or malformed JSON
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    selectName(NO_NAMES);
+                    break;
+                case END_DOCUMENT:
+                    throw new IOException("Unexpected end of JSON");
+                default:
+                    consumeValue();
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    private boolean currentTextEquals(String text) {
+        if (text.length() != mCharLength) {
+            return false;
+        }
+        for (int index = 0; index < mCharLength; index++) {
+            if (text.charAt(index) != mChars[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double parseDouble() throws IOException {
+        try {
+            return Double.parseDouble(new String(mChars, 0, mCharLength));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in JSON", e);
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but was " + token);
+        }
+        mPeeked = null;
+    }
+
+    /**
+     * Consume peeked value token and update the scope of the enclosing object
+     */
+    private void consumeValue() {
+        mPeeked = null;
+        if (mScopeSize > 0 && mScopes[mScopeSize - 1] == SCOPE_OBJECT_VALUE) {
+            mScopes[mScopeSize - 1] = SCOPE_OBJECT_NAME;
+        }
+    }
+
+    private int currentScope() {
+        return mScopeSize == 0 ? 0 : mScopes[mScopeSize - 1];
+    }
+
+    private void pushScope(int scope) {
+        if (mScopeSize == mScopes.length) {
+            int[] scopes = new int[mScopes.length * 2];
+            System.arraycopy(mScopes, 0, scopes, 0, mScopeSize);
+            mScopes = scopes;
+        }
+        mScopes[mScopeSize++] = scope;
+    }
+
+    /**
+     * Read next byte that is neither whitespace nor a separator<p>
+     * OSC responses come from the device, so ',' and ':' are treated like whitespace and the
+     * structure is tracked by the scope stack instead.
+     */
+    private int nextNonSeparator() throws IOException {
+        while (true) {
+            int c = read();
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n' && c != ',' && c != ':') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    private int readRequired() throws IOException {
+        int c = read();
+        if (c < 0) {
+            throw new IOException("Unexpected end of JSON");
+        }
+        return c;
+    }
+
+    private void skipLiteral(String rest) throws IOException {
+        for (int index = 0; index < rest.length(); index++) {
+            if (readRequired() != rest.charAt(index)) {
+                throw new IOException("Invalid literal in JSON");
+            }
+        }
+    }
+
+    private void readNumber(int first) throws IOException {
+        mCharLength = 0;
+        appendChar((char) first);
+        while (true) {
+            if (mPosition == mLimit && peekByte() < 0) {
+                return;
+            }
+            int c = mBuffer[mPosition] & 0xff;
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+'
+                    || c == '-') {
+                appendChar((char) c);
+                mPosition++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int peekByte() throws IOException {
+        int c = read();
+        if (c >= 0) {
+            mPosition--;
+        }
+        return c;
+    }
+
+    /**
+     * Read string token decoding escapes and UTF-8 into the char buffer
+     */
+    private void readString() throws IOException {
+        mCharLength = 0;
+        while (true) {
+            int c = readRequired();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            } else if (c < 0x80) {
+                appendChar((char) c);
+            } else if (c < 0xe0) {
+                appendChar((char) (((c & 0x1f) << 6) | (readRequired() & 0x3f)));
+            } else if (c < 0xf0) {
+                int c2 = readRequired() & 0x3f;
+                int c3 = readRequired() & 0x3f;
+                appendChar((char) (((c & 0x0f) << 12) | (c2 << 6) | c3));
+            } else {
+                int c2 = readRequired() & 0x3f;
+                int c3 = readRequired() & 0x3f;
+                int c4 = readRequired() & 0x3f;
+                int codePoint = ((c & 0x07) << 18) | (c2 << 12) | (c3 << 6) | c4;
+                appendChar(Character.highSurrogate(codePoint));
+                appendChar(Character.lowSurrogate(codePoint));
+            }
+        }
+    }
+
+    private void readEscape() throws IOException {
+        int c = readRequired();
+        switch (c) {
+            case 'b':
+                appendChar('\b');
+                break;
+            case 'f':
+                appendChar('\f');
+                break;
+            case 'n':
+                appendChar('\n');
+                break;
+            case 'r':
+                appendChar('\r');
+                break;
+            case 't':
+                appendChar('\t');
+                break;
+            case 'u':
+                int value = 0;
+                for (int index = 0; index < 4; index++) {
+                    int digit = Character.digit(readRequired(), 16);
+                    if (digit < 0) {
+                        throw new IOException("Invalid escape in JSON");
+                    }
+                    value = (value << 4) | digit;
+                }
+                appendChar((char) value);
+                break;
+            default:
+                // '"', '\\' and '/'
+                appendChar((char) c);
+                break;
+        }
+    }
+
+    private void appendBase64(int c) throws IOException {
+        if (c == '=' || c == ' ' || c == '\r' || c == '\n' || c == '\t') {
+            return;
+        }
+        int value = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IOException("Invalid base64 character: " + (char) c);
+        }
+
+        mBase64Bits = (mBase64Bits << 6) | value;
+        mBase64BitCount += 6;
+        if (mBase64BitCount >= 8) {
+            mBase64BitCount -= 8;
+            if (mByteLength == mBytes.length) {
+                byte[] bytes = new byte[Math.max(mBytes.length * 2, 4096)];
+                System.arraycopy(mBytes, 0, bytes, 0, mByteLength);
+                mBytes = bytes;
+            }
+            mBytes[mByteLength++] = (byte) (mBase64Bits >> mBase64BitCount);
+            mBase64Bits &= (1 << mBase64BitCount) - 1;
+        }
+    }
+
+    private void appendChar(char c) {
+        if (mCharLength == mChars.length) {
+            char[] chars = new char[mChars.length * 2];
+            System.arraycopy(mChars, 0, chars, 0, mCharLength);
+            mChars = chars;
+        }
+        mChars[mCharLength++] = c;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Table of pose angles of many files<p>
+ * Angles are held in primitive arrays, and an angle that could not be read is NaN.
+ */
+public class PoseTable {
+    private final String[] mFileUrls;
+    private final float[] mPitch;
+    private final float[] mRoll;
+    private final float[] mHeading;
+    private int mFailedCount = 0;
+    private Map<String, Integer> mIndexes;
+
+    /**
+     * Constructor
+     *
+     * @param fileUrls URLs of the files
+     */
+    PoseTable(String[] fileUrls) {
+        mFileUrls = fileUrls;
+        mPitch = new float[fileUrls.length];
+        mRoll = new float[fileUrls.length];
+        mHeading = new float[fileUrls.length];
+        // files never read are unknown rather than level
+        Arrays.fill(mPitch, Float.NaN);
+        Arrays.fill(mRoll, Float.NaN);
+        Arrays.fill(mHeading, Float.NaN);
+    }
+
+    /**
+     * Set pose angles of file
+     *
+     * @param index Index of the file
+     * @param extractor Extractor that read the file
+     */
+    void set(int index, XmpExtractor extractor) {
+        mPitch[index] = toFloat(extractor.getPosePitchDegrees());
+        mRoll[index] = toFloat(extractor.getPoseRollDegrees());
+        mHeading[index] = toFloat(extractor.getPoseHeadingDegrees());
+    }
+
+    /**
+     * Mark file whose metadata could not be acquired
+     *
+     * @param index Index of the file
+     */
+    void setFailed(int index) {
+        mPitch[index] = Float.NaN;
+        mRoll[index] = Float.NaN;
+        mHeading[index] = Float.NaN;
+    }
+
+    /**
+     * Set number of files whose metadata could not be acquired
+     *
+     * @param failedCount Number of files
+     */
+    void setFailedCount(int failedCount) {
+        mFailedCount = failedCount;
+    }
+
+    /**
+     * Acquire number of files
+     * @return Number of files
+     */
+    public int size() {
+        return mFileUrls.length;
+    }
+
+    /**
+     * Acquire URL of file
+     * @param index Index of the file
+     * @return URL
+     */
+    public String getFileUrl(int index) {
+        return mFileUrls[index];
+    }
+
+    /**
+     * Acquire index of file
+     * @param fileUrl URL of the file
+     * @return Index ("-1" is returned if the file is not in the table)
+     */
+    public synchronized int indexOf(String fileUrl) {
+        if (mIndexes == null) {
+            mIndexes = new HashMap<>(mFileUrls.length * 2);
+            for (int index = 0; index < mFileUrls.length; index++) {
+                mIndexes.put(mFileUrls[index], index);
+            }
+        }
+        Integer index = mIndexes.get(fileUrl);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Acquire pitch angle
+     * @param index Index of the file
+     * @return Pitch angle (NaN is returned if unknown)
+     */
+    public float getPitch(int index) {
+        return mPitch[index];
+    }
+
+    /**
+     * Acquire roll angle
+     * @param index Index of the file
+     * @return Roll angle (NaN is returned if unknown)
+     */
+    public float getRoll(int index) {
+        return mRoll[index];
+    }
+
+    /**
+     * Acquire heading angle
+     * @param index Index of the file
+     * @return Heading angle (NaN is returned if unknown)
+     */
+    public float getHeading(int index) {
+        return mHeading[index];
+    }
+
+    /**
+     * Check whether pitch and roll angles are known
+     * @param index Index of the file
+     * @return true:Known, false:Unknown
+     */
+    public boolean hasPose(int index) {
+        return !Float.isNaN(mPitch[index]) && !Float.isNaN(mRoll[index]);
+    }
+
+    /**
+     * Acquire number of files whose metadata could not be acquired
+     * @return Number of files
+     */
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    private static float toFloat(Double value) {
+        return value != null ? value.floatValue() : Float.NaN;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+/**
+ * Notifier reducing the number of download progress events<p>
+ * Received byte counts are accumulated and passed to {@link HttpDownloadListener#onDataReceived}
+ * at most once per interval, or earlier when a large amount has accumulated.
+ */
+final class ProgressNotifier {
+    private final static long INTERVAL_NS = 100000000L;
+    private final static int MAX_PENDING_BYTES = 4 * 1024 * 1024;
+
+    private final HttpDownloadListener mListener;
+    private long mLastNotifiedNanos = System.nanoTime();
+    private int mPendingBytes = 0;
+    private long mTotalBytes = 0;
+
+    /**
+     * Constructor
+     *
+     * @param listener Listener to be notified (null is allowed)
+     */
+    ProgressNotifier(HttpDownloadListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Add received byte count
+     *
+     * @param size Received byte count
+     */
+    synchronized void add(int size) {
+        mTotalBytes += size;
+        if (mListener == null) {
+            return;
+        }
+        mPendingBytes += size;
+        long now = System.nanoTime();
+        if (mPendingBytes >= MAX_PENDING_BYTES || now - mLastNotifiedNanos >= INTERVAL_NS) {
+            mLastNotifiedNanos = now;
+            notifyPending();
+        }
+    }
+
+    /**
+     * Notify byte count accumulated so far
+     */
+    synchronized void flush() {
+        if (mListener != null) {
+            notifyPending();
+        }
+    }
+
+    /**
+     * Acquire byte count added so far
+     *
+     * @return Received byte count
+     */
+    synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    private void notifyPending() {
+        if (mPendingBytes > 0) {
+            int size = mPendingBytes;
+            mPendingBytes = 0;
+            mListener.onDataReceived(size);
+        }
+    }
+}
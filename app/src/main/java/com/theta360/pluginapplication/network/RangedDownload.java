@@ -0,0 +1,488 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Download of one file split into HTTP range requests<p>
+ * Chunks are fetched over several connections at once and written at their offsets into a
+ * preallocated file. Each chunk is flushed to storage before it is recorded in a journal next to
+ * the file, so running the download again after a failure fetches only the missing chunks. The
+ * first request asks for the first missing chunk, which also tells whether the device supports
+ * ranges; if it does not, the whole file is received over that one request.
+ */
+final class RangedDownload {
+    private final static String JOURNAL_SUFFIX = ".ranges";
+    private final static int MAX_RETRIES = 2;
+
+    private final HttpTransport mTransport;
+    private final BufferPool mBufferPool;
+    private final Executor mExecutor;
+    private final int mConnections;
+    private final int mChunkSize;
+    private final String mFileId;
+    private final File mFile;
+    private final File mJournalFile;
+
+    private long mTotalSize = -1;
+    private String mValidator = "";
+    private int mChunkCount = 0;
+    private BitSet mDone = null;
+    private FileChannel mChannel;
+    private ProgressNotifier mProgress;
+    private int[] mPendingChunks;
+    private final AtomicInteger mNextPending = new AtomicInteger();
+    private final AtomicInteger mRetryCount = new AtomicInteger();
+    private long mResumedSize = 0;
+    private volatile IOException mFailure = null;
+    private final XmpExtractor mXmpExtractor;
+    private HttpDownloadListener mListener;
+
+    /**
+     * Constructor
+     *
+     * @param transport HTTP transport
+     * @param bufferPool Pool of transfer buffers
+     * @param executor Executor running the additional connections
+     * @param connections Number of connections used at the same time
+     * @param chunkSize Size of each range request (unit: bytes)
+     * @param fileId File ID
+     * @param file Destination file
+     * @param xmpExtractor Extractor fed with the head of the file
+     */
+    RangedDownload(HttpTransport transport, BufferPool bufferPool, Executor executor,
+            int connections, int chunkSize, String fileId, File file, XmpExtractor xmpExtractor) {
+        mTransport = transport;
+        mBufferPool = bufferPool;
+        mExecutor = executor;
+        mConnections = connections;
+        mChunkSize = chunkSize;
+        mFileId = fileId;
+        mFile = file;
+        mJournalFile = getJournalFile(file);
+        mXmpExtractor = xmpExtractor;
+    }
+
+    /**
+     * Acquire journal of download into file, which exists while the download is incomplete
+     *
+     * @param file Destination file
+     * @return Journal file
+     */
+    static File getJournalFile(File file) {
+        return new File(file.getPath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Download file, resuming a previous attempt if its journal is still valid
+     *
+     * @param listener Listener for receiving the file size and the download progress (null is
+     * allowed)
+     * @return Size of the file (unit: bytes)
+     * @throws IOException Failed to download; the journal is kept for resuming
+     */
+    long run(HttpDownloadListener listener) throws IOException {
+        mListener = listener;
+        mProgress = new ProgressNotifier(listener);
+        loadJournal();
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mFile, "rw");
+        try {
+            mChannel = randomAccessFile.getChannel();
+
+            int firstChunk = mDone != null ? mDone.nextClearBit(0) : 0;
+            if (mDone != null && firstChunk >= mChunkCount) {
+                notifyStart(listener);
+                finish();
+                return mTotalSize;
+            }
+
+            long start = (long) firstChunk * mChunkSize;
+            HttpTransport.Response response = mTransport.get(mFileId,
+                    rangeHeader(start, start + mChunkSize - 1), CommandScheduler.Priority.TRANSFER);
+            if (response.getStatusCode() == 200) {
+                return receiveWhole(response, listener);
+            }
+            if (response.getStatusCode() != 206) {
+                response.close();
+                throw new IOException("Failed to download " + mFileId + ": HTTP "
+                        + response.getStatusCode());
+            }
+
+            long[] range = parseContentRange(response);
+            String validator = getValidator(response);
+            if (mDone != null && (range[2] != mTotalSize || !validator.equals(mValidator))) {
+                // the file on the device is not the one the journal was written for
+                response.close();
+                discardJournal();
+                return run(listener);
+            }
+            if (mDone == null) {
+                mTotalSize = range[2];
+                mValidator = validator;
+                mChunkCount = (int) ((mTotalSize + mChunkSize - 1) / mChunkSize);
+                mDone = new BitSet(mChunkCount);
+                randomAccessFile.setLength(mTotalSize);
+            }
+            notifyStart(listener);
+
+            receiveChunk(response, firstChunk);
+            fetchPendingChunks();
+            finish();
+            return mTotalSize;
+        } finally {
+            mChannel = null;
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Acquire size received by this download, excluding chunks of a previous attempt
+     *
+     * @return Received size (unit: bytes)
+     */
+    long getReceivedBytes() {
+        return mProgress != null ? mProgress.getTotalBytes() - mResumedSize : 0;
+    }
+
+    /**
+     * Acquire number of chunk requests sent again after a failure
+     *
+     * @return Number of retries
+     */
+    int getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    /**
+     * Notify total size and the size already received by a previous attempt
+     */
+    private void notifyStart(HttpDownloadListener listener) {
+        if (listener != null) {
+            listener.onTotalSize(mTotalSize);
+        }
+        long resumedSize = 0;
+        for (int chunk = mDone.nextSetBit(0); chunk >= 0; chunk = mDone.nextSetBit(chunk + 1)) {
+            resumedSize += getChunkLength(chunk);
+        }
+        mResumedSize = resumedSize;
+        while (resumedSize > 0) {
+            int size = (int) Math.min(resumedSize, Integer.MAX_VALUE);
+            mProgress.add(size);
+            resumedSize -= size;
+        }
+    }
+
+    /**
+     * Fetch chunks not received yet over several connections<p>
+     * The calling thread works as one of the connections, and runs the others itself if the
+     * executor has not started them, so that the download cannot wait on a busy executor.
+     */
+    private void fetchPendingChunks() throws IOException {
+        List<Integer> pending = new ArrayList<>();
+        for (int chunk = mDone.nextClearBit(0); chunk < mChunkCount;
+                chunk = mDone.nextClearBit(chunk + 1)) {
+            pending.add(chunk);
+        }
+        mPendingChunks = new int[pending.size()];
+        for (int index = 0; index < mPendingChunks.length; index++) {
+            mPendingChunks[index] = pending.get(index);
+        }
+
+        List<FutureTask<Void>> workers = new ArrayList<>();
+        int workerCount = Math.min(mConnections, mPendingChunks.length) - 1;
+        for (int index = 0; index < workerCount; index++) {
+            FutureTask<Void> worker = new FutureTask<>(this::fetchChunks, null);
+            workers.add(worker);
+            mExecutor.execute(worker);
+        }
+
+        fetchChunks();
+        for (FutureTask<Void> worker : workers) {
+            worker.run();
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Download was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to download " + mFileId, e.getCause());
+            }
+        }
+
+        if (mFailure != null) {
+            throw mFailure;
+        }
+    }
+
+    /**
+     * Fetch pending chunks one after another until none is left or a chunk fails
+     */
+    private void fetchChunks() {
+        int index;
+        while (mFailure == null && (index = mNextPending.getAndIncrement())
+                < mPendingChunks.length) {
+            int chunk = mPendingChunks[index];
+            IOException lastException = null;
+            for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+                try {
+                    fetchChunk(chunk);
+                    lastException = null;
+                    break;
+                } catch (IOException e) {
+                    lastException = e;
+                    if (attempt < MAX_RETRIES) {
+                        mRetryCount.incrementAndGet();
+                    }
+                }
+            }
+            if (lastException != null) {
+                mFailure = lastException;
+            }
+        }
+    }
+
+    private void fetchChunk(int chunk) throws IOException {
+        long start = (long) chunk * mChunkSize;
+        // each chunk is admitted separately, so waiting commands are sent between chunks
+        HttpTransport.Response response = mTransport.get(mFileId,
+                rangeHeader(start, start + getChunkLength(chunk) - 1),
+                CommandScheduler.Priority.TRANSFER);
+        if (response.getStatusCode() != 206) {
+            response.close();
+            throw new IOException("Range request of " + mFileId + " failed: HTTP "
+                    + response.getStatusCode());
+        }
+        long[] range = parseContentRange(response);
+        if (range[0] != start || range[2] != mTotalSize) {
+            response.close();
+            throw new IOException("Unexpected Content-Range of " + mFileId);
+        }
+        receiveChunk(response, chunk);
+    }
+
+    /**
+     * Write body of a range response at the offset of the chunk and record the chunk as done
+     */
+    private void receiveChunk(HttpTransport.Response response, int chunk) throws IOException {
+        long position = (long) chunk * mChunkSize;
+        long length = getChunkLength(chunk);
+        InputStream is = response.getInputStream();
+        ByteBuffer buffer = mBufferPool.acquire();
+        byte[] array = buffer.array();
+        long received = 0;
+
+        try {
+            while (received < length) {
+                int filled = 0;
+                int limit = (int) Math.min(array.length, length - received);
+                int size;
+                while (filled < limit && (size = is.read(array, filled, limit - filled)) >= 0) {
+                    filled += size;
+                }
+                if (filled < limit) {
+                    throw new EOFException("Unexpected end of range of " + mFileId);
+                }
+                if (chunk == 0) {
+                    // only the calling thread receives the first chunk
+                    mXmpExtractor.feed(array, 0, filled, mListener);
+                }
+
+                buffer.clear();
+                buffer.limit(filled);
+                while (buffer.hasRemaining()) {
+                    mChannel.write(buffer, position + received + buffer.position());
+                }
+                received += filled;
+            }
+        } finally {
+            mBufferPool.release(buffer);
+            is.close();
+        }
+
+        // the chunk counts as verified only once its data is on storage
+        mChannel.force(false);
+        synchronized (this) {
+            mDone.set(chunk);
+            saveJournal();
+        }
+        mProgress.add((int) length);
+    }
+
+    /**
+     * Receive whole file from a device that ignored the range request
+     */
+    private long receiveWhole(HttpTransport.Response response, HttpDownloadListener listener)
+            throws IOException {
+        discardJournal();
+        mChannel.truncate(0);
+        mTotalSize = response.getContentLength();
+        if (listener != null) {
+            listener.onTotalSize(mTotalSize);
+        }
+
+        InputStream is = response.getInputStream();
+        ByteBuffer buffer = mBufferPool.acquire();
+        byte[] array = buffer.array();
+        long received = 0;
+
+        try {
+            int size;
+            while ((size = is.read(array, 0, array.length)) >= 0) {
+                mXmpExtractor.feed(array, 0, size, mListener);
+                buffer.clear();
+                buffer.limit(size);
+                while (buffer.hasRemaining()) {
+                    mChannel.write(buffer, received + buffer.position());
+                }
+                received += size;
+                mProgress.add(size);
+            }
+        } finally {
+            mBufferPool.release(buffer);
+            is.close();
+        }
+
+        mProgress.flush();
+        return received;
+    }
+
+    private void finish() throws IOException {
+        mProgress.flush();
+        if (!mJournalFile.delete() && mJournalFile.exists()) {
+            throw new IOException("Failed to delete " + mJournalFile);
+        }
+    }
+
+    private long getChunkLength(int chunk) {
+        return Math.min(mChunkSize, mTotalSize - (long) chunk * mChunkSize);
+    }
+
+    private static String rangeHeader(long start, long end) {
+        return "Range: bytes=" + start + "-" + end + "\r\n";
+    }
+
+    /**
+     * Parse Content-Range header
+     *
+     * @return First byte, last byte and total size
+     */
+    private long[] parseContentRange(HttpTransport.Response response) throws IOException {
+        String contentRange = response.getHeader("Content-Range");
+        try {
+            int dash = contentRange.indexOf('-');
+            int slash = contentRange.indexOf('/');
+            return new long[]{
+                    Long.parseLong(contentRange.substring(contentRange.indexOf(' ') + 1, dash)),
+                    Long.parseLong(contentRange.substring(dash + 1, slash)),
+                    Long.parseLong(contentRange.substring(slash + 1))};
+        } catch (RuntimeException e) {
+            response.close();
+            throw new IOException("Invalid Content-Range: " + contentRange);
+        }
+    }
+
+    private static String getValidator(HttpTransport.Response response) {
+        String validator = response.getHeader("ETag");
+        if (validator == null) {
+            validator = response.getHeader("Last-Modified");
+        }
+        return validator != null ? validator : "";
+    }
+
+    /**
+     * Restore progress of a previous attempt if it matches the destination file
+     */
+    private void loadJournal() {
+        mDone = null;
+        if (!mJournalFile.exists()) {
+            return;
+        }
+
+        Properties journal = new Properties();
+        try (InputStream is = new FileInputStream(mJournalFile)) {
+            journal.load(is);
+            long totalSize = Long.parseLong(journal.getProperty("size"));
+            int chunkSize = Integer.parseInt(journal.getProperty("chunkSize"));
+            String done = journal.getProperty("done");
+            if (chunkSize != mChunkSize || mFile.length() != totalSize) {
+                discardJournal();
+                return;
+            }
+
+            mTotalSize = totalSize;
+            mValidator = journal.getProperty("validator", "");
+            mChunkCount = (int) ((totalSize + chunkSize - 1) / chunkSize);
+            mDone = new BitSet(mChunkCount);
+            for (int chunk = 0; chunk < mChunkCount && chunk < done.length(); chunk++) {
+                if (done.charAt(chunk) == '1') {
+                    mDone.set(chunk);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            mDone = null;
+            discardJournal();
+        }
+    }
+
+    /**
+     * Record received chunks; the journal is replaced atomically by renaming
+     */
+    private void saveJournal() throws IOException {
+        StringBuilder done = new StringBuilder(mChunkCount);
+        for (int chunk = 0; chunk < mChunkCount; chunk++) {
+            done.append(mDone.get(chunk) ? '1' : '0');
+        }
+        Properties journal = new Properties();
+        journal.setProperty("size", Long.toString(mTotalSize));
+        journal.setProperty("chunkSize", Integer.toString(mChunkSize));
+        journal.setProperty("validator", mValidator);
+        journal.setProperty("done", done.toString());
+
+        File temporaryFile = new File(mJournalFile.getPath() + ".tmp");
+        try (OutputStream os = new FileOutputStream(temporaryFile)) {
+            journal.store(os, mFileId);
+        }
+        if (!temporaryFile.renameTo(mJournalFile)) {
+            throw new IOException("Failed to write " + mJournalFile);
+        }
+    }
+
+    private void discardJournal() {
+        mDone = null;
+        mJournalFile.delete();
+    }
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LruCache;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache of thumbnails keyed by file URL<p>
+ * Decoded bitmaps are kept in a memory cache bounded by bytes, and the encoded thumbnails in a
+ * directory bounded by bytes. Bitmaps evicted from memory are left to the garbage collector
+ * instead of being reused by later decodes, so a thumbnail stays valid while a caller holds it.
+ */
+public class ThumbnailCache {
+    private final static String FILE_SUFFIX = ".jpg";
+    // eviction removes files until the directory is this fraction of its limit
+    private final static double DISK_TRIM_RATIO = 0.9d;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    private final Object mDiskLock = new Object();
+    private long mDiskBytes = -1;
+
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param directory Directory storing encoded thumbnails, e.g. under Context#getCacheDir()
+     * @param maxMemoryBytes Maximum size of decoded bitmaps kept in memory (unit: bytes)
+     * @param maxDiskBytes Maximum size of the directory (unit: bytes)
+     */
+    public ThumbnailCache(File directory, int maxMemoryBytes, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxDiskBytes = maxDiskBytes;
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+        directory.mkdirs();
+    }
+
+    /**
+     * Acquire thumbnail from memory, or from the directory if it is not in memory
+     *
+     * @param fileUrl File URL
+     * @return Thumbnail (null is returned if it is not cached)
+     */
+    public Bitmap get(String fileUrl) {
+        Bitmap bitmap = mMemoryCache.get(fileUrl);
+        if (bitmap != null) {
+            mMemoryHitCount.incrementAndGet();
+            return bitmap;
+        }
+
+        byte[] data = readFile(fileUrl);
+        if (data != null) {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+            if (bitmap != null) {
+                mDiskHitCount.incrementAndGet();
+                mMemoryCache.put(fileUrl, bitmap);
+                return bitmap;
+            }
+        }
+
+        mMissCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Store encoded thumbnail and decode it
+     *
+     * @param fileUrl File URL
+     * @param data Encoded thumbnail
+     * @param offset Start position of the thumbnail in data
+     * @param length Length of the thumbnail
+     * @return Decoded thumbnail (null is returned if the data cannot be decoded)
+     */
+    public Bitmap put(String fileUrl, byte[] data, int offset, int length) {
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, offset, length);
+        if (bitmap == null) {
+            return null;
+        }
+        writeFile(fileUrl, data, offset, length);
+        mMemoryCache.put(fileUrl, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Drop thumbnail of file, e.g. after the file was deleted
+     *
+     * @param fileUrl File URL
+     */
+    public void remove(String fileUrl) {
+        mMemoryCache.remove(fileUrl);
+        synchronized (mDiskLock) {
+            File file = getFile(fileUrl);
+            long length = file.length();
+            if (file.delete() && mDiskBytes >= 0) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Drop all thumbnails held in memory, e.g. when the system is low on memory
+     */
+    public void evictMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    /**
+     * Acquire number of lookups answered from memory
+     *
+     * @return Number of hits
+     */
+    public long getMemoryHitCount() {
+        return mMemoryHitCount.get();
+    }
+
+    /**
+     * Acquire number of lookups answered from the directory
+     *
+     * @return Number of hits
+     */
+    public long getDiskHitCount() {
+        return mDiskHitCount.get();
+    }
+
+    /**
+     * Acquire number of lookups not in the cache
+     *
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Acquire ratio of lookups answered from memory or the directory
+     *
+     * @return Hit rate (value between 0 and 1)
+     */
+    public double getHitRate() {
+        long hitCount = mMemoryHitCount.get() + mDiskHitCount.get();
+        long total = hitCount + mMissCount.get();
+        if (total == 0) {
+            return 0.0d;
+        }
+        return (double) hitCount / total;
+    }
+
+    /**
+     * Acquire size of bitmaps held in memory
+     *
+     * @return Size (unit: bytes)
+     */
+    public long getMemoryBytes() {
+        return mMemoryCache.size();
+    }
+
+    /**
+     * Acquire size of thumbnails stored in the directory
+     *
+     * @return Size (unit: bytes)
+     */
+    public long getDiskBytes() {
+        synchronized (mDiskLock) {
+            return getDiskBytesLocked();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "memoryHits=" + getMemoryHitCount() + " diskHits=" + getDiskHitCount()
+                + " misses=" + getMissCount() + " memoryBytes=" + getMemoryBytes()
+                + " diskBytes=" + getDiskBytes();
+    }
+
+    private byte[] readFile(String fileUrl) {
+        synchronized (mDiskLock) {
+            File file = getFile(fileUrl);
+            long length = file.length();
+            if (length <= 0 || length > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            byte[] data = new byte[(int) length];
+            try (InputStream is = new FileInputStream(file)) {
+                int offset = 0;
+                int size;
+                while (offset < data.length
+                        && (size = is.read(data, offset, data.length - offset)) >= 0) {
+                    offset += size;
+                }
+                if (offset < data.length) {
+                    return null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+
+            // the modification time orders files for eviction
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        }
+    }
+
+    private void writeFile(String fileUrl, byte[] data, int offset, int length) {
+        synchronized (mDiskLock) {
+            File file = getFile(fileUrl);
+            File temporaryFile = new File(file.getPath() + ".tmp");
+            long previousLength = file.length();
+            try (OutputStream os = new FileOutputStream(temporaryFile)) {
+                os.write(data, offset, length);
+            } catch (IOException e) {
+                e.printStackTrace();
+                temporaryFile.delete();
+                return;
+            }
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+                return;
+            }
+
+            mDiskBytes = getDiskBytesLocked() - previousLength + length;
+            if (mDiskBytes > mMaxDiskBytes) {
+                trimDisk();
+            }
+        }
+    }
+
+    /**
+     * Delete least recently used files until the directory is below its limit
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int index = 0; index < files.length; index++) {
+            lastModified[index] = files[index].lastModified();
+            order[index] = index;
+        }
+        Arrays.sort(order, Comparator.comparingLong(index -> lastModified[index]));
+
+        long target = (long) (mMaxDiskBytes * DISK_TRIM_RATIO);
+        for (int index = 0; index < order.length && mDiskBytes > target; index++) {
+            File file = files[order[index]];
+            long length = file.length();
+            if (file.delete()) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+
+    private long getDiskBytesLocked() {
+        if (mDiskBytes < 0) {
+            long total = 0;
+            File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+            if (files != null) {
+                for (File file : files) {
+                    total += file.length();
+                }
+            }
+            mDiskBytes = total;
+        }
+        return mDiskBytes;
+    }
+
+    private File getFile(String fileUrl) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(fileUrl.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2 + FILE_SUFFIX.length());
+            for (byte value : hash) {
+                name.append(Character.forDigit((value >> 4) & 0xF, 16));
+                name.append(Character.forDigit(value & 0xF, 16));
+            }
+            return new File(mDirectory, name.append(FILE_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
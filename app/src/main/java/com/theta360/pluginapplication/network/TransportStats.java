@@ -0,0 +1,118 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+/**
+ * Statistics class of HTTP transport
+ */
+public class TransportStats {
+    private final long mRequestCount;
+    private final long mReusedCount;
+    private final long mOpenedCount;
+    private final long mTotalLatencyNanos;
+    private final long mMaxLatencyNanos;
+    private final long mLastLatencyNanos;
+
+    /**
+     * Constructor
+     *
+     * @param requestCount Number of requests sent
+     * @param reusedCount Number of requests sent over a pooled connection
+     * @param openedCount Number of connections opened
+     * @param totalLatencyNanos Sum of request latencies (unit: nanoseconds)
+     * @param maxLatencyNanos Maximum request latency (unit: nanoseconds)
+     * @param lastLatencyNanos Latency of the most recent request (unit: nanoseconds)
+     */
+    TransportStats(long requestCount, long reusedCount, long openedCount, long totalLatencyNanos,
+            long maxLatencyNanos, long lastLatencyNanos) {
+        mRequestCount = requestCount;
+        mReusedCount = reusedCount;
+        mOpenedCount = openedCount;
+        mTotalLatencyNanos = totalLatencyNanos;
+        mMaxLatencyNanos = maxLatencyNanos;
+        mLastLatencyNanos = lastLatencyNanos;
+    }
+
+    /**
+     * Acquire number of requests sent
+     * @return Number of requests
+     */
+    public long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Acquire number of requests sent over a pooled connection
+     * @return Number of reused requests
+     */
+    public long getReusedCount() {
+        return mReusedCount;
+    }
+
+    /**
+     * Acquire number of connections opened
+     * @return Number of connections
+     */
+    public long getOpenedCount() {
+        return mOpenedCount;
+    }
+
+    /**
+     * Acquire ratio of requests that reused a pooled connection
+     * @return Reuse ratio (value between 0 and 1)
+     */
+    public double getReuseRatio() {
+        if (mRequestCount == 0) {
+            return 0.0d;
+        }
+        return (double) mReusedCount / mRequestCount;
+    }
+
+    /**
+     * Acquire average time from sending a request to receiving the response header
+     * @return Average latency (unit: milliseconds)
+     */
+    public double getAverageLatencyMillis() {
+        if (mRequestCount == 0) {
+            return 0.0d;
+        }
+        return mTotalLatencyNanos / 1000000.0d / mRequestCount;
+    }
+
+    /**
+     * Acquire maximum time from sending a request to receiving the response header
+     * @return Maximum latency (unit: milliseconds)
+     */
+    public double getMaxLatencyMillis() {
+        return mMaxLatencyNanos / 1000000.0d;
+    }
+
+    /**
+     * Acquire latency of the most recent request
+     * @return Latency (unit: milliseconds)
+     */
+    public double getLastLatencyMillis() {
+        return mLastLatencyNanos / 1000000.0d;
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + mRequestCount + " reused=" + mReusedCount + " opened=" + mOpenedCount
+                + " avgLatencyMs=" + getAverageLatencyMillis() + " maxLatencyMs="
+                + getMaxLatencyMillis();
+    }
+}
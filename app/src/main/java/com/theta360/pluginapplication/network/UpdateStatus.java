@@ -0,0 +1,52 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+/**
+ * Result class of /osc/checkForUpdates
+ */
+final class UpdateStatus {
+    private final String mFingerprint;
+    private final int mThrottleTimeout;
+
+    /**
+     * Constructor
+     *
+     * @param fingerprint Current fingerprint of device status
+     * @param throttleTimeout Time to wait before the next check (unit: seconds, -1 if not given)
+     */
+    UpdateStatus(String fingerprint, int throttleTimeout) {
+        mFingerprint = fingerprint;
+        mThrottleTimeout = throttleTimeout;
+    }
+
+    /**
+     * Acquire current fingerprint of device status
+     * @return Fingerprint
+     */
+    String getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * Acquire time the device asks to wait before the next check
+     * @return Throttle timeout (unit: seconds, -1 is returned if not given)
+     */
+    int getThrottleTimeout() {
+        return mThrottleTimeout;
+    }
+}
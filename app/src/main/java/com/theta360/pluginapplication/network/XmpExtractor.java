@@ -0,0 +1,330 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Extractor of pose angles from the XMP packet of a JPEG file<p>
+ * Data is fed in the order it is received. The marker segments at the head of the file are
+ * walked, and only the APP1 segment holding XMP is buffered, so the pose is known once the first
+ * few KB have arrived. Segments after the XMP packet and the image data are not examined.
+ */
+public class XmpExtractor {
+    private final static int STATE_START = 0;
+    private final static int STATE_START_TYPE = 1;
+    private final static int STATE_MARKER = 2;
+    private final static int STATE_MARKER_TYPE = 3;
+    private final static int STATE_LENGTH_HIGH = 4;
+    private final static int STATE_LENGTH_LOW = 5;
+    private final static int STATE_SEGMENT = 6;
+    private final static int STATE_FINISHED = 7;
+
+    private final static int MARKER_TEM = 0x01;
+    private final static int MARKER_RST0 = 0xD0;
+    private final static int MARKER_RST7 = 0xD7;
+    private final static int MARKER_SOI = 0xD8;
+    private final static int MARKER_EOI = 0xD9;
+    private final static int MARKER_SOS = 0xDA;
+    private final static int MARKER_APP1 = 0xE1;
+    private final static int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private final static byte[] XMP_NAMESPACE =
+            "http://ns.adobe.com/xap/1.0/\0".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] XMP_TAG_NAME_PITCH =
+            "PosePitchDegrees".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] XMP_TAG_NAME_ROLL =
+            "PoseRollDegrees".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] XMP_TAG_NAME_HEADING =
+            "PoseHeadingDegrees".getBytes(StandardCharsets.US_ASCII);
+
+    private int mState = STATE_START;
+    private int mMarker;
+    private int mRemaining;
+    private boolean mCollecting;
+    private byte[] mSegment;
+    private int mSegmentLength;
+    private boolean mXmpFound = false;
+
+    private Double mPosePitchDegrees;
+    private Double mPoseRollDegrees;
+    private Double mPoseHeadingDegrees;
+
+    /**
+     * Feed next part of the file
+     *
+     * @param data Received data
+     * @param offset Start position of the part in data
+     * @param length Length of the part
+     * @return true:No more data is needed, false:More data is needed
+     */
+    public boolean feed(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int index = offset;
+
+        while (index < end && mState != STATE_FINISHED) {
+            if (mState == STATE_SEGMENT) {
+                int size = Math.min(end - index, mRemaining);
+                if (mCollecting) {
+                    System.arraycopy(data, index, mSegment, mSegmentLength, size);
+                    mSegmentLength += size;
+                }
+                index += size;
+                mRemaining -= size;
+                if (mRemaining == 0) {
+                    endSegment();
+                }
+                continue;
+            }
+
+            int value = data[index++] & 0xFF;
+            switch (mState) {
+                case STATE_START:
+                    mState = value == 0xFF ? STATE_START_TYPE : STATE_FINISHED;
+                    break;
+                case STATE_START_TYPE:
+                    mState = value == MARKER_SOI ? STATE_MARKER : STATE_FINISHED;
+                    break;
+                case STATE_MARKER:
+                    mState = value == 0xFF ? STATE_MARKER_TYPE : STATE_FINISHED;
+                    break;
+                case STATE_MARKER_TYPE:
+                    if (value == 0xFF) {
+                        // fill byte
+                        break;
+                    }
+                    if (value == MARKER_SOS || value == MARKER_EOI) {
+                        mState = STATE_FINISHED;
+                    } else if (value == MARKER_TEM || value == MARKER_SOI
+                            || (value >= MARKER_RST0 && value <= MARKER_RST7)) {
+                        mState = STATE_MARKER;
+                    } else {
+                        mMarker = value;
+                        mState = STATE_LENGTH_HIGH;
+                    }
+                    break;
+                case STATE_LENGTH_HIGH:
+                    mRemaining = value << 8;
+                    mState = STATE_LENGTH_LOW;
+                    break;
+                case STATE_LENGTH_LOW:
+                    mRemaining = (mRemaining | value) - 2;
+                    if (mRemaining < 0) {
+                        mState = STATE_FINISHED;
+                        break;
+                    }
+                    beginSegment();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return mState == STATE_FINISHED;
+    }
+
+    /**
+     * Feed next part of the file and notify the pose once it is found
+     *
+     * @param data Received data
+     * @param offset Start position of the part in data
+     * @param length Length of the part
+     * @param listener Listener to be notified (null is allowed)
+     */
+    void feed(byte[] data, int offset, int length, HttpDownloadListener listener) {
+        if (!isFinished() && feed(data, offset, length) && hasPose() && listener != null) {
+            listener.onPoseReceived(mPosePitchDegrees, mPoseRollDegrees, mPoseHeadingDegrees);
+        }
+    }
+
+    /**
+     * Set pose angles to image data
+     *
+     * @param imageData Image data
+     */
+    void applyTo(ImageData imageData) {
+        imageData.setPitch(mPosePitchDegrees);
+        imageData.setRoll(mPoseRollDegrees);
+        if (mPoseHeadingDegrees != null) {
+            imageData.setYaw(mPoseHeadingDegrees);
+        }
+    }
+
+    /**
+     * Check whether no more data is needed
+     *
+     * @return true:Finished, false:More data is needed
+     */
+    public boolean isFinished() {
+        return mState == STATE_FINISHED;
+    }
+
+    /**
+     * Check whether the XMP packet was found
+     *
+     * @return true:Found, false:Not found
+     */
+    public boolean isXmpFound() {
+        return mXmpFound;
+    }
+
+    /**
+     * Check whether both pitch and roll angles were found
+     *
+     * @return true:Found, false:Not found
+     */
+    public boolean hasPose() {
+        return mPosePitchDegrees != null && mPoseRollDegrees != null;
+    }
+
+    /**
+     * Acquire pitch angle set for XMP
+     * @return Pitch angle (null is returned if not found)
+     */
+    public Double getPosePitchDegrees() {
+        return mPosePitchDegrees;
+    }
+
+    /**
+     * Acquire roll angle set for XMP
+     * @return Roll angle (null is returned if not found)
+     */
+    public Double getPoseRollDegrees() {
+        return mPoseRollDegrees;
+    }
+
+    /**
+     * Acquire heading angle set for XMP
+     * @return Heading angle (null is returned if not found)
+     */
+    public Double getPoseHeadingDegrees() {
+        return mPoseHeadingDegrees;
+    }
+
+    /**
+     * Look for pose properties in XMP text, in either element or attribute form
+     *
+     * @param data Data holding XMP text
+     * @param offset Start position of the text
+     * @param length Length of the text
+     */
+    void scan(byte[] data, int offset, int length) {
+        int end = offset + length;
+        mPosePitchDegrees = findValue(data, offset, end, XMP_TAG_NAME_PITCH);
+        mPoseRollDegrees = findValue(data, offset, end, XMP_TAG_NAME_ROLL);
+        mPoseHeadingDegrees = findValue(data, offset, end, XMP_TAG_NAME_HEADING);
+    }
+
+    private void beginSegment() {
+        mCollecting = mMarker == MARKER_APP1 && mRemaining > XMP_NAMESPACE.length;
+        mSegmentLength = 0;
+        if (mCollecting && mSegment == null) {
+            mSegment = new byte[MAX_SEGMENT_LENGTH];
+        }
+        if (mRemaining == 0) {
+            endSegment();
+        } else {
+            mState = STATE_SEGMENT;
+        }
+    }
+
+    private void endSegment() {
+        mState = STATE_MARKER;
+        if (mCollecting && startsWith(mSegment, mSegmentLength, XMP_NAMESPACE)) {
+            mXmpFound = true;
+            scan(mSegment, XMP_NAMESPACE.length, mSegmentLength - XMP_NAMESPACE.length);
+            mSegment = null;
+            mState = STATE_FINISHED;
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] prefix) {
+        return length >= prefix.length && matches(data, 0, prefix);
+    }
+
+    /**
+     * Find value of property such as {@code <GPano:PosePitchDegrees>1.5</...>} or
+     * {@code GPano:PosePitchDegrees="1.5"}
+     *
+     * @return Value (null is returned if not found or not a number)
+     */
+    private static Double findValue(byte[] data, int start, int end, byte[] name) {
+        int index = indexOf(data, start, end, name);
+        while (index >= 0) {
+            int valueIndex = index + name.length;
+            byte previous = index > start ? data[index - 1] : 0;
+            if ((previous == ':' || previous == '<' || previous == ' ') && valueIndex < end) {
+                byte terminator = 0;
+                if (data[valueIndex] == '>') {
+                    terminator = '<';
+                    valueIndex++;
+                } else if (data[valueIndex] == '=' && valueIndex + 1 < end
+                        && (data[valueIndex + 1] == '"' || data[valueIndex + 1] == '\'')) {
+                    terminator = data[valueIndex + 1];
+                    valueIndex += 2;
+                }
+                Double value = terminator != 0
+                        ? parseNumber(data, valueIndex, end, terminator) : null;
+                if (value != null) {
+                    return value;
+                }
+            }
+            index = indexOf(data, index + 1, end, name);
+        }
+        return null;
+    }
+
+    private static Double parseNumber(byte[] data, int start, int end, byte terminator) {
+        int valueEnd = start;
+        while (valueEnd < end && data[valueEnd] != terminator) {
+            valueEnd++;
+        }
+        if (valueEnd == end) {
+            return null;
+        }
+        try {
+            return Double.valueOf(
+                    new String(data, start, valueEnd - start, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Search position of specific data pattern
+     *
+     * @return The position where the pattern starts. "-1" is returned if there are no hits.
+     */
+    private static int indexOf(byte[] data, int start, int end, byte[] pattern) {
+        int last = end - pattern.length;
+        for (int index = start; index <= last; index++) {
+            if (matches(data, index, pattern)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] data, int index, byte[] pattern) {
+        for (int patternIndex = 0; patternIndex < pattern.length; patternIndex++) {
+            if (data[index + patternIndex] != pattern[patternIndex]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.task;
+
+/**
+ * Result class of a shot taken by {@link CaptureSession}
+ */
+public class CaptureResult {
+    private final long mSequence;
+    private final String mFileUrl;
+    private final long mLatencyNanos;
+
+    /**
+     * Constructor
+     *
+     * @param sequence Number of the shot in the session, starting from 1
+     * @param fileUrl URL of the saved file
+     * @param latencyNanos Time from the shutter request to the file URL (unit: nanoseconds)
+     */
+    CaptureResult(long sequence, String fileUrl, long latencyNanos) {
+        mSequence = sequence;
+        mFileUrl = fileUrl;
+        mLatencyNanos = latencyNanos;
+    }
+
+    /**
+     * Acquire number of the shot in the session
+     * @return Sequence number, starting from 1
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * Acquire URL of the saved file
+     * @return File URL
+     */
+    public String getFileUrl() {
+        return mFileUrl;
+    }
+
+    /**
+     * Acquire time from the shutter request to the URL of the saved file
+     * @return Latency (unit: milliseconds)
+     */
+    public double getLatencyMillis() {
+        return mLatencyNanos / 1000000.0d;
+    }
+
+    @Override
+    public String toString() {
+        return "sequence=" + mSequence + " fileUrl=" + mFileUrl + " latencyMs="
+                + getLatencyMillis();
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.task;
+
+import com.theta360.pluginapplication.model.ImageSize;
+import com.theta360.pluginapplication.network.CommandStatusScheduler;
+import com.theta360.pluginapplication.network.HttpConnector;
+import com.theta360.pluginapplication.network.HttpEventListener;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived session taking still images<p>
+ * The session keeps one connection to the device for all shots, so the capture mode, the shooting
+ * size and the expected capture latency held by the connection are reused from shot to shot.
+ * Shots are taken one at a time on a dedicated thread in the order requested, and each shot
+ * reports the time from the shutter request to the URL of the saved file.
+ */
+public class CaptureSession implements Closeable {
+    public final static String DEFAULT_CAMERA_ADDRESS = "127.0.0.1:8080";
+
+    private final HttpConnector mConnector;
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    private final Object mStatsLock = new Object();
+    private long mShotCount = 0;
+    private long mFailedCount = 0;
+    private long mTotalLatencyNanos = 0;
+    private long mMaxLatencyNanos = 0;
+    private long mLastLatencyNanos = 0;
+
+    /**
+     * Constructor connecting to the device running the plugin<p>
+     * The new connection shares the command scheduler of the device with the other connections,
+     * so shots are still admitted ahead of their transfers. Pass the connection the application
+     * already uses to {@link #CaptureSession(HttpConnector)} to also share its capture mode and
+     * option caches.
+     */
+    public CaptureSession() {
+        this(new HttpConnector(DEFAULT_CAMERA_ADDRESS));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connector Connection to device, kept for the lifetime of the session
+     */
+    public CaptureSession(HttpConnector connector) {
+        mConnector = connector;
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "CaptureSession");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Prepare the first shot<p>
+     * Starts the session and status check threads, sets the capture mode to image and reads the
+     * shooting size, so that the first shot sends only the capture command.
+     *
+     * @return Future completed with the current shooting size
+     */
+    public CompletableFuture<ImageSize> warmUp() {
+        CompletableFuture<ImageSize> future = new CompletableFuture<>();
+        CommandStatusScheduler.getInstance().prestart();
+        mExecutor.execute(() -> {
+            ImageSize imageSize = mConnector.getImageSize();
+            if (imageSize != null) {
+                future.complete(imageSize);
+            } else {
+                future.completeExceptionally(new IOException("Failed to prepare capture"));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Take photo<p>
+     * The shot is taken after the shots requested before it have finished.
+     *
+     * @return Future completed with the result of the shot
+     */
+    public CompletableFuture<CaptureResult> takePicture() {
+        CompletableFuture<CaptureResult> future = new CompletableFuture<>();
+        mExecutor.execute(() -> shoot(future));
+        return future;
+    }
+
+    /**
+     * Acquire connection used by the session
+     *
+     * @return Connection to device
+     */
+    public HttpConnector getConnector() {
+        return mConnector;
+    }
+
+    /**
+     * Acquire number of shots saved
+     *
+     * @return Number of shots
+     */
+    public long getShotCount() {
+        synchronized (mStatsLock) {
+            return mShotCount;
+        }
+    }
+
+    /**
+     * Acquire number of shots that failed
+     *
+     * @return Number of shots
+     */
+    public long getFailedCount() {
+        synchronized (mStatsLock) {
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * Acquire average time from the shutter request to the URL of the saved file
+     *
+     * @return Average latency (unit: milliseconds)
+     */
+    public double getAverageLatencyMillis() {
+        synchronized (mStatsLock) {
+            if (mShotCount == 0) {
+                return 0.0d;
+            }
+            return mTotalLatencyNanos / 1000000.0d / mShotCount;
+        }
+    }
+
+    /**
+     * Acquire maximum time from the shutter request to the URL of the saved file
+     *
+     * @return Maximum latency (unit: milliseconds)
+     */
+    public double getMaxLatencyMillis() {
+        synchronized (mStatsLock) {
+            return mMaxLatencyNanos / 1000000.0d;
+        }
+    }
+
+    /**
+     * Acquire latency of the most recent shot
+     *
+     * @return Latency (unit: milliseconds)
+     */
+    public double getLastLatencyMillis() {
+        synchronized (mStatsLock) {
+            return mLastLatencyNanos / 1000000.0d;
+        }
+    }
+
+    /**
+     * Stop accepting shots<p>
+     * Shots already requested are still taken.
+     */
+    @Override
+    public void close() {
+        mExecutor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "shots=" + getShotCount() + " failed=" + getFailedCount() + " avgLatencyMs="
+                + getAverageLatencyMillis() + " maxLatencyMs=" + getMaxLatencyMillis();
+    }
+
+    private void shoot(CompletableFuture<CaptureResult> future) {
+        ShotListener listener = new ShotListener(future, mSequence.incrementAndGet());
+        HttpConnector.ShootResult result = mConnector.takePicture(listener);
+        if (result != HttpConnector.ShootResult.SUCCESS) {
+            listener.onError("Failed to take picture: " + result);
+        }
+
+        // the device takes one picture at a time, so the next shot waits for this one
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // reported through the future
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recordShot(long latencyNanos) {
+        synchronized (mStatsLock) {
+            mShotCount++;
+            mTotalLatencyNanos += latencyNanos;
+            mMaxLatencyNanos = Math.max(mMaxLatencyNanos, latencyNanos);
+            mLastLatencyNanos = latencyNanos;
+        }
+    }
+
+    /**
+     * Event listener of one shot
+     */
+    private class ShotListener implements HttpEventListener {
+        private final CompletableFuture<CaptureResult> mFuture;
+        private final long mShotSequence;
+        private final long mStartNanos = System.nanoTime();
+        private String mFileUrl;
+        private long mLatencyNanos;
+
+        ShotListener(CompletableFuture<CaptureResult> future, long sequence) {
+            mFuture = future;
+            mShotSequence = sequence;
+        }
+
+        @Override
+        public void onCheckStatus(boolean newStatus) {
+            // do nothing
+        }
+
+        @Override
+        public void onObjectChanged(String latestCapturedFileId) {
+            mLatencyNanos = System.nanoTime() - mStartNanos;
+            mFileUrl = latestCapturedFileId;
+        }
+
+        @Override
+        public void onCompleted() {
+            recordShot(mLatencyNanos);
+            mFuture.complete(new CaptureResult(mShotSequence, mFileUrl, mLatencyNanos));
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            if (mFuture.isDone()) {
+                return;
+            }
+            synchronized (mStatsLock) {
+                mFailedCount++;
+            }
+            mFuture.completeExceptionally(new IOException(errorMessage));
+        }
+    }
+}
@@ -0,0 +1,513 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.task;
+
+import com.theta360.pluginapplication.network.HttpConnector;
+import com.theta360.pluginapplication.network.HttpEventListener;
+import java.io.Closeable;
+
+/**
+ * Sequence of still images taken at a fixed interval or back to back<p>
+ * {@link HttpConnector#takePicture(HttpEventListener)} returns as soon as the device has accepted
+ * the command, and each command is then checked under its own command ID. The next shot is
+ * therefore sent while earlier shots are still being saved. A shot the device refuses because it
+ * is still busy is sent again after an earlier shot finishes or after
+ * {@link ShootingSequence#BUSY_RETRY_INTERVAL_MS}, while a shot failing for any other reason is
+ * reported as failed at once.
+ */
+public class ShootingSequence implements Closeable {
+    private final static long BUSY_RETRY_INTERVAL_MS = 100;
+    // limit of shots accepted by the device whose files are not yet saved
+    private final static int MAX_IN_FLIGHT = 4;
+    // a burst shot refused for longer than this is given up
+    private final static long BURST_ACCEPT_TIMEOUT_MS = 10000;
+
+    private final HttpConnector mConnector;
+    private final long mIntervalNanos;
+    private final int mShotCount;
+    private final Listener mListener;
+
+    private final Object mLock = new Object();
+    private Thread mThread = null;
+    private boolean mStopped = false;
+    private boolean mFinished = false;
+    private int mInFlightCount = 0;
+
+    private long mStartNanos = 0;
+    private long mLastCompletedNanos = 0;
+    private long mAcceptedCount = 0;
+    private long mCompletedCount = 0;
+    private long mFailedCount = 0;
+    private long mRetryCount = 0;
+    private double mDelaySumMs = 0;
+    private double mDelaySquareSumMs = 0;
+    private double mMaxDelayMs = 0;
+
+    /**
+     * Listener receiving the shots of the sequence<p>
+     * Methods are called on the thread that completed the status check of the shot.
+     */
+    public interface Listener {
+        /**
+         * Notify that file of shot was saved
+         *
+         * @param result Result of the shot
+         */
+        void onShot(CaptureResult result);
+
+        /**
+         * Notify that shot failed
+         *
+         * @param sequence Number of the shot in the sequence, starting from 1
+         * @param errorMessage Error message
+         */
+        default void onShotFailed(long sequence, String errorMessage) {
+        }
+
+        /**
+         * Notify that all shots of the sequence are saved or failed
+         */
+        default void onFinished() {
+        }
+    }
+
+    /**
+     * Constructor
+     *
+     * @param connector Connection to device
+     * @param intervalMs Interval between the starts of shots ("0" takes shots back to back)
+     *                   (unit: milliseconds)
+     * @param shotCount Number of shots ("0" takes shots until {@link #stop()} is called)
+     * @param listener Listener
+     */
+    public ShootingSequence(HttpConnector connector, long intervalMs, int shotCount,
+            Listener listener) {
+        if (intervalMs < 0 || shotCount < 0) {
+            throw new IllegalArgumentException("intervalMs and shotCount must not be negative");
+        }
+        mConnector = connector;
+        mIntervalNanos = intervalMs * 1000000L;
+        mShotCount = shotCount;
+        mListener = listener;
+    }
+
+    /**
+     * Start taking shots<p>
+     * The first shot is sent immediately.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mThread != null) {
+                throw new IllegalStateException("Sequence is already started");
+            }
+            mThread = new Thread(this::run, "ShootingSequence");
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stop sending shots<p>
+     * Shots already accepted by the device are still saved and notified.
+     */
+    public void stop() {
+        synchronized (mLock) {
+            mStopped = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Stop sending shots and wait until the shots accepted by the device are finished
+     */
+    @Override
+    public void close() {
+        stop();
+        synchronized (mLock) {
+            while (mThread != null && !mFinished) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Acquire number of shots accepted by the device
+     *
+     * @return Number of shots
+     */
+    public long getAcceptedCount() {
+        synchronized (mLock) {
+            return mAcceptedCount;
+        }
+    }
+
+    /**
+     * Acquire number of shots saved
+     *
+     * @return Number of shots
+     */
+    public long getCompletedCount() {
+        synchronized (mLock) {
+            return mCompletedCount;
+        }
+    }
+
+    /**
+     * Acquire number of shots that failed or were given up
+     *
+     * @return Number of shots
+     */
+    public long getFailedCount() {
+        synchronized (mLock) {
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * Acquire number of shots sent again because the device was busy
+     *
+     * @return Number of retries
+     */
+    public long getRetryCount() {
+        synchronized (mLock) {
+            return mRetryCount;
+        }
+    }
+
+    /**
+     * Acquire number of shots accepted by the device whose files are not yet saved
+     *
+     * @return Number of shots
+     */
+    public int getInFlightCount() {
+        synchronized (mLock) {
+            return mInFlightCount;
+        }
+    }
+
+    /**
+     * Acquire rate of saved shots from the start of the sequence to the latest saved shot
+     *
+     * @return Shots per minute
+     */
+    public double getShotsPerMinute() {
+        synchronized (mLock) {
+            if (mCompletedCount == 0 || mLastCompletedNanos <= mStartNanos) {
+                return 0.0d;
+            }
+            return mCompletedCount * 60000000000.0d / (mLastCompletedNanos - mStartNanos);
+        }
+    }
+
+    /**
+     * Acquire average delay of accepted shots behind their scheduled time<p>
+     * In back-to-back shooting, a shot is scheduled when the previous shot is accepted.
+     *
+     * @return Average delay (unit: milliseconds)
+     */
+    public double getAverageDelayMillis() {
+        synchronized (mLock) {
+            if (mAcceptedCount == 0) {
+                return 0.0d;
+            }
+            return mDelaySumMs / mAcceptedCount;
+        }
+    }
+
+    /**
+     * Acquire maximum delay of accepted shots behind their scheduled time
+     *
+     * @return Maximum delay (unit: milliseconds)
+     */
+    public double getMaxDelayMillis() {
+        synchronized (mLock) {
+            return mMaxDelayMs;
+        }
+    }
+
+    /**
+     * Acquire standard deviation of the delay of accepted shots behind their scheduled time
+     *
+     * @return Jitter (unit: milliseconds)
+     */
+    public double getJitterMillis() {
+        synchronized (mLock) {
+            if (mAcceptedCount == 0) {
+                return 0.0d;
+            }
+            double average = mDelaySumMs / mAcceptedCount;
+            double variance = mDelaySquareSumMs / mAcceptedCount - average * average;
+            return Math.sqrt(Math.max(0.0d, variance));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "accepted=" + getAcceptedCount() + " completed=" + getCompletedCount()
+                + " failed=" + getFailedCount() + " retries=" + getRetryCount()
+                + " shotsPerMinute=" + getShotsPerMinute() + " avgDelayMs="
+                + getAverageDelayMillis() + " jitterMs=" + getJitterMillis();
+    }
+
+    private void run() {
+        long startNanos = System.nanoTime();
+        synchronized (mLock) {
+            mStartNanos = startNanos;
+        }
+        long scheduledNanos = startNanos;
+
+        for (long sequence = 1; mShotCount == 0 || sequence <= mShotCount; sequence++) {
+            if (mIntervalNanos > 0) {
+                scheduledNanos = startNanos + (sequence - 1) * mIntervalNanos;
+            }
+            if (!waitUntil(scheduledNanos) || !waitForSlot()) {
+                break;
+            }
+            // an interval shot the device keeps refusing is given up when the next one is due
+            long deadlineNanos = mIntervalNanos > 0 ? scheduledNanos + mIntervalNanos
+                    : System.nanoTime() + BURST_ACCEPT_TIMEOUT_MS * 1000000L;
+            long acceptedNanos = shoot(sequence, scheduledNanos, deadlineNanos);
+            if (acceptedNanos < 0) {
+                break;
+            }
+            if (mIntervalNanos == 0) {
+                scheduledNanos = acceptedNanos;
+            }
+        }
+
+        synchronized (mLock) {
+            while (mInFlightCount > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (mListener != null) {
+            mListener.onFinished();
+        }
+        synchronized (mLock) {
+            mFinished = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Send shot until the device accepts it
+     *
+     * @return Time the shot was accepted or given up ("-1" is returned if stopped)
+     */
+    private long shoot(long sequence, long scheduledNanos, long deadlineNanos) {
+        while (true) {
+            ShotListener listener = new ShotListener(sequence);
+            synchronized (mLock) {
+                mInFlightCount++;
+            }
+            long sentNanos = System.nanoTime();
+            // a refusal is only busy here, so the capture mode is not set again for it
+            HttpConnector.ShootResult result = mConnector.takePicture(listener, false);
+            if (result == HttpConnector.ShootResult.SUCCESS) {
+                double delayMs = Math.max(0, sentNanos - scheduledNanos) / 1000000.0d;
+                synchronized (mLock) {
+                    mAcceptedCount++;
+                    mDelaySumMs += delayMs;
+                    mDelaySquareSumMs += delayMs * delayMs;
+                    mMaxDelayMs = Math.max(mMaxDelayMs, delayMs);
+                }
+                listener.accept(sentNanos);
+                return System.nanoTime();
+            }
+
+            long now = System.nanoTime();
+            boolean givenUp = result != HttpConnector.ShootResult.FAIL_DEVICE_BUSY
+                    || now + BUSY_RETRY_INTERVAL_MS * 1000000L > deadlineNanos;
+            synchronized (mLock) {
+                mInFlightCount--;
+                if (givenUp) {
+                    mFailedCount++;
+                } else {
+                    mRetryCount++;
+                }
+                mLock.notifyAll();
+            }
+            if (givenUp) {
+                if (mListener != null) {
+                    String errorMessage = listener.getRefusal();
+                    mListener.onShotFailed(sequence, "Shot was not accepted: "
+                            + (errorMessage != null ? errorMessage : result));
+                }
+                return now;
+            }
+            synchronized (mLock) {
+                if (mStopped) {
+                    return -1;
+                }
+                // woken early when an earlier shot finishes, since the device may accept then
+                try {
+                    mLock.wait(BUSY_RETRY_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+                if (mStopped) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until the scheduled time of a shot
+     *
+     * @return true:Time reached, false:Stopped
+     */
+    private boolean waitUntil(long scheduledNanos) {
+        synchronized (mLock) {
+            while (!mStopped) {
+                long remainingMs = (scheduledNanos - System.nanoTime() + 999999L) / 1000000L;
+                if (remainingMs <= 0) {
+                    return true;
+                }
+                try {
+                    mLock.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Wait until fewer than {@link ShootingSequence#MAX_IN_FLIGHT} shots are being saved
+     *
+     * @return true:Shot can be sent, false:Stopped
+     */
+    private boolean waitForSlot() {
+        synchronized (mLock) {
+            while (!mStopped && mInFlightCount >= MAX_IN_FLIGHT) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return !mStopped;
+        }
+    }
+
+    /**
+     * Event listener of one shot<p>
+     * Errors reported before the device accepted the shot belong to a refused attempt, which is
+     * sent again, and are not notified.
+     */
+    private class ShotListener implements HttpEventListener {
+        private final long mSequence;
+        private boolean mAccepted = false;
+        private boolean mSettled = false;
+        private long mSentNanos;
+        private String mFileUrl;
+        private long mFileNanos;
+        private String mRefusal;
+
+        ShotListener(long sequence) {
+            mSequence = sequence;
+        }
+
+        /**
+         * Mark shot as accepted by the device
+         *
+         * @param sentNanos Time the shot was sent
+         */
+        synchronized void accept(long sentNanos) {
+            mAccepted = true;
+            mSentNanos = sentNanos;
+            if (mFileUrl != null && !mSettled) {
+                // the device saved the file before responding to the command
+                settle(null);
+            }
+        }
+
+        @Override
+        public void onCheckStatus(boolean newStatus) {
+            // do nothing
+        }
+
+        @Override
+        public synchronized void onObjectChanged(String latestCapturedFileId) {
+            mFileNanos = System.nanoTime();
+            mFileUrl = latestCapturedFileId;
+        }
+
+        @Override
+        public synchronized void onCompleted() {
+            if (mAccepted && !mSettled) {
+                settle(null);
+            }
+        }
+
+        /**
+         * Acquire error reported before the shot was accepted
+         *
+         * @return Error message (null is returned if none was reported)
+         */
+        synchronized String getRefusal() {
+            return mRefusal;
+        }
+
+        @Override
+        public synchronized void onError(String errorMessage) {
+            if (!mAccepted) {
+                mRefusal = errorMessage;
+            } else if (!mSettled) {
+                settle(errorMessage);
+            }
+        }
+
+        private void settle(String errorMessage) {
+            mSettled = true;
+            if (mListener != null) {
+                if (errorMessage == null) {
+                    mListener.onShot(new CaptureResult(mSequence, mFileUrl,
+                            mFileNanos - mSentNanos));
+                } else {
+                    mListener.onShotFailed(mSequence, errorMessage);
+                }
+            }
+            // counted after notifying, so that onFinished() follows the last shot
+            synchronized (mLock) {
+                mInFlightCount--;
+                if (errorMessage == null) {
+                    mCompletedCount++;
+                    mLastCompletedNanos = mFileNanos;
+                } else {
+                    mFailedCount++;
+                }
+                mLock.notifyAll();
+            }
+        }
+    }
+}
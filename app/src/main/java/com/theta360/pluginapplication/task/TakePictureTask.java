@@ -17,56 +17,54 @@
 package com.theta360.pluginapplication.task;
 
 import android.os.AsyncTask;
-import com.theta360.pluginapplication.network.HttpConnector;
-import com.theta360.pluginapplication.network.HttpEventListener;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Task taking one photo<p>
+ * All tasks share one {@link CaptureSession}, so the connection to the device and the capture
+ * settings read by the first shot are reused by the following shots.
+ *
+ * @deprecated Use {@link CaptureSession}, which takes shots on its own thread and reports the
+ * latency of each shot.
+ */
+@Deprecated
+public class TakePictureTask extends AsyncTask<Void, Void, CaptureResult> {
+    private static CaptureSession sSession;
 
-public class TakePictureTask extends AsyncTask<Void, Void, HttpConnector.ShootResult> {
     private Callback mCallback;
 
     public TakePictureTask(Callback callback) {
         this.mCallback = callback;
     }
 
-    @Override
-    protected void onPreExecute() {
-
+    private static synchronized CaptureSession getSession() {
+        if (sSession == null) {
+            sSession = new CaptureSession();
+        }
+        return sSession;
     }
 
     @Override
-    protected HttpConnector.ShootResult doInBackground(Void... params) {
-        CaptureListener postviewListener = new CaptureListener();
-        HttpConnector camera = new HttpConnector("127.0.0.1:8080");
+    protected void onPreExecute() {
 
-        return camera.takePicture(postviewListener);
     }
 
     @Override
-    protected void onPostExecute(HttpConnector.ShootResult result) {
-
-    }
-
-    private class CaptureListener implements HttpEventListener {
-        private String latestCapturedFileId;
-
-        @Override
-        public void onCheckStatus(boolean newStatus) {
-
+    protected CaptureResult doInBackground(Void... params) {
+        try {
+            return getSession().takePicture().get();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        return null;
+    }
 
-        @Override
-        public void onObjectChanged(String latestCapturedFileId) {
-            this.latestCapturedFileId = latestCapturedFileId;
-            mCallback.onTakePicture(latestCapturedFileId);
-        }
-
-        @Override
-        public void onCompleted() {
-
-        }
-
-        @Override
-        public void onError(String errorMessage) {
-
+    @Override
+    protected void onPostExecute(CaptureResult result) {
+        if (result != null) {
+            mCallback.onTakePicture(result.getFileUrl());
         }
     }
 
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * End-to-end benchmarks of {@link HttpConnector} against {@link OscSimulator}<p>
+ * Each test runs against its own simulator, checks only the results, and prints its timings in
+ * one "[benchmark]" line, so that the figures of a build can be compared with earlier ones
+ * without making the build depend on the speed of the machine. The simulated camera answers at
+ * loopback speed unless a latency is set, which makes the figures mostly show the cost on the
+ * plug-in side.
+ */
+public class ConnectorBenchmark {
+    private final static int FILE_COUNT = 2000;
+    private final static int SHOT_COUNT = 5;
+    private final static int CAPTURE_TIME_MS = 300;
+    private final static int DOWNLOAD_SIZE = 32 * 1024 * 1024;
+    private final static int PREVIEW_FRAME_COUNT = 60;
+    private final static int PREVIEW_FRAME_SIZE = 96 * 1024;
+    private final static long WATCH_MS = 3000;
+
+    private OscSimulator mSimulator;
+    private HttpConnector mConnector;
+
+    @Before
+    public void setUp() throws Exception {
+        mSimulator = new OscSimulator();
+        mSimulator.setImageWidth(5376);
+        mSimulator.setCaptureTimeMs(CAPTURE_TIME_MS);
+        mConnector = new HttpConnector(mSimulator.getAddress());
+    }
+
+    @After
+    public void tearDown() {
+        mSimulator.close();
+    }
+
+    @Test
+    public void captureCycle() throws Exception {
+        assertNotNull(mConnector.getImageSize());
+        long statusCount = mSimulator.getRequestCount("/osc/commands/status");
+        int fileCount = mSimulator.getFileCount();
+
+        long[] shotNanos = new long[SHOT_COUNT];
+        long startNanos = System.nanoTime();
+        for (int shot = 0; shot < SHOT_COUNT; shot++) {
+            long shotStartNanos = System.nanoTime();
+            String fileUrl = mConnector.takePictureAsync().get(10, TimeUnit.SECONDS);
+            shotNanos[shot] = System.nanoTime() - shotStartNanos;
+            assertNotNull(fileUrl);
+            assertTrue(fileUrl.contains("/files/" + OscSimulator.FOLDER + "/"));
+        }
+        long totalNanos = System.nanoTime() - startNanos;
+        double polls = (double) (mSimulator.getRequestCount("/osc/commands/status")
+                - statusCount) / SHOT_COUNT;
+
+        assertEquals(fileCount + SHOT_COUNT, mSimulator.getFileCount());
+        report("capture cycle: first %.1f ms, last %.1f ms, avg %.1f ms (capture %d ms),"
+                + " %.1f status polls/shot", shotNanos[0] / 1e6, shotNanos[SHOT_COUNT - 1] / 1e6,
+                totalNanos / 1e6 / SHOT_COUNT, CAPTURE_TIME_MS, polls);
+    }
+
+    @Test
+    public void listingThroughput() throws Exception {
+        mSimulator.addFiles(FILE_COUNT);
+        long executeCount = mSimulator.getRequestCount("camera.listFiles");
+        int expected = mSimulator.getFileCount();
+
+        int count = 0;
+        String previous = null;
+        long startNanos = System.nanoTime();
+        try (FileListIterator iterator = mConnector.listFiles(HttpConnector.FILE_TYPE_ALL, 100)) {
+            while (iterator.hasNext()) {
+                ImageInfo imageInfo = iterator.next();
+                assertFalse(imageInfo.getFileId().equals(previous));
+                previous = imageInfo.getFileId();
+                count++;
+            }
+            assertFalse(iterator.hasFailed());
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        assertEquals(expected, count);
+        report("listing: %d files in %.1f ms, %.0f files/s, %d requests", count,
+                elapsedNanos / 1e6, count / (elapsedNanos / 1e9),
+                mSimulator.getRequestCount("camera.listFiles") - executeCount);
+    }
+
+    @Test
+    public void downloadThroughput() throws Exception {
+        mSimulator.setFileSize(DOWNLOAD_SIZE);
+        mSimulator.addFiles(1);
+        File file = File.createTempFile("benchmark", ".JPG");
+        long requestCount = mSimulator.getRequestCount("file");
+        try {
+            long startNanos = System.nanoTime();
+            ImageData imageData = mConnector.getImage(mSimulator.getFileUrl(0), file, null);
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            assertNotNull(imageData);
+            assertEquals(DOWNLOAD_SIZE, file.length());
+            assertEquals(OscSimulator.POSE_PITCH, imageData.getPitch(), 0.0);
+            assertEquals(OscSimulator.POSE_ROLL, imageData.getRoll(), 0.0);
+            report("download: %d MB in %.1f ms, %.1f MB/s, %d requests", DOWNLOAD_SIZE >> 20,
+                    elapsedNanos / 1e6, DOWNLOAD_SIZE / 1048576.0 / (elapsedNanos / 1e9),
+                    mSimulator.getRequestCount("file") - requestCount);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void livePreview() throws Exception {
+        mSimulator.setPreviewFrames(PREVIEW_FRAME_SIZE, 30);
+        long startNanos;
+        long elapsedNanos;
+        try (LivePreviewReader reader = mConnector.openLivePreview(false)) {
+            startNanos = System.nanoTime();
+            for (int frame = 0; frame < PREVIEW_FRAME_COUNT; frame++) {
+                LivePreviewReader.Frame data = reader.nextFrame();
+                assertNotNull(data);
+                assertEquals(PREVIEW_FRAME_SIZE, data.getLength());
+            }
+            elapsedNanos = System.nanoTime() - startNanos;
+        }
+
+        report("live preview: %d frames of %d KB in %.1f ms, %.1f fps", PREVIEW_FRAME_COUNT,
+                PREVIEW_FRAME_SIZE >> 10, elapsedNanos / 1e6,
+                PREVIEW_FRAME_COUNT / (elapsedNanos / 1e9));
+    }
+
+    @Test
+    public void pollingOverhead() throws Exception {
+        CountDownLatch first = new CountDownLatch(1);
+        CountDownLatch latest = new CountDownLatch(1);
+        CameraStateWatcher.Listener listener = new CameraStateWatcher.Listener() {
+            @Override
+            public void onStateChanged(CameraState state) {
+                first.countDown();
+            }
+
+            @Override
+            public void onLatestFileChanged(String latestFileUri) {
+                if (first.getCount() == 0) {
+                    latest.countDown();
+                }
+            }
+        };
+
+        CameraStateWatcher watcher = mConnector.getStateWatcher();
+        watcher.addListener(listener);
+        try {
+            assertTrue(first.await(10, TimeUnit.SECONDS));
+            long checkCount = mSimulator.getRequestCount("/osc/checkForUpdates");
+            long stateCount = mSimulator.getRequestCount("/osc/state");
+            Thread.sleep(WATCH_MS);
+            double checksPerSecond = (mSimulator.getRequestCount("/osc/checkForUpdates")
+                    - checkCount) * 1000.0 / WATCH_MS;
+            long idleStateCount = mSimulator.getRequestCount("/osc/state") - stateCount;
+
+            long startNanos = System.nanoTime();
+            mSimulator.addFiles(1);
+            assertTrue(latest.await(10, TimeUnit.SECONDS));
+            long noticeNanos = System.nanoTime() - startNanos;
+
+            report("polling: %.2f checks/s and %d state reads while idle,"
+                    + " new file noticed in %.1f ms", checksPerSecond, idleStateCount,
+                    noticeNanos / 1e6);
+        } finally {
+            watcher.removeListener(listener);
+        }
+    }
+
+    private static void report(String format, Object... args) {
+        System.out.println("[benchmark] " + String.format(Locale.US, format, args));
+    }
+}
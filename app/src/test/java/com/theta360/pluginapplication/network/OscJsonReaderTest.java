@@ -0,0 +1,301 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link OscJsonReader}<p>
+ * Each document is also read one byte per call, so that tokens split across buffer refills are
+ * covered.
+ */
+public class OscJsonReaderTest {
+    private final static String[] ENTRY_NAMES = {"name", "size", "nested"};
+
+    @Test
+    public void nestedObjects_areRead() throws Exception {
+        String json = "{\"name\":\"camera.listFiles\",\"state\":\"done\",\"results\":{"
+                + "\"entries\":[{\"name\":\"R0010001.JPG\",\"size\":4194304},"
+                + "{\"name\":\"R0010002.JPG\",\"nested\":{\"values\":[1,[2,3],{}]}}],"
+                + "\"totalEntries\":2}}";
+        for (OscJsonReader reader : readers(json)) {
+            reader.beginObject();
+            assertEquals("name", reader.nextName());
+            assertEquals("camera.listFiles", reader.nextString());
+            assertEquals("state", reader.nextName());
+            assertEquals("done", reader.nextString());
+            assertEquals("results", reader.nextName());
+            reader.beginObject();
+            assertEquals("entries", reader.nextName());
+            reader.beginArray();
+
+            reader.beginObject();
+            assertEquals(0, reader.selectName(ENTRY_NAMES));
+            assertEquals("R0010001.JPG", reader.nextString());
+            assertEquals(1, reader.selectName(ENTRY_NAMES));
+            assertEquals(4194304, reader.nextLong());
+            assertFalse(reader.hasNext());
+            reader.endObject();
+
+            reader.beginObject();
+            assertEquals(0, reader.selectName(ENTRY_NAMES));
+            assertEquals("R0010002.JPG", reader.nextString());
+            assertEquals(2, reader.selectName(ENTRY_NAMES));
+            reader.beginObject();
+            assertEquals("values", reader.nextName());
+            reader.beginArray();
+            assertEquals(1, reader.nextInt());
+            reader.beginArray();
+            assertEquals(2, reader.nextInt());
+            assertEquals(3, reader.nextInt());
+            reader.endArray();
+            reader.beginObject();
+            assertFalse(reader.hasNext());
+            reader.endObject();
+            reader.endArray();
+            reader.endObject();
+            reader.endObject();
+
+            assertFalse(reader.hasNext());
+            reader.endArray();
+            assertEquals(-1, reader.selectName(ENTRY_NAMES));
+            assertEquals(2, reader.nextInt());
+            reader.endObject();
+            reader.endObject();
+            assertEquals(OscJsonReader.Token.END_DOCUMENT, reader.peek());
+        }
+    }
+
+    @Test
+    public void separators_areLenient() throws Exception {
+        // ',' and ':' are treated as whitespace, and the scope stack tells names from values
+        for (OscJsonReader reader : readers("{\"a\" 1 \"b\" [true false null] \"c\":,\"d\"}")) {
+            reader.beginObject();
+            assertEquals("a", reader.nextName());
+            assertEquals(1, reader.nextInt());
+            assertEquals("b", reader.nextName());
+            reader.beginArray();
+            assertTrue(reader.nextBoolean());
+            assertFalse(reader.nextBoolean());
+            assertNull(reader.nextString());
+            reader.endArray();
+            assertEquals("c", reader.nextName());
+            assertEquals("d", reader.nextString());
+            reader.endObject();
+        }
+    }
+
+    @Test
+    public void escapes_areDecoded() throws Exception {
+        String json = "[\"q\\\"b\\\\s\\/c\\b\\f\\n\\r\\t\", \"\\u00e9\\u3042\", "
+                + "\"\\ud83d\\ude00\", \"\u00e9\u3042\ud83d\ude00\"]";
+        for (OscJsonReader reader : readers(json)) {
+            reader.beginArray();
+            assertEquals("q\"b\\s/c\b\f\n\r\t", reader.nextString());
+            assertEquals("\u00e9\u3042", reader.nextString());
+            // a surrogate pair written as two escapes
+            assertEquals("\ud83d\ude00", reader.nextString());
+            // the same characters as raw UTF-8 of two, three and four bytes
+            assertEquals("\u00e9\u3042\ud83d\ude00", reader.nextString());
+            reader.endArray();
+        }
+    }
+
+    @Test
+    public void longText_isRead() throws Exception {
+        char[] chars = new char[10000];
+        Arrays.fill(chars, 'x');
+        String text = new String(chars);
+        for (OscJsonReader reader : readers("{\"" + text + "\":\"" + text + "\"}")) {
+            reader.beginObject();
+            assertEquals(text, reader.nextName());
+            assertEquals(text, reader.nextString());
+            reader.endObject();
+        }
+    }
+
+    @Test
+    public void numbers_areParsed() throws Exception {
+        String json = "[0, -1, 9223372036854775807, -9223372036854775808, 1.5e3, -2.5E-1, "
+                + "\"123\", 0.25, 12345678901, -0.5]";
+        for (OscJsonReader reader : readers(json)) {
+            reader.beginArray();
+            assertEquals(0, reader.nextLong());
+            assertEquals(-1, reader.nextInt());
+            assertEquals(Long.MAX_VALUE, reader.nextLong());
+            assertEquals(Long.MIN_VALUE, reader.nextLong());
+            assertEquals(1500, reader.nextLong());
+            assertEquals(-0.25, reader.nextDouble(), 0.0);
+            // numbers written as strings are accepted
+            assertEquals(123, reader.nextLong());
+            assertEquals(0.25, reader.nextDouble(), 0.0);
+            assertEquals(12345678901L, reader.nextLong());
+            // numbers are returned in their textual form
+            assertEquals("-0.5", reader.nextString());
+            reader.endArray();
+        }
+    }
+
+    @Test
+    public void invalidNumber_fails() throws Exception {
+        OscJsonReader reader = OscJsonReader.obtain(stream("[1e]"));
+        reader.beginArray();
+        try {
+            reader.nextDouble();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void skipValue_skipsNestedValues() throws Exception {
+        String json = "{\"a\":{\"b\":[1,{\"c\":\"}]\"}],\"d\":null},\"e\":[[],[[]]],"
+                + "\"f\":\"text\",\"g\":-1.5e2,\"h\":true,\"size\":7}";
+        for (OscJsonReader reader : readers(json)) {
+            reader.beginObject();
+            for (int index = 0; index < 5; index++) {
+                assertEquals(-1, reader.selectName(ENTRY_NAMES));
+                reader.skipValue();
+            }
+            assertEquals(1, reader.selectName(ENTRY_NAMES));
+            assertEquals(7, reader.nextInt());
+            reader.endObject();
+        }
+    }
+
+    @Test
+    public void skipValue_failsAtEnd() throws Exception {
+        OscJsonReader reader = OscJsonReader.obtain(stream("{\"a\":[1,2"));
+        reader.beginObject();
+        reader.nextName();
+        try {
+            reader.skipValue();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void base64_isDecoded() throws Exception {
+        byte[] data = new byte[10000];
+        for (int index = 0; index < data.length; index++) {
+            data[index] = (byte) (index * 31);
+        }
+        String encoded = Base64.getEncoder().encodeToString(data);
+        // JSON escapes of '/' and MIME line breaks as written by some encoders
+        String escaped = encoded.replaceAll("(.{76})", "$1\\\\n").replace("/", "\\/");
+        String json = "{\"a\":\"" + escaped + "\",\"b\":\"" + encoded + "\",\"c\":null,"
+                + "\"d\":\"QUI=\",\"e\":\"QQ\"}";
+        for (OscJsonReader reader : readers(json)) {
+            reader.beginObject();
+            reader.nextName();
+            assertDecoded(data, reader, reader.nextBase64());
+            reader.nextName();
+            // the value is already read as text by peek()
+            assertEquals(OscJsonReader.Token.STRING, reader.peek());
+            assertDecoded(data, reader, reader.nextBase64());
+            reader.nextName();
+            assertEquals(-1, reader.nextBase64());
+            reader.nextName();
+            assertDecoded("AB".getBytes(StandardCharsets.US_ASCII), reader, reader.nextBase64());
+            reader.nextName();
+            assertDecoded("A".getBytes(StandardCharsets.US_ASCII), reader, reader.nextBase64());
+            reader.endObject();
+        }
+    }
+
+    @Test
+    public void invalidBase64_fails() throws Exception {
+        OscJsonReader reader = OscJsonReader.obtain(stream("{\"a\":\"QU*=\"}"));
+        reader.beginObject();
+        reader.nextName();
+        try {
+            reader.nextBase64();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void assertDecoded(byte[] expected, OscJsonReader reader, int length) {
+        assertArrayEquals(expected, Arrays.copyOf(reader.getDecodedBytes(), length));
+    }
+
+    /**
+     * Create readers of JSON data, read at once and one byte per call
+     */
+    private static Iterable<OscJsonReader> readers(String json) {
+        return () -> new Iterator<OscJsonReader>() {
+            private int mIndex = 0;
+
+            @Override
+            public boolean hasNext() {
+                return mIndex < 2;
+            }
+
+            @Override
+            public OscJsonReader next() {
+                InputStream in = stream(json);
+                if (mIndex++ == 1) {
+                    in = new SingleByteInputStream(in);
+                }
+                return OscJsonReader.obtain(in);
+            }
+        };
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stream returning at most one byte per read
+     */
+    private static class SingleByteInputStream extends InputStream {
+        private final InputStream mIn;
+
+        SingleByteInputStream(InputStream in) {
+            mIn = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return mIn.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return mIn.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
@@ -0,0 +1,755 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * In-process OSC camera for tests and benchmarks on the development machine<p>
+ * The simulator serves /osc/info, /osc/state, /osc/checkForUpdates, /osc/commands/execute and
+ * /osc/commands/status over HTTP/1.1 keep-alive connections on the loopback interface, together
+ * with the files, thumbnails and the MJPEG live preview. Still images are generated JPEG data with
+ * an XMP packet holding pose angles, so downloads and metadata harvesting see realistic heads.
+ * The latency of every request, the capture time and all payload sizes can be changed while
+ * running, and each request is counted by path and command name.
+ */
+public class OscSimulator implements Closeable {
+    public final static String FOLDER = "100RICOH";
+    public final static double POSE_PITCH = 1.5;
+    public final static double POSE_ROLL = -2.25;
+    public final static double POSE_HEADING = 123.0;
+
+    private final static Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "OscSimulator");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, AtomicLong> mRequestCounts = new ConcurrentHashMap<>();
+    private final List<Socket> mSockets = new ArrayList<>();
+
+    private volatile int mLatencyMs = 0;
+    private volatile int mCaptureTimeMs = 500;
+    private volatile int mImageWidth = 5376;
+    private volatile int mThrottleTimeout = 1;
+    private volatile int mPreviewFrameRate = 30;
+
+    private final Object mLock = new Object();
+    private final List<String> mFileNames = new ArrayList<>();
+    private final Map<String, Long> mCaptureDeadlines = new HashMap<>();
+    private int mNextFileNumber = 1;
+    private int mNextCommandId = 1;
+    private int mFingerprint = 1;
+    private byte[] mFileData = createJpeg(4 * 1024 * 1024, true);
+    private byte[] mThumbnailData = createJpeg(16 * 1024, false);
+    private byte[] mPreviewFrameData = createJpeg(64 * 1024, false);
+    private boolean mClosed = false;
+
+    /**
+     * Constructor starting the simulator on a free port of the loopback interface
+     *
+     * @throws IOException Failed to open the server socket
+     */
+    public OscSimulator() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        mExecutor.execute(this::accept);
+    }
+
+    /**
+     * Acquire address to be given to {@link HttpConnector}
+     *
+     * @return Host and port
+     */
+    public String getAddress() {
+        return "127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Set delay added before every response
+     *
+     * @param latencyMs Delay (unit: milliseconds)
+     */
+    public void setLatencyMs(int latencyMs) {
+        mLatencyMs = latencyMs;
+    }
+
+    /**
+     * Set time from camera.takePicture until the file is saved
+     *
+     * @param captureTimeMs Capture time (unit: milliseconds)
+     */
+    public void setCaptureTimeMs(int captureTimeMs) {
+        mCaptureTimeMs = captureTimeMs;
+    }
+
+    /**
+     * Set width reported in the fileFormat option
+     *
+     * @param imageWidth Width of still images (unit: pixels)
+     */
+    public void setImageWidth(int imageWidth) {
+        mImageWidth = imageWidth;
+    }
+
+    /**
+     * Set throttleTimeout returned by /osc/checkForUpdates
+     *
+     * @param throttleTimeout Minimum interval between checks (unit: seconds)
+     */
+    public void setThrottleTimeout(int throttleTimeout) {
+        mThrottleTimeout = throttleTimeout;
+    }
+
+    /**
+     * Set size of every still image file
+     *
+     * @param fileSize Size (unit: bytes)
+     */
+    public void setFileSize(int fileSize) {
+        byte[] data = createJpeg(fileSize, true);
+        synchronized (mLock) {
+            mFileData = data;
+        }
+    }
+
+    /**
+     * Set size of every thumbnail
+     *
+     * @param thumbnailSize Size (unit: bytes)
+     */
+    public void setThumbnailSize(int thumbnailSize) {
+        byte[] data = createJpeg(thumbnailSize, false);
+        synchronized (mLock) {
+            mThumbnailData = data;
+        }
+    }
+
+    /**
+     * Set size and rate of live preview frames
+     *
+     * @param frameSize Size of each frame (unit: bytes)
+     * @param frameRate Frames per second
+     */
+    public void setPreviewFrames(int frameSize, int frameRate) {
+        byte[] data = createJpeg(frameSize, false);
+        synchronized (mLock) {
+            mPreviewFrameData = data;
+        }
+        mPreviewFrameRate = frameRate;
+    }
+
+    /**
+     * Add still images as if they had been taken earlier
+     *
+     * @param count Number of files
+     */
+    public void addFiles(int count) {
+        synchronized (mLock) {
+            for (int index = 0; index < count; index++) {
+                mFileNames.add(nextFileName());
+            }
+            changeState();
+        }
+    }
+
+    /**
+     * Acquire number of files on the simulated storage
+     *
+     * @return Number of files
+     */
+    public int getFileCount() {
+        synchronized (mLock) {
+            return mFileNames.size();
+        }
+    }
+
+    /**
+     * Acquire URL of file
+     *
+     * @param index Index of the file, 0 being the oldest
+     * @return File URL
+     */
+    public String getFileUrl(int index) {
+        synchronized (mLock) {
+            return toFileUrl(mFileNames.get(index));
+        }
+    }
+
+    /**
+     * Acquire size of every still image file
+     *
+     * @return Size (unit: bytes)
+     */
+    public int getFileSize() {
+        synchronized (mLock) {
+            return mFileData.length;
+        }
+    }
+
+    /**
+     * Acquire number of requests received
+     *
+     * @param key Request path such as "/osc/commands/status", command name such as
+     *            "camera.takePicture", or "file", "thumbnail"
+     * @return Number of requests
+     */
+    public long getRequestCount(String key) {
+        AtomicLong count = mRequestCounts.get(key);
+        return count != null ? count.get() : 0;
+    }
+
+    @Override
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already closed by the client
+                }
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void accept() {
+        while (true) {
+            Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+            mExecutor.execute(() -> serve(socket));
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                String requestLine = readLine(in);
+                if (requestLine == null || requestLine.isEmpty()) {
+                    break;
+                }
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0) {
+                        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                                line.substring(colon + 1).trim());
+                    }
+                }
+                byte[] body = new byte[Integer.parseInt(headers.getOrDefault("content-length",
+                        "0"))];
+                int offset = 0;
+                while (offset < body.length) {
+                    int length = in.read(body, offset, body.length - offset);
+                    if (length < 0) {
+                        return;
+                    }
+                    offset += length;
+                }
+
+                String[] parts = requestLine.split(" ");
+                if (mLatencyMs > 0) {
+                    Thread.sleep(mLatencyMs);
+                }
+                if (!handle(parts[0], toPath(parts[1]), headers, body, out)
+                        || "close".equalsIgnoreCase(headers.get("connection"))) {
+                    break;
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // closed by the client
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (mSockets) {
+                mSockets.remove(socket);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Respond to request
+     *
+     * @return true:Connection can be reused, false:Connection must be closed
+     */
+    private boolean handle(String method, String path, Map<String, String> headers, byte[] body,
+            OutputStream out) throws IOException, JSONException, InterruptedException {
+        int query = path.indexOf('?');
+        String resource = query >= 0 ? path.substring(0, query) : path;
+
+        if (resource.startsWith("/files/")) {
+            boolean thumbnail = query >= 0 && path.indexOf("type=thumb", query) >= 0;
+            count(thumbnail ? "thumbnail" : "file");
+            sendFile(resource, thumbnail, headers.get("range"), out);
+            return true;
+        }
+
+        count(resource);
+        JSONObject input = body.length > 0
+                ? new JSONObject(new String(body, StandardCharsets.UTF_8)) : new JSONObject();
+        switch (resource) {
+            case "/osc/info":
+                sendJson(200, createInfo(), out);
+                return true;
+            case "/osc/state":
+                sendJson(200, createState(), out);
+                return true;
+            case "/osc/checkForUpdates":
+                sendJson(200, checkForUpdates(input), out);
+                return true;
+            case "/osc/commands/status":
+                sendStatus(input.optString("id"), out);
+                return true;
+            case "/osc/commands/execute":
+                String name = input.optString("name");
+                count(name);
+                if ("camera.getLivePreview".equals(name)) {
+                    sendPreview(out);
+                    return false;
+                }
+                JSONObject parameters = input.optJSONObject("parameters");
+                execute(name, parameters != null ? parameters : new JSONObject(), out);
+                return true;
+            default:
+                sendJson(404, createError("", "unknownCommand", "Unknown path " + resource), out);
+                return true;
+        }
+    }
+
+    private void execute(String name, JSONObject parameters, OutputStream out)
+            throws IOException, JSONException {
+        JSONObject results = new JSONObject();
+        switch (name) {
+            case "camera.takePicture":
+                String id;
+                synchronized (mLock) {
+                    id = Integer.toString(mNextCommandId++);
+                    mCaptureDeadlines.put(id, System.nanoTime() + mCaptureTimeMs * 1000000L);
+                    changeState();
+                }
+                JSONObject progress = new JSONObject();
+                progress.put("completion", 0);
+                sendJson(200, new JSONObject().put("name", name).put("state", "inProgress")
+                        .put("id", id).put("progress", progress), out);
+                return;
+            case "camera.listFiles":
+                results = listFiles(parameters);
+                break;
+            case "camera.getOptions":
+                results.put("options", getOptions(parameters.optJSONArray("optionNames")));
+                break;
+            case "camera.setOptions":
+                break;
+            case "camera.delete":
+                delete(parameters);
+                break;
+            default:
+                sendJson(400, createError(name, "unknownCommand", "Unknown command " + name),
+                        out);
+                return;
+        }
+        sendJson(200, new JSONObject().put("name", name).put("state", "done")
+                .put("results", results), out);
+    }
+
+    private JSONObject listFiles(JSONObject parameters) throws JSONException {
+        int entryCount = parameters.optInt("entryCount", 10);
+        int startPosition = parameters.optInt("startPosition", 0);
+        int maxThumbSize = parameters.optInt("maxThumbSize", 0);
+        JSONArray entries = new JSONArray();
+        int total;
+        String thumbnail = null;
+        synchronized (mLock) {
+            total = mFileNames.size();
+            if (maxThumbSize > 0) {
+                thumbnail = Base64.getEncoder().encodeToString(mThumbnailData);
+            }
+            // newest first, as on the device
+            for (int position = startPosition;
+                    position < Math.min(total, startPosition + entryCount); position++) {
+                String fileName = mFileNames.get(total - 1 - position);
+                JSONObject entry = new JSONObject();
+                entry.put("name", fileName);
+                entry.put("fileUrl", toFileUrl(fileName));
+                entry.put("size", mFileData.length);
+                entry.put("dateTimeZone", "2026:01:01 00:00:00+09:00");
+                entry.put("width", mImageWidth);
+                entry.put("height", mImageWidth / 2);
+                if (thumbnail != null) {
+                    entry.put("thumbnail", thumbnail);
+                }
+                entries.put(entry);
+            }
+        }
+        return new JSONObject().put("entries", entries).put("totalEntries", total);
+    }
+
+    private JSONObject getOptions(JSONArray optionNames) throws JSONException {
+        JSONObject options = new JSONObject();
+        if (optionNames == null) {
+            return options;
+        }
+        for (int index = 0; index < optionNames.length(); index++) {
+            String optionName = optionNames.getString(index);
+            switch (optionName) {
+                case "captureMode":
+                    options.put(optionName, "image");
+                    break;
+                case "fileFormat":
+                    options.put(optionName, new JSONObject().put("type", "jpeg")
+                            .put("width", mImageWidth).put("height", mImageWidth / 2));
+                    break;
+                case "remainingPictures":
+                    options.put(optionName, 1000);
+                    break;
+                case "remainingSpace":
+                    options.put(optionName, 32L * 1024 * 1024 * 1024);
+                    break;
+                case "totalSpace":
+                    options.put(optionName, 64L * 1024 * 1024 * 1024);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return options;
+    }
+
+    private void delete(JSONObject parameters) throws JSONException {
+        List<String> fileUrls = new ArrayList<>();
+        JSONArray array = parameters.optJSONArray("fileUrls");
+        if (array != null) {
+            for (int index = 0; index < array.length(); index++) {
+                fileUrls.add(array.getString(index));
+            }
+        }
+        String fileUri = parameters.optString("fileUri", null);
+        if (fileUri != null) {
+            fileUrls.add(fileUri);
+        }
+        synchronized (mLock) {
+            for (String fileUrl : fileUrls) {
+                mFileNames.remove(fileUrl.substring(fileUrl.lastIndexOf('/') + 1));
+            }
+            changeState();
+        }
+    }
+
+    private void sendStatus(String id, OutputStream out) throws IOException, JSONException {
+        String fileName = null;
+        boolean known;
+        synchronized (mLock) {
+            Long deadline = mCaptureDeadlines.get(id);
+            known = deadline != null;
+            if (known && System.nanoTime() >= deadline) {
+                mCaptureDeadlines.remove(id);
+                fileName = nextFileName();
+                mFileNames.add(fileName);
+                changeState();
+            }
+        }
+        if (!known) {
+            sendJson(400, createError("camera.takePicture", "invalidParameterValue",
+                    "Unknown command ID " + id), out);
+        } else if (fileName != null) {
+            sendJson(200, new JSONObject().put("name", "camera.takePicture").put("state", "done")
+                    .put("results", new JSONObject().put("fileUrl", toFileUrl(fileName))), out);
+        } else {
+            sendJson(200, new JSONObject().put("name", "camera.takePicture")
+                    .put("state", "inProgress").put("id", id), out);
+        }
+    }
+
+    private JSONObject checkForUpdates(JSONObject input) throws JSONException,
+            InterruptedException {
+        String fingerPrint = input.optString("stateFingerprint");
+        long waitTimeoutMs = input.optLong("waitTimeout", 0) * 1000;
+        long deadline = System.currentTimeMillis() + waitTimeoutMs;
+        String current;
+        synchronized (mLock) {
+            while (!mClosed && getFingerprint().equals(fingerPrint)
+                    && System.currentTimeMillis() < deadline) {
+                mLock.wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            current = getFingerprint();
+        }
+        return new JSONObject().put("stateFingerprint", current)
+                .put("throttleTimeout", mThrottleTimeout);
+    }
+
+    private JSONObject createInfo() throws JSONException {
+        return new JSONObject().put("manufacturer", "RICOH").put("model", "RICOH THETA X")
+                .put("serialNumber", "00000001").put("firmwareVersion", "2.00.0");
+    }
+
+    private JSONObject createState() throws JSONException {
+        JSONObject state = new JSONObject();
+        synchronized (mLock) {
+            state.put("batteryLevel", 0.8);
+            state.put("_batteryState", "charging");
+            state.put("_captureStatus", mCaptureDeadlines.isEmpty() ? "idle" : "shooting");
+            state.put("_latestFileUri", mFileNames.isEmpty() ? ""
+                    : toFileUrl(mFileNames.get(mFileNames.size() - 1)));
+            return new JSONObject().put("fingerprint", getFingerprint()).put("state", state);
+        }
+    }
+
+    private static JSONObject createError(String name, String code, String message)
+            throws JSONException {
+        return new JSONObject().put("name", name).put("state", "error")
+                .put("error", new JSONObject().put("code", code).put("message", message));
+    }
+
+    private void sendFile(String resource, boolean thumbnail, String range, OutputStream out)
+            throws IOException {
+        String fileName = resource.substring(resource.lastIndexOf('/') + 1);
+        byte[] data;
+        boolean exists;
+        synchronized (mLock) {
+            exists = mFileNames.contains(fileName);
+            data = thumbnail ? mThumbnailData : mFileData;
+        }
+        if (!exists) {
+            sendBody(404, "text/plain", "", new byte[0], 0, 0, out);
+            return;
+        }
+
+        Matcher matcher = range != null ? RANGE_PATTERN.matcher(range) : null;
+        if (matcher == null || !matcher.matches() || thumbnail) {
+            sendBody(200, "image/jpeg", "Accept-Ranges: bytes\r\n", data, 0, data.length, out);
+            return;
+        }
+        long start = Long.parseLong(matcher.group(1));
+        long end = matcher.group(2).isEmpty() ? data.length - 1
+                : Math.min(Long.parseLong(matcher.group(2)), data.length - 1);
+        if (start >= data.length || end < start) {
+            sendBody(416, "text/plain", "Content-Range: bytes */" + data.length + "\r\n",
+                    new byte[0], 0, 0, out);
+            return;
+        }
+        sendBody(206, "image/jpeg", "Content-Range: bytes " + start + "-" + end + "/"
+                + data.length + "\r\nETag: \"" + data.length + "\"\r\n", data, (int) start,
+                (int) (end - start + 1), out);
+    }
+
+    private void sendPreview(OutputStream out) throws IOException, InterruptedException {
+        out.write(("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: multipart/x-mixed-replace; boundary=\"---osclivepreview---\"\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        long intervalNanos = 1000000000L / Math.max(1, mPreviewFrameRate);
+        long next = System.nanoTime();
+        while (true) {
+            byte[] frame;
+            synchronized (mLock) {
+                if (mClosed) {
+                    return;
+                }
+                frame = mPreviewFrameData;
+            }
+            out.write(("---osclivepreview---\r\nContent-type: image/jpeg\r\nContent-Length: "
+                    + frame.length + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(frame);
+            out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            count("previewFrame");
+            next += intervalNanos;
+            long sleepNanos = next - System.nanoTime();
+            if (sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+            }
+        }
+    }
+
+    private static void sendJson(int statusCode, JSONObject json, OutputStream out)
+            throws IOException {
+        byte[] data = json.toString().getBytes(StandardCharsets.UTF_8);
+        sendBody(statusCode, "application/json; charset=utf-8", "", data, 0, data.length, out);
+    }
+
+    private static void sendBody(int statusCode, String contentType, String extraHeaders,
+            byte[] data, int offset, int length, OutputStream out) throws IOException {
+        out.write(("HTTP/1.1 " + statusCode + " " + reason(statusCode) + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + extraHeaders + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.write(data, offset, length);
+    }
+
+    private static String reason(int statusCode) {
+        switch (statusCode) {
+            case 200:
+                return "OK";
+            case 206:
+                return "Partial Content";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 416:
+                return "Range Not Satisfiable";
+            default:
+                return "Status";
+        }
+    }
+
+    private void count(String key) {
+        mRequestCounts.computeIfAbsent(key, name -> new AtomicLong()).incrementAndGet();
+    }
+
+    private String nextFileName() {
+        return String.format(Locale.US, "R%07d.JPG", mNextFileNumber++);
+    }
+
+    private String toFileUrl(String fileName) {
+        return "http://" + getAddress() + "/files/" + FOLDER + "/" + fileName;
+    }
+
+    private String getFingerprint() {
+        return "FIG_" + mFingerprint;
+    }
+
+    /**
+     * Change the fingerprint and wake /osc/checkForUpdates requests waiting for a change
+     */
+    private void changeState() {
+        mFingerprint++;
+        mLock.notifyAll();
+    }
+
+    private static String toPath(String target) {
+        if (target.startsWith("http://")) {
+            int slash = target.indexOf('/', "http://".length());
+            return slash >= 0 ? target.substring(slash) : "/";
+        }
+        return target;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int value;
+        while ((value = in.read()) >= 0) {
+            if (value == '\n') {
+                byte[] bytes = line.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r'
+                        ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            line.write(value);
+        }
+        return line.size() > 0 ? line.toString("ISO-8859-1") : null;
+    }
+
+    /**
+     * Create JPEG data of the given size<p>
+     * The entropy-coded part holds no 0xFF byte, so the data is split correctly by marker-aware
+     * readers.
+     *
+     * @param size Size of the data (unit: bytes)
+     * @param withPose true:Include an XMP packet with pose angles, false:No XMP packet
+     * @return JPEG data
+     */
+    static byte[] createJpeg(int size, boolean withPose) {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        head.write(0xFF);
+        head.write(0xD8);
+        if (withPose) {
+            byte[] xmp = ("http://ns.adobe.com/xap/1.0/\0"
+                    + "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF><rdf:Description "
+                    + "xmlns:GPano=\"http://ns.google.com/photos/1.0/panorama/\">"
+                    + "<GPano:PosePitchDegrees>" + POSE_PITCH + "</GPano:PosePitchDegrees>"
+                    + "<GPano:PoseRollDegrees>" + POSE_ROLL + "</GPano:PoseRollDegrees>"
+                    + "<GPano:PoseHeadingDegrees>" + POSE_HEADING + "</GPano:PoseHeadingDegrees>"
+                    + "</rdf:Description></rdf:RDF></x:xmpmeta>")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+            writeSegment(head, 0xE1, xmp);
+        }
+        writeSegment(head, 0xDB, new byte[65]);
+        writeSegment(head, 0xDA, new byte[10]);
+
+        byte[] data = new byte[Math.max(size, head.size() + 2)];
+        byte[] headData = head.toByteArray();
+        System.arraycopy(headData, 0, data, 0, headData.length);
+        for (int index = headData.length; index < data.length - 2; index++) {
+            data[index] = (byte) (index % 251);
+        }
+        data[data.length - 2] = (byte) 0xFF;
+        data[data.length - 1] = (byte) 0xD9;
+        return data;
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] payload) {
+        out.write(0xFF);
+        out.write(marker);
+        out.write((payload.length + 2) >> 8);
+        out.write((payload.length + 2) & 0xFF);
+        out.write(payload, 0, payload.length);
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2018 Ricoh Company, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.theta360.pluginapplication.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Unit tests of {@link XmpExtractor}
+ */
+public class XmpExtractorTest {
+    private final static String XMP_NAMESPACE = "http://ns.adobe.com/xap/1.0/\0";
+    private final static String ELEMENT_XMP = "<<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF>"
+            + "<rdf:Description><GPano:PosePosePitchDegrees>9</GPano:PosePosePitchDegrees>"
+            + "<GPano:PosePitchDegrees>1.5</GPano:PosePitchDegrees>"
+            + "<GPano:PoseRollDegrees>-2.25</GPano:PoseRollDegrees>"
+            + "<GPano:PoseHeadingDegrees>123.0</GPano:PoseHeadingDegrees>"
+            + "</rdf:Description></rdf:RDF></x:xmpmeta>";
+    private final static String ATTRIBUTE_XMP = "<x:xmpmeta><rdf:RDF><rdf:Description"
+            + " GPano:PosePitchDegrees=\"1.5\" GPano:PoseRollDegrees='-2.25'"
+            + " GPano:PoseHeadingDegrees=\"123.0\"/></rdf:RDF></x:xmpmeta>";
+
+    @Test
+    public void elementForm_isExtracted() {
+        byte[] jpeg = createJpeg(ELEMENT_XMP);
+        XmpExtractor extractor = new XmpExtractor();
+        assertTrue(extractor.feed(jpeg, 0, jpeg.length));
+        assertPose(extractor);
+    }
+
+    @Test
+    public void attributeForm_isExtracted() {
+        byte[] jpeg = createJpeg(ATTRIBUTE_XMP);
+        XmpExtractor extractor = new XmpExtractor();
+        assertTrue(extractor.feed(jpeg, 0, jpeg.length));
+        assertPose(extractor);
+    }
+
+    @Test
+    public void splitChunks_areExtracted() {
+        byte[] jpeg = createJpeg(ELEMENT_XMP);
+        int xmpEnd = indexOf(jpeg, "</x:xmpmeta>") + "</x:xmpmeta>".length();
+
+        // one byte at a time, finishing exactly at the end of the XMP segment
+        XmpExtractor extractor = new XmpExtractor();
+        for (int index = 0; index < jpeg.length; index++) {
+            boolean finished = extractor.feed(jpeg, index, 1);
+            assertEquals(index >= xmpEnd - 1, finished);
+        }
+        assertPose(extractor);
+
+        Random random = new Random(1);
+        for (int trial = 0; trial < 100; trial++) {
+            extractor = new XmpExtractor();
+            int offset = 0;
+            while (offset < jpeg.length && !extractor.isFinished()) {
+                int length = Math.min(jpeg.length - offset, 1 + random.nextInt(64));
+                extractor.feed(jpeg, offset, length);
+                offset += length;
+            }
+            assertPose(extractor);
+        }
+    }
+
+    @Test
+    public void exifSegment_isSkipped() {
+        // an EXIF APP1 segment comes first and holds text looking like a pose
+        byte[] exif = ("Exif\0\0<GPano:PosePitchDegrees>99</GPano:PosePitchDegrees>")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        writeSegment(out, 0xE0, "JFIF\0".getBytes(StandardCharsets.ISO_8859_1));
+        writeSegment(out, 0xE1, exif);
+        writeSegment(out, 0xE1, (XMP_NAMESPACE + ELEMENT_XMP)
+                .getBytes(StandardCharsets.ISO_8859_1));
+        writeImage(out);
+        byte[] jpeg = out.toByteArray();
+
+        XmpExtractor extractor = new XmpExtractor();
+        assertTrue(extractor.feed(jpeg, 0, jpeg.length));
+        assertPose(extractor);
+    }
+
+    @Test
+    public void startOfScan_stops() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        writeSegment(out, 0xE0, "JFIF\0".getBytes(StandardCharsets.ISO_8859_1));
+        writeImage(out);
+        // XMP after the image data is not examined
+        writeSegment(out, 0xE1, (XMP_NAMESPACE + ELEMENT_XMP)
+                .getBytes(StandardCharsets.ISO_8859_1));
+        byte[] jpeg = out.toByteArray();
+        int scanStart = indexOf(jpeg, new byte[]{(byte) 0xFF, (byte) 0xDA});
+
+        XmpExtractor extractor = new XmpExtractor();
+        assertFalse(extractor.feed(jpeg, 0, scanStart + 1));
+        assertTrue(extractor.feed(jpeg, scanStart + 1, 1));
+        assertTrue(extractor.feed(jpeg, scanStart + 2, jpeg.length - scanStart - 2));
+        assertFalse(extractor.isXmpFound());
+        assertFalse(extractor.hasPose());
+    }
+
+    @Test
+    public void endOfImage_stops() {
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xFF, (byte) 0xD9, 0x00};
+        XmpExtractor extractor = new XmpExtractor();
+        assertFalse(extractor.feed(jpeg, 0, 4));
+        assertTrue(extractor.feed(jpeg, 4, 2));
+        assertFalse(extractor.isXmpFound());
+        assertNull(extractor.getPosePitchDegrees());
+    }
+
+    @Test
+    public void nonJpeg_stops() {
+        byte[] data = ("<x:xmpmeta>" + ELEMENT_XMP).getBytes(StandardCharsets.ISO_8859_1);
+        XmpExtractor extractor = new XmpExtractor();
+        assertTrue(extractor.feed(data, 0, data.length));
+        assertFalse(extractor.isXmpFound());
+
+        // callers search the whole data of other files
+        extractor.scan(data, 0, data.length);
+        assertEquals(1.5, extractor.getPosePitchDegrees(), 0.0);
+        assertEquals(-2.25, extractor.getPoseRollDegrees(), 0.0);
+        assertEquals(123.0, extractor.getPoseHeadingDegrees(), 0.0);
+    }
+
+    private static void assertPose(XmpExtractor extractor) {
+        assertTrue(extractor.isFinished());
+        assertTrue(extractor.isXmpFound());
+        assertTrue(extractor.hasPose());
+        assertEquals(1.5, extractor.getPosePitchDegrees(), 0.0);
+        assertEquals(-2.25, extractor.getPoseRollDegrees(), 0.0);
+        assertEquals(123.0, extractor.getPoseHeadingDegrees(), 0.0);
+    }
+
+    private static byte[] createJpeg(String xmp) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        writeSegment(out, 0xE0, "JFIF\0".getBytes(StandardCharsets.ISO_8859_1));
+        writeSegment(out, 0xE1, (XMP_NAMESPACE + xmp).getBytes(StandardCharsets.ISO_8859_1));
+        writeImage(out);
+        return out.toByteArray();
+    }
+
+    private static void writeImage(ByteArrayOutputStream out) {
+        writeSegment(out, 0xDB, new byte[65]);
+        writeSegment(out, 0xDA, new byte[10]);
+        for (int index = 0; index < 1000; index++) {
+            out.write(index % 251);
+        }
+        out.write(0xFF);
+        out.write(0xD9);
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, byte[] payload) {
+        out.write(0xFF);
+        out.write(marker);
+        out.write((payload.length + 2) >> 8);
+        out.write((payload.length + 2) & 0xFF);
+        out.write(payload, 0, payload.length);
+    }
+
+    private static int indexOf(byte[] data, String text) {
+        return indexOf(data, text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int index = 0; index <= data.length - pattern.length; index++) {
+            boolean matches = true;
+            for (int patternIndex = 0; patternIndex < pattern.length && matches;
+                    patternIndex++) {
+                matches = data[index + patternIndex] == pattern[patternIndex];
+            }
+            if (matches) {
+                return index;
+            }
+        }
+        return -1;
+    }
+}